@@ -1,6 +1,7 @@
 #version 400 core
 
 in vec2 out_coord;
+in float out_shade;
 
 out vec4 out_color;
 
@@ -9,5 +10,5 @@ uniform sampler2D texture0;
 uniform vec3 color;
 
 void main(void) {
-	out_color = texture(texture0, out_coord) * vec4(color, 1);
+	out_color = texture(texture0, out_coord) * vec4(color * out_shade, 1);
 }
\ No newline at end of file
@@ -1,13 +1,43 @@
 #version 400 core
 
-in vec3 vPos;
-in vec2 vTex;
+layout(location = 0) in vec3 vPos;
+layout(location = 1) in vec2 vTex;
+layout(location = 2) in uint vPacked; // see `PackedVertex`, read instead of the others when `packed` is set
+layout(location = 3) in float vAo; // ambient occlusion of the corner, 0 to 3
 
 out vec2 out_coord;
+out float out_shade;
 
 uniform mat4 MVP;
+uniform bool packed;
 
 void main(void) {
-	gl_Position = MVP * vec4(vPos, 1.0);
-	out_coord = vec2(vTex);
+	if (packed) {
+		vec3 pos = vec3(vPacked & 127u, (vPacked >> 7) & 127u, (vPacked >> 14) & 127u);
+		uint face = (vPacked >> 21) & 7u;
+		uint ao = (vPacked >> 24) & 3u;
+		// bits 26 and up hold the texture layer, unused while all blocks share one texture
+		
+		// texture coordinates run along the face's in-plane axes, mirrored like the float
+		// meshes: front, back, bottom, top, left, right
+		vec2 coord;
+		if (face == 0u)
+			coord = pos.xy;
+		else if (face == 1u)
+			coord = vec2(-pos.x, pos.y);
+		else if (face <= 3u)
+			coord = pos.xz;
+		else if (face == 4u)
+			coord = vec2(-pos.z, pos.y);
+		else
+			coord = pos.zy;
+		
+		gl_Position = MVP * vec4(pos, 1.0);
+		out_coord = coord;
+		out_shade = 0.4 + 0.2 * float(ao);
+	} else {
+		gl_Position = MVP * vec4(vPos, 1.0);
+		out_coord = vec2(vTex);
+		out_shade = 0.4 + 0.2 * vAo;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.ch;
+
+import java.util.Arrays;
+
+/**
+ * is a growable array of primitive floats, used in place of an `ArrayList<Float>` to
+ * collect mesh data without boxing every component. The backing array is handed out
+ * as is by `array()`, so it can be copied into a buffer in one go; only the first
+ * `size()` entries are valid.
+ */
+public class FloatList {
+
+	private float[] data;
+	private int size;
+
+	public FloatList() {
+		this(1024);
+	}
+
+	public FloatList(int capacity) {
+		data = new float[Math.max(capacity, 16)];
+	}
+
+	public void add(float value) {
+		if (size == data.length)
+			grow(size + 1);
+		data[size++] = value;
+	}
+
+	/**
+	 * appends six values, the size of one vertex of the chunk meshes, with a single
+	 * capacity check.
+	 */
+	public void add(float a, float b, float c, float d, float e, float f) {
+		if (size + 6 > data.length)
+			grow(size + 6);
+		float[] data = this.data;
+		int s = size;
+		data[s] = a;
+		data[s + 1] = b;
+		data[s + 2] = c;
+		data[s + 3] = d;
+		data[s + 4] = e;
+		data[s + 5] = f;
+		size = s + 6;
+	}
+
+	/**
+	 * appends every value of another list.
+	 */
+	public void addAll(FloatList values) {
+		int n = values.size;
+		if (size + n > data.length)
+			grow(size + n);
+		System.arraycopy(values.data, 0, data, size, n);
+		size += n;
+	}
+
+	public float get(int i) {
+		if (i >= size)
+			throw new IndexOutOfBoundsException("index " + i + " of " + size);
+		return data[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * empties the list, keeping its capacity for the next use.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * drops the values past the first `size`, as when a mesh was compacted in place
+	 * through `array()`.
+	 */
+	public void truncate(int size) {
+		if (size > this.size)
+			throw new IndexOutOfBoundsException("size " + size + " of " + this.size);
+		this.size = size;
+	}
+
+	/**
+	 * returns the backing array, valid up to `size()`. It is replaced whenever the list
+	 * grows, so it must not be held across additions.
+	 */
+	public float[] array() {
+		return data;
+	}
+
+	/**
+	 * copies the values into a new array of exactly `size()` entries.
+	 */
+	public float[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int min_capacity) {
+		data = Arrays.copyOf(data, Math.max(min_capacity, data.length + (data.length >> 1)));
+	}
+
+}
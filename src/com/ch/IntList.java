@@ -0,0 +1,107 @@
+package com.ch;
+
+import java.util.Arrays;
+
+/**
+ * is a growable array of primitive ints, used in place of an `ArrayList<Integer>` to
+ * collect mesh indices without boxing them. Like `FloatList` it hands out its backing
+ * array, valid up to `size()`.
+ */
+public class IntList {
+
+	private int[] data;
+	private int size;
+
+	public IntList() {
+		this(1024);
+	}
+
+	public IntList(int capacity) {
+		data = new int[Math.max(capacity, 16)];
+	}
+
+	public void add(int value) {
+		if (size == data.length)
+			grow(size + 1);
+		data[size++] = value;
+	}
+
+	/**
+	 * appends every value of `values` plus `offset`, as when adding the indices of a
+	 * face whose first vertex is `offset`.
+	 */
+	public void addOffset(int offset, int[] values) {
+		int n = values.length;
+		if (size + n > data.length)
+			grow(size + n);
+		int[] data = this.data;
+		for (int i = 0; i < n; i++)
+			data[size + i] = values[i] + offset;
+		size += n;
+	}
+
+	/**
+	 * appends every value of another list plus `offset`, as when appending one mesh to
+	 * another whose vertices come first.
+	 */
+	public void addOffset(int offset, IntList values) {
+		int n = values.size;
+		if (size + n > data.length)
+			grow(size + n);
+		int[] data = this.data, src = values.data;
+		for (int i = 0; i < n; i++)
+			data[size + i] = src[i] + offset;
+		size += n;
+	}
+
+	public int get(int i) {
+		if (i >= size)
+			throw new IndexOutOfBoundsException("index " + i + " of " + size);
+		return data[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * empties the list, keeping its capacity for the next use.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * drops the values past the first `size`, as when a mesh was compacted in place
+	 * through `array()`.
+	 */
+	public void truncate(int size) {
+		if (size > this.size)
+			throw new IndexOutOfBoundsException("size " + size + " of " + this.size);
+		this.size = size;
+	}
+
+	/**
+	 * returns the backing array, valid up to `size()`. It is replaced whenever the list
+	 * grows, so it must not be held across additions.
+	 */
+	public int[] array() {
+		return data;
+	}
+
+	/**
+	 * copies the values into a new array of exactly `size()` entries.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+
+	private void grow(int min_capacity) {
+		data = Arrays.copyOf(data, Math.max(min_capacity, data.length + (data.length >> 1)));
+	}
+
+}
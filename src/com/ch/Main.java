@@ -10,6 +10,17 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.PixelFormat;
 
 import com.ch.math.Vector3f;
+import com.ch.voxel.Chunk;
+import com.ch.voxel.ChunkCompactor;
+import com.ch.voxel.ChunkGenerator;
+import com.ch.voxel.ChunkMesher;
+import com.ch.voxel.MeshMode;
+import com.ch.voxel.PackedVertex;
+import com.ch.voxel.RleColumnStorage;
+import com.ch.voxel.VoxelArena;
+import com.ch.voxel.VoxelBenchmarks;
+import com.ch.voxel.VoxelChecks;
+import com.ch.voxel.VoxelFormat;
 import com.ch.voxel.World;
 
 /**
@@ -33,9 +44,65 @@ public class Main {
 	 * 	- Length: The `args` array has 0 or more elements, which are strings.
 	 * 	- Elements: Each element in `args` is a string that represents an command-line
 	 * argument passed to the program at runtime.
+	 * 
+	 * Recognized options:
+	 * 	- `-offheap`: keeps the chunks' voxel data in an off-heap `VoxelArena`.
+	 * 	- `-rle`: keeps the chunks' voxel data as run-length encoded columns, for chunks
+	 * of up to 128 voxels.
+	 * 	- `-chunk <n>`: sets the chunk edge length to `n` voxels, one of 16, 32, 64 or 128.
+	 * 	- `-greedy`: merges the chunks' coplanar block faces into larger quads.
+	 * 	- `-smooth`: meshes the terrain as a smooth surface instead of blocks, with float
+	 * vertices.
+	 * 	- `-packed`: packs each vertex of the chunk meshes into a single int, for chunks
+	 * of up to 64 voxels.
+	 * 	- `-noao`: leaves the ambient occlusion out of the chunk meshes.
+	 * 	- `-noweld`: keeps a vertex per corner of every block face rather than merging
+	 * the ones neighbouring faces share, which meshes faster but uploads more.
+	 * 	- `-optimize <millis>`: lets each chunk spend up to that long reordering its
+	 * triangles for the vertex cache and front to back, 0 by default to leave them in
+	 * the order they are meshed. The title then shows the average cache miss ratio
+	 * before and after.
+	 * 	- `-mesher <threads>`: meshes the chunks on that many background threads, one per
+	 * core but one by default, 0 to mesh them on the render thread.
+	 * 	- `-generator <threads>`: generates the chunks' terrain on that many background
+	 * threads, one per core by default, 0 to generate it on the render thread. Chunks
+	 * show up as they are done.
+	 * 	- `-genbench`: generates the loaded area on 1, 2, 4 and so on up to one generator
+	 * thread per core, prints the chunks generated per second with each and exits,
+	 * without opening a window. It first prints the noise samples per second of
+	 * `SimplexNoise` one point at a time and in a batch, and how far apart they come out.
+	 * 	- `-bench <name>`: runs one of the headless benchmarks of `VoxelBenchmarks` with
+	 * the other options given, prints its numbers and exits without opening a window.
+	 * 	- `-check <name>`: runs one of the headless checks of `VoxelChecks` with the other
+	 * options given and exits without opening a window, with status 1 if it failed.
+	 * 	- `-view <voxels>`: sets the width of the loaded area around the camera, 256 by
+	 * default.
+	 * 	- `-lod <voxels>`: draws the chunks farther than that from the camera at half
+	 * resolution, and coarser again each time the distance doubles, 0 by default to draw
+	 * every chunk in full.
+	 * 	- `-compact <seconds>`: deflates the voxel data of chunks left untouched for that
+	 * long, 30 by default, 0 to disable.
 	 */
 	public static void main(String[] args) {
 		
+		parseArgs(args);
+		if (benchmark) {
+			benchmarkNoise();
+			benchmarkGeneration();
+			exit(0);
+		}
+		if (bench != null) {
+			VoxelBenchmarks benchmarks = new VoxelBenchmarks(format, offheap, mesh_mode, vertex_format, ambient_occlusion, weld, optimize_millis * 1000000L, view_width, mesher_threads);
+			if (!benchmarks.run(bench)) {
+				System.err.println("unknown benchmark: " + bench);
+				exit(1);
+			}
+			exit(0);
+		}
+		if (check != null) {
+			VoxelChecks checks = new VoxelChecks(format, mesh_mode, vertex_format, ambient_occlusion, weld, optimize_millis * 1000000L);
+			exit(checks.run(check) ? 0 : 1);
+		}
 		initDisplay();
 		initGL();
 		loop();
@@ -50,6 +117,107 @@ public class Main {
 //	private static Chunk[][][] ch;
 	private static World w;
 	
+	private static boolean offheap = false;
+	private static VoxelFormat format = VoxelFormat.PALETTE;
+	private static int compact_after = 30; // seconds, 0 to disable
+	private static MeshMode mesh_mode = MeshMode.NAIVE;
+	private static VertexFormat vertex_format = VertexFormat.FLOAT;
+	private static boolean ambient_occlusion = true;
+	private static boolean weld = true;
+	private static int optimize_millis = 0; // per chunk, 0 to keep the meshed order
+	private static int view_width = 256; // voxels
+	private static int lod_distance = 0; // voxels, 0 to draw every chunk at full resolution
+	private static int mesher_threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1); // 0 to mesh on the render thread
+	private static int generator_threads = Runtime.getRuntime().availableProcessors(); // 0 to generate on the render thread
+	private static boolean benchmark = false;
+	private static String bench; // name of the benchmark to run instead of opening a window
+	private static String check; // name of the check to run instead of opening a window
+	private static final long UPLOAD_BUDGET = 2000000; // nanoseconds of mesh uploads per frame
+	
+	/**
+	 * reads the startup options from the command line, ignoring unknown ones, and falls
+	 * back to the palette storage and float vertices where the chunk size or mesh mode
+	 * rules out run-length encoding or packed vertices. Runs before any chunk
+	 * exists, as the chunk size can only be set before `Chunk` is loaded.
+	 * 
+	 * @param args program's command-line arguments.
+	 */
+	private static void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-offheap"))
+				offheap = true;
+			else if (arg.equals("-rle"))
+				format = VoxelFormat.RLE_COLUMNS;
+			else if (arg.equals("-greedy"))
+				mesh_mode = MeshMode.GREEDY;
+			else if (arg.equals("-smooth"))
+				mesh_mode = MeshMode.SMOOTH;
+			else if (arg.equals("-packed"))
+				vertex_format = VertexFormat.PACKED;
+			else if (arg.equals("-noao"))
+				ambient_occlusion = false;
+			else if (arg.equals("-noweld"))
+				weld = false;
+			else if (arg.equals("-optimize") && i + 1 < args.length)
+				optimize_millis = Integer.parseInt(args[++i]);
+			else if (arg.equals("-chunk") && i + 1 < args.length)
+				System.setProperty(Chunk.CHUNK_SIZE_PROPERTY, checkChunkSize(args[++i]));
+			else if (arg.equals("-mesher") && i + 1 < args.length)
+				mesher_threads = Integer.parseInt(args[++i]);
+			else if (arg.equals("-generator") && i + 1 < args.length)
+				generator_threads = Integer.parseInt(args[++i]);
+			else if (arg.equals("-genbench"))
+				benchmark = true;
+			else if (arg.equals("-bench") && i + 1 < args.length)
+				bench = args[++i];
+			else if (arg.equals("-check") && i + 1 < args.length)
+				check = args[++i];
+			else if (arg.equals("-view") && i + 1 < args.length)
+				view_width = Integer.parseInt(args[++i]);
+			else if (arg.equals("-lod") && i + 1 < args.length)
+				lod_distance = Integer.parseInt(args[++i]);
+			else if (arg.equals("-compact") && i + 1 < args.length)
+				compact_after = Integer.parseInt(args[++i]);
+			else
+				System.err.println("unknown option: " + arg);
+		}
+		if (format == VoxelFormat.RLE_COLUMNS && Chunk.CHUNK_SIZE > RleColumnStorage.MAX_EDGE) {
+			System.err.println("-rle needs chunks of at most " + RleColumnStorage.MAX_EDGE + " voxels, using the palette storage");
+			format = VoxelFormat.PALETTE;
+		}
+		if (vertex_format == VertexFormat.PACKED && Chunk.CHUNK_SIZE > PackedVertex.MAX_COORD) {
+			System.err.println("-packed needs chunks of at most " + PackedVertex.MAX_COORD + " voxels, using float vertices");
+			vertex_format = VertexFormat.FLOAT;
+		}
+		if (vertex_format == VertexFormat.PACKED && mesh_mode == MeshMode.SMOOTH) {
+			System.err.println("-smooth needs float vertices, ignoring -packed");
+			vertex_format = VertexFormat.FLOAT;
+		}
+	}
+	
+	/**
+	 * checks the value of `-chunk` against the sizes `Chunk` accepts, a power of two from
+	 * 16 to 128, and exits with an error otherwise rather than have `Chunk` fail to load.
+	 * 
+	 * @param value chunk size as given on the command line.
+	 * 
+	 * @returns the value, if it is a valid size.
+	 */
+	private static String checkChunkSize(String value) {
+		int size;
+		try {
+			size = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			size = 0;
+		}
+		if (size < 16 || size > 128 || Integer.bitCount(size) != 1) {
+			System.err.println("chunk size " + value + " is not one of 16, 32, 64 or 128");
+			exit(1);
+		}
+		return value;
+	}
+	
 	/**
 	 * sets up a display mode with a resolution of 1920x1080, creates a GL context with
 	 * forward compatibility and core profile support, and enables vsync. It also prints
@@ -66,6 +234,59 @@ public class Main {
 		}
 	}
 	
+	/**
+	 * times the 3D noise over a chunk's worth of points, at the scale the terrain samples
+	 * it, point by point and in a batch, keeping the best of a few rounds of each.
+	 */
+	private static void benchmarkNoise() {
+		int n = Chunk.CHUNK_SIZE;
+		float[] coords = new float[n];
+		for (int i = 0; i < n; i++)
+			coords[i] = (i + 1000) / 10f; // away from the origin, where the noise is symmetric
+		float[] scalar = new float[n * n * n], batch = new float[n * n * n];
+		long best_scalar = Long.MAX_VALUE, best_batch = Long.MAX_VALUE;
+		for (int round = 0; round < 40; round++) {
+			long start = System.nanoTime();
+			int o = 0;
+			for (float z : coords)
+				for (float y : coords)
+					for (float x : coords)
+						scalar[o++] = (float) SimplexNoise.noise(x, y, z);
+			best_scalar = Math.min(best_scalar, System.nanoTime() - start);
+			start = System.nanoTime();
+			SimplexNoise.noise(batch, 0, coords, coords, coords);
+			best_batch = Math.min(best_batch, System.nanoTime() - start);
+		}
+		float error = 0;
+		for (int i = 0; i < batch.length; i++)
+			error = Math.max(error, Math.abs(batch[i] - scalar[i]));
+		double samples = batch.length * 1e3;
+		System.out.println(String.format("noise: %.1fM samples/s one by one, %.1fM samples/s in a batch, %.2fx, differing by up to %.1e",
+				samples / best_scalar, samples / best_batch, (double) best_scalar / best_batch, error));
+	}
+	
+	/**
+	 * times the generation of a grid of chunks as wide as the loaded area on ever more
+	 * threads, after a round to warm the JIT up, and prints the chunks per second and the
+	 * speedup over a single thread.
+	 */
+	private static void benchmarkGeneration() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int width = Math.max(1, view_width / Chunk.CHUNK_SIZE), height = Math.max(1, 128 / Chunk.CHUNK_SIZE); // as `World` loads
+		double single = 0;
+		for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+			ChunkGenerator generator = new ChunkGenerator(threads);
+			generator.benchmark(width, height, format);
+			double rate = generator.benchmark(width, height, format);
+			generator.shutdown();
+			if (threads == 1)
+				single = rate;
+			System.out.println(String.format("%d chunks of %d voxels on %d threads: %.1f chunks/s, %.2fx", width * height * width, Chunk.CHUNK_SIZE, threads, rate, rate / single));
+			if (threads == cores)
+				break;
+		}
+	}
+	
 	/**
 	 * initializes various GL settings for a 3D graphics program, including color, depth
 	 * testing, and culling face. It also loads a shader, creates a texture, and initializes
@@ -82,7 +303,7 @@ public class Main {
 		
 		GL11.glEnable(GL11.GL_DEPTH_TEST);
 		
-		c = new Camera3D(70, 16.f/9, .03f, 1000);
+		c = new Camera3D(70, 16.f/9, .03f, Math.max(1000, view_width));
 		
 		s = Shader.loadShader("res/shaders/default");
 		
@@ -106,7 +327,8 @@ public class Main {
 //					ch[i][j][k].updateBlocks();
 //					ch[i][j][k].genModel();
 //				}
-		w = new World();
+		w = new World(128, format, offheap ? new VoxelArena() : null, compact_after > 0 ? new ChunkCompactor(compact_after * 1000L) : null, mesh_mode, vertex_format,
+				mesher_threads > 0 ? new ChunkMesher(mesher_threads, 64) : null, generator_threads > 0 ? new ChunkGenerator(generator_threads) : null, ambient_occlusion, weld, optimize_millis * 1000000L, view_width, lod_distance);
 		//m = c.genModel();//Model.load(vertices, indices);
 		
 		c.getTransform().setPos(new Vector3f(0, 0, 0));
@@ -115,7 +337,8 @@ public class Main {
 	
 	/**
 	 * continuously runs a loop until the `Display.isCloseRequested()` or
-	 * `Keyboard.isKeyDown(Keyboard.KEY_ESCAPE)` is triggered. It updates the title and
+	 * `Keyboard.isKeyDown(Keyboard.KEY_ESCAPE)` is triggered. It updates the title,
+	 * uploads the chunk meshes finished in the background within `UPLOAD_BUDGET` and
 	 * renders the scene using `GL11.glClear()` and `render()`.
 	 */
 	private static void loop() {
@@ -126,11 +349,25 @@ public class Main {
 			
 			Timer.update();
 			
+			VoxelArena arena = w.getArena();
+			ChunkCompactor compactor = w.getCompactor();
+			ChunkMesher mesher = w.getMesher();
+			ChunkGenerator generator = w.getGenerator();
 			Display.setTitle("" + Timer.getFPS() + 
 					/* "   " + c.getTransform().getPos().toString() +*/ "   " 
-					+ ((Runtime.getRuntime().maxMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + " of " + (Runtime.getRuntime().maxMemory() / 1048576));
+					+ ((Runtime.getRuntime().maxMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + " of " + (Runtime.getRuntime().maxMemory() / 1048576)
+					+ "   vbo " + (w.getVertexBytes() / 1048576) + " ibo " + (w.getIndexBytes() / 1048576) + " saved " + (w.getSavedBytes() / 1048576)
+					+ "   tris " + (w.getTriangleCount() / 1000) + "k -" + (w.getCulledTriangleCount() / 1000) + "k"
+					+ (optimize_millis == 0 ? "" : String.format("   acmr %.2f>%.2f", w.getCacheMissRatio(false), w.getCacheMissRatio(true)))
+					+ (lod_distance == 0 ? "" : "   lod " + w.getChunkCount(0) + "/" + w.getChunkCount(1) + "/" + w.getChunkCount(2) + "/" + w.getChunkCount(3))
+					+ (generator == null || generator.getPendingCount() == 0 ? "" : "   generating " + generator.getPendingCount())
+					+ (mesher == null ? "" : "   meshing " + mesher.getPendingCount())
+					+ (arena == null ? "" : "   arena " + (arena.getUsedBytes() / 1048576) + " of " + (arena.getReservedBytes() / 1048576))
+					+ (compactor == null ? "" : "   deflated " + compactor.getDeflatedCount() + " saving " + (compactor.getBytesSaved() / 1024) + " KB"));
 			
 			update(Timer.getDelta());
+			w.applyChunks();
+			w.applyMeshes(UPLOAD_BUDGET);
 			GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
 			render();
 			
@@ -1,9 +1,15 @@
 package com.ch;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 
 /**
  * in the provided code is a Java class that handles rendering of 3D models using the
@@ -15,26 +21,484 @@ import org.lwjgl.opengl.GL30;
  */
 public class Model {
 
+	public static final int VERTEX_SIZE = 6; // floats per `VertexFormat.FLOAT` vertex
+	public static final int AO_ATTRIB = 3; // attribute location of the ambient occlusion of float vertices
+	public static final int PACKED_ATTRIB = 2; // attribute location of `VertexFormat.PACKED` vertices
+	public static final int MAX_SHORT_VERTICES = 1 << 16; // vertices a part may have room for to be drawn with 16 bit indices
+
 	private int vao, size;
+	private int vbo, ibo; // 0 for models created around an existing VAO
+	private VertexFormat format = VertexFormat.FLOAT;
+	private long vertex_bytes; // size of the vertex buffer
+	private long index_bytes; // size of the index buffer
+	
+	// ranges of the meshes uploaded as parts, each with room to be updated in place
+	private int parts; // 0 when the model holds a single mesh
+	private int[] part_vertex, part_index; // first vertex and byte offset of the first index of each part
+	private int[] vertex_room, index_room; // vertices and indices each part has room for
+	private boolean[] part_short; // parts whose indices are `GL_UNSIGNED_SHORT`s rather than ints
+	private int[] part_count; // indices each part currently draws
+	private int[][] part_ranges; // ends of the ranges each part is divided into, see `setRanges()`
+	
+	// direct buffers the array uploads are staged in, shared as GL is only used on one thread
+	private static FloatBuffer staging_vertices;
+	private static IntBuffer staging_packed;
+	private static IntBuffer staging_indices;
+	private static ByteBuffer staging_parts; // indices of the parts, of either size
 	
 	public Model(int vao, int count) {
 		this.vao = vao;
 		this.size = count;
 	}
 	
+	/**
+	 * creates an empty model with its own vertex array and buffers, to be filled by
+	 * `upload()`. The buffers stay with the model, so it can be refilled with a new mesh
+	 * without allocating GL objects again.
+	 * 
+	 * @returns a model with nothing to draw yet.
+	 */
+	public static Model create() {
+		return create(VertexFormat.FLOAT);
+	}
+	
+	/**
+	 * creates an empty model whose vertices are laid out in the given format. Float
+	 * vertices feed attributes 0 and 1 and their ambient occlusion `AO_ATTRIB`, packed
+	 * ones the integer attribute `PACKED_ATTRIB`, which the shader has to decode.
+	 * 
+	 * @param format layout of the vertices passed to `upload()`.
+	 * 
+	 * @returns a model with nothing to draw yet.
+	 */
+	public static Model create(VertexFormat format) {
+		int vao = createVAO();
+		Model m = new Model(vao, 0);
+		m.format = format;
+		m.ibo = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, m.ibo);
+		m.vbo = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, m.vbo);
+		if (format == VertexFormat.PACKED) {
+			GL30.glVertexAttribIPointer(PACKED_ATTRIB, 1, GL11.GL_UNSIGNED_INT, format.getBytes(), 0);
+		} else {
+			GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, format.getBytes(),     0);
+			GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, format.getBytes(), 3 * 4);
+			GL20.glVertexAttribPointer(AO_ATTRIB, 1, GL11.GL_FLOAT, false, format.getBytes(), 5 * 4);
+		}
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		return m;
+	}
+	
+	/**
+	 * replaces the model's mesh, reusing its buffers.
+	 * 
+	 * @param vertices interleaved position, texture coordinates and ambient occlusion,
+	 * from the buffer's position to its limit.
+	 * 
+	 * @param indices triangle indices, from the buffer's position to its limit.
+	 */
+	public void upload(FloatBuffer vertices, IntBuffer indices) {
+		GL30.glBindVertexArray(vao);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		size = indices.remaining();
+		vertex_bytes = vertices.remaining() * 4L;
+		index_bytes = indices.remaining() * 4L;
+		parts = 0;
+	}
+	
+	/**
+	 * replaces the mesh of a `VertexFormat.PACKED` model, reusing its buffers.
+	 * 
+	 * @param vertices packed vertices, from the buffer's position to its limit.
+	 * 
+	 * @param indices triangle indices, from the buffer's position to its limit.
+	 */
+	public void uploadPacked(IntBuffer vertices, IntBuffer indices) {
+		GL30.glBindVertexArray(vao);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		size = indices.remaining();
+		vertex_bytes = vertices.remaining() * 4L;
+		index_bytes = indices.remaining() * 4L;
+		parts = 0;
+	}
+	
+	/**
+	 * replaces the model's mesh from the first `v_count` and `i_count` entries of two
+	 * arrays, such as the backing arrays of a `FloatList` and an `IntList`. GL only takes
+	 * direct buffers, so each array is bulk copied into a staging buffer that is kept
+	 * for the next upload.
+	 * 
+	 * @param vertices interleaved position and texture coordinates.
+	 * 
+	 * @param indices triangle indices.
+	 */
+	public void upload(float[] vertices, int v_count, int[] indices, int i_count) {
+		reserveStaging(v_count, i_count);
+		FloatBuffer vb = staging_vertices;
+		IntBuffer ib = staging_indices;
+		vb.clear();
+		vb.put(vertices, 0, v_count);
+		vb.flip();
+		ib.clear();
+		ib.put(indices, 0, i_count);
+		ib.flip();
+		upload(vb, ib);
+	}
+	
+	/**
+	 * replaces the model's mesh with several meshes, such as the sections and the borders
+	 * of a chunk, which are rebuilt separately. Each part gets a range of both buffers
+	 * with some room to spare, so that `update()` can later replace it alone, and is
+	 * drawn on its own; its indices count from its own first vertex, so that the indices
+	 * of a part with room for at most `MAX_SHORT_VERTICES` vertices are stored as 16 bit
+	 * `GL_UNSIGNED_SHORT`s, half the size.
+	 * 
+	 * @param vertices vertex lists of the parts.
+	 * 
+	 * @param indices index lists of the parts, in the same order.
+	 */
+	public void upload(FloatList[] vertices, IntList[] indices) {
+		for (int p = 0; p < vertices.length; p++)
+			place(p, vertices[p].size() / VERTEX_SIZE, indices[p].size());
+		int v_total = endVertex(vertices.length);
+		reserveStaging(v_total * VERTEX_SIZE, 0);
+		FloatBuffer vb = staging_vertices;
+		vb.clear();
+		// the spare room is uploaded with whatever the staging buffers held, it is never drawn
+		for (int p = 0; p < vertices.length; p++) {
+			vb.position(part_vertex[p] * VERTEX_SIZE);
+			vb.put(vertices[p].array(), 0, vertices[p].size());
+		}
+		vb.position(0);
+		vb.limit(v_total * VERTEX_SIZE);
+		GL30.glBindVertexArray(vao);
+		uploadIndices(indices);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vb, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		vertex_bytes = vb.remaining() * 4L;
+		setParts(vertices.length);
+	}
+	
+	/**
+	 * replaces the mesh of a `VertexFormat.PACKED` model with several meshes, like
+	 * `upload(FloatList[], IntList[])` does for float vertices.
+	 * 
+	 * @param vertices packed vertex lists of the parts.
+	 * 
+	 * @param indices index lists of the parts, in the same order.
+	 */
+	public void upload(IntList[] vertices, IntList[] indices) {
+		for (int p = 0; p < vertices.length; p++)
+			place(p, vertices[p].size(), indices[p].size());
+		int v_total = endVertex(vertices.length);
+		reservePacked(v_total);
+		IntBuffer vb = staging_packed;
+		vb.clear();
+		for (int p = 0; p < vertices.length; p++) {
+			vb.position(part_vertex[p]);
+			vb.put(vertices[p].array(), 0, vertices[p].size());
+		}
+		vb.position(0);
+		vb.limit(v_total);
+		GL30.glBindVertexArray(vao);
+		uploadIndices(indices);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vb, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		vertex_bytes = vb.remaining() * 4L;
+		setParts(vertices.length);
+	}
+	
+	/**
+	 * fills the index buffer with the index lists of the parts laid out by `place()`, each
+	 * in the size it was given there. The vertex array must be bound, as the element
+	 * array binding belongs to it.
+	 */
+	private void uploadIndices(IntList[] indices) {
+		int total = endIndex(indices.length);
+		reserveParts(total);
+		ByteBuffer bb = staging_parts;
+		bb.clear();
+		for (int p = 0; p < indices.length; p++) {
+			bb.position(part_index[p]);
+			putIndices(bb, indices[p], part_short[p]);
+		}
+		bb.position(0);
+		bb.limit(total);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, bb, GL15.GL_STATIC_DRAW);
+		index_bytes = total;
+	}
+	
+	private static void putIndices(ByteBuffer bb, IntList indices, boolean shorts) {
+		int[] ix = indices.array();
+		int n = indices.size();
+		if (shorts) {
+			for (int i = 0; i < n; i++)
+				bb.putShort((short) ix[i]);
+		} else {
+			for (int i = 0; i < n; i++)
+				bb.putInt(ix[i]);
+		}
+	}
+	
+	/**
+	 * replaces one part of a mesh uploaded by `upload(FloatList[], IntList[])` in place,
+	 * writing only its ranges with `glBufferSubData`.
+	 * 
+	 * @param part position of the part in the uploaded arrays.
+	 * 
+	 * @param vertices new vertices of the part.
+	 * 
+	 * @param indices new indices of the part, counting from its first vertex.
+	 * 
+	 * @returns `false` if the part outgrew its ranges, in which case nothing was written
+	 * and the whole mesh has to be uploaded again.
+	 */
+	public boolean update(int part, FloatList vertices, IntList indices) {
+		if (!fits(part, vertices.size() / VERTEX_SIZE, indices.size()))
+			return false;
+		reserveStaging(vertices.size(), 0);
+		FloatBuffer vb = staging_vertices;
+		vb.clear();
+		vb.put(vertices.array(), 0, vertices.size());
+		vb.flip();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, part_vertex[part] * (long) format.getBytes(), vb);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		updateIndices(part, indices);
+		return true;
+	}
+	
+	/**
+	 * replaces one part of a mesh uploaded by `upload(IntList[], IntList[])` in place,
+	 * like `update(int, FloatList, IntList)` does for float vertices.
+	 */
+	public boolean update(int part, IntList vertices, IntList indices) {
+		if (!fits(part, vertices.size(), indices.size()))
+			return false;
+		reservePacked(vertices.size());
+		IntBuffer vb = staging_packed;
+		vb.clear();
+		vb.put(vertices.array(), 0, vertices.size());
+		vb.flip();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, part_vertex[part] * (long) format.getBytes(), vb);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		updateIndices(part, indices);
+		return true;
+	}
+	
+	private boolean fits(int part, int v_count, int i_count) {
+		return part < parts && v_count <= vertex_room[part] && i_count <= index_room[part];
+	}
+	
+	private void updateIndices(int part, IntList indices) {
+		reserveParts(indices.size() * 4);
+		ByteBuffer bb = staging_parts;
+		bb.clear();
+		putIndices(bb, indices, part_short[part]);
+		bb.flip();
+		// the element array binding belongs to the vertex array
+		GL30.glBindVertexArray(vao);
+		GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, part_index[part], bb);
+		unbindVAO();
+		size += indices.size() - part_count[part];
+		part_count[part] = indices.size();
+		part_ranges[part] = null;
+	}
+	
+	/**
+	 * lays out the ranges of a part after the previous one, with a quarter of its size to
+	 * spare plus room for a few faces, so that small edits do not move it.
+	 */
+	private void place(int part, int v_count, int i_count) {
+		if (part_vertex == null || part_vertex.length <= part) {
+			int n = part + 1;
+			part_vertex = Arrays.copyOf(part_vertex == null ? new int[0] : part_vertex, n);
+			part_index = Arrays.copyOf(part_index == null ? new int[0] : part_index, n);
+			vertex_room = Arrays.copyOf(vertex_room == null ? new int[0] : vertex_room, n);
+			index_room = Arrays.copyOf(index_room == null ? new int[0] : index_room, n);
+			part_count = Arrays.copyOf(part_count == null ? new int[0] : part_count, n);
+			part_short = Arrays.copyOf(part_short == null ? new boolean[0] : part_short, n);
+			part_ranges = Arrays.copyOf(part_ranges == null ? new int[0][] : part_ranges, n);
+		}
+		part_ranges[part] = null;
+		part_vertex[part] = part == 0 ? 0 : endVertex(part);
+		part_index[part] = part == 0 ? 0 : endIndex(part);
+		vertex_room[part] = vertexRoom(v_count);
+		index_room[part] = indexRoom(i_count);
+		part_count[part] = i_count;
+		part_short[part] = vertex_room[part] <= MAX_SHORT_VERTICES;
+	}
+	
+	/**
+	 * returns the vertices a part of the given size is laid out with room for.
+	 * 
+	 * @param v_count vertices of the part as uploaded.
+	 * 
+	 * @returns the vertices the part's range of the vertex buffer holds, which are
+	 * drawn with 16 bit indices if they are at most `MAX_SHORT_VERTICES`.
+	 */
+	public static int vertexRoom(int v_count) {
+		return v_count + (v_count >> 2) + 64;
+	}
+	
+	/**
+	 * returns the indices a part of the given size is laid out with room for.
+	 * 
+	 * @param i_count indices of the part as uploaded.
+	 * 
+	 * @returns the indices the part's range of the index buffer holds.
+	 */
+	public static int indexRoom(int i_count) {
+		return i_count + (i_count >> 2) + 96;
+	}
+	
+	private int endVertex(int parts) {
+		return part_vertex[parts - 1] + vertex_room[parts - 1];
+	}
+	
+	/**
+	 * returns the byte offset past the indices of the given number of parts, rounded up
+	 * to whole ints so that every part's indices are aligned to their size.
+	 */
+	private int endIndex(int parts) {
+		return part_index[parts - 1] + (index_room[parts - 1] * (part_short[parts - 1] ? 2 : 4) + 3 & ~3);
+	}
+	
+	private void setParts(int parts) {
+		this.parts = parts;
+		size = 0;
+		for (int p = 0; p < parts; p++)
+			size += part_count[p];
+	}
+	
+	/**
+	 * divides a part into consecutive ranges of its indices, which `draw(int)` can then
+	 * leave out one by one. Uploading or updating the part draws it whole again.
+	 * 
+	 * @param part position of the part in the uploaded arrays.
+	 * 
+	 * @param ends index past each range, the last being the part's size, or `null` to
+	 * always draw the part whole.
+	 */
+	public void setRanges(int part, int[] ends) {
+		if (part >= parts)
+			return;
+		if (ends == null || ends.length == 0 || ends[ends.length - 1] != part_count[part]) {
+			part_ranges[part] = null;
+			return;
+		}
+		if (part_ranges[part] == null || part_ranges[part].length != ends.length)
+			part_ranges[part] = new int[ends.length];
+		System.arraycopy(ends, 0, part_ranges[part], 0, ends.length);
+	}
+	
+	/**
+	 * frees the model's vertex array and buffers. The model must not be drawn afterwards.
+	 */
+	public void delete() {
+		if (vbo != 0)
+			GL15.glDeleteBuffers(vbo);
+		if (ibo != 0)
+			GL15.glDeleteBuffers(ibo);
+		GL30.glDeleteVertexArrays(vao);
+		vao = vbo = ibo = 0;
+		size = 0;
+		vertex_bytes = index_bytes = 0;
+	}
+	
 	/**
 	 * binds a vertex array object, enables vertex attributes for position and texture
-	 * coord, and calls `glDrawElements` to render triangles.
+	 * coord, and calls `glDrawElements` to render triangles. A mesh uploaded in parts is
+	 * drawn one non-empty part at a time, each from its own base vertex.
 	 */
 	public void draw() {
+		draw(-1);
+	}
+	
+	/**
+	 * draws the model like `draw()`, leaving out the ranges of its parts that are not
+	 * selected, see `setRanges()`. Consecutive selected ranges are drawn together.
+	 * 
+	 * @param ranges bit i selects range i of every divided part. Parts that are not
+	 * divided are drawn whole.
+	 * 
+	 * @returns the number of indices drawn.
+	 */
+	public int draw(int ranges) {
+		int drawn;
 		GL30.glBindVertexArray(vao);
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		//GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, size);
-		GL11.glDrawElements(GL11.GL_TRIANGLES, size, GL11.GL_UNSIGNED_INT, 0);
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
+		if (format == VertexFormat.PACKED) {
+			GL20.glEnableVertexAttribArray(PACKED_ATTRIB);
+			drawn = drawElements(ranges);
+			GL20.glDisableVertexAttribArray(PACKED_ATTRIB);
+		} else {
+			GL20.glEnableVertexAttribArray(0);
+			GL20.glEnableVertexAttribArray(1);
+			GL20.glEnableVertexAttribArray(AO_ATTRIB);
+			//GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, size);
+			drawn = drawElements(ranges);
+			GL20.glDisableVertexAttribArray(0);
+			GL20.glDisableVertexAttribArray(1);
+			GL20.glDisableVertexAttribArray(AO_ATTRIB);
+		}
 		GL30.glBindVertexArray(0);
+		return drawn;
+	}
+	
+	private int drawElements(int ranges) {
+		if (parts == 0) {
+			GL11.glDrawElements(GL11.GL_TRIANGLES, size, GL11.GL_UNSIGNED_INT, 0);
+			return size;
+		}
+		int drawn = 0;
+		for (int p = 0; p < parts; p++) {
+			if (part_count[p] == 0)
+				continue;
+			int[] ends = part_ranges[p];
+			if (ends == null) {
+				drawElements(p, 0, part_count[p]);
+				drawn += part_count[p];
+				continue;
+			}
+			int run = -1; // start of the selected ranges not drawn yet
+			for (int r = 0, start = 0; r <= ends.length; r++) {
+				if (r < ends.length && (ranges >>> r & 1) != 0) {
+					if (run < 0)
+						run = start;
+				} else if (run >= 0) {
+					drawElements(p, run, start);
+					drawn += start - run;
+					run = -1;
+				}
+				if (r < ends.length)
+					start = ends[r];
+			}
+		}
+		return drawn;
+	}
+	
+	private void drawElements(int part, int start, int end) {
+		if (end > start)
+			GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, end - start, part_short[part] ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT,
+					part_index[part] + start * (part_short[part] ? 2 : 4), part_vertex[part]);
 	}
 	
 	/**
@@ -71,12 +535,50 @@ public class Model {
 		return size;
 	}
 	
+	/**
+	 * returns the layout of the model's vertices.
+	 */
+	public VertexFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * returns the size of the model's vertex buffer as last uploaded.
+	 * 
+	 * @returns the vertex data size in bytes.
+	 */
+	public long getVertexBytes() {
+		return vertex_bytes;
+	}
+	
+	/**
+	 * returns the size of the model's index buffer as last uploaded.
+	 * 
+	 * @returns the index data size in bytes.
+	 */
+	public long getIndexBytes() {
+		return index_bytes;
+	}
+	
+	/**
+	 * returns how much smaller the index buffer is for the parts with 16 bit indices,
+	 * than if every part had 32 bit ones.
+	 * 
+	 * @returns the index memory saved in bytes.
+	 */
+	public long getIndexBytesSaved() {
+		long saved = 0;
+		for (int p = 0; p < parts; p++)
+			if (part_short[p])
+				saved += index_room[p] * 2L;
+		return saved;
+	}
+	
 	/**
 	 * loads data into a model object from an array of vertices and an array of indices.
 	 * 
 	 * @param vertices 3D model's geometry data, which is stored in an array of floating-point
-	 * values and passed to the `storeData()` method for storage in the Vertex Array
-	 * Object (VAO).
+	 * values and uploaded into the model's vertex buffer by `upload()`.
 	 * 
 	 * 	- `float[] vertices`: An array of floating-point values representing 3D vertices.
 	 * 	- `int[] indices`: An array of integer values representing the triangle indices.
@@ -103,12 +605,29 @@ public class Model {
 	 * and returns the loaded model handle for further processing or rendering.
 	 */
 	public static Model load(float[] vertices, int[] indices) {
-		int vao = createVAO();
-		storeIndices(indices);
-		storeData(0, vertices);
-		unbindVAO();
-		int v_count = indices.length;
-		return new Model(vao, v_count);
+		Model m = create();
+		m.upload(vertices, vertices.length, indices, indices.length);
+		return m;
+	}
+	
+	/**
+	 * grows the staging buffers to hold at least the given number of values.
+	 */
+	private static void reserveStaging(int v_count, int i_count) {
+		if (staging_vertices == null || staging_vertices.capacity() < v_count)
+			staging_vertices = Util.createFloatBuffer(Math.max(1024, Integer.highestOneBit(v_count) << 1));
+		if (staging_indices == null || staging_indices.capacity() < i_count)
+			staging_indices = Util.createIntBuffer(Math.max(1024, Integer.highestOneBit(i_count) << 1));
+	}
+	
+	private static void reserveParts(int bytes) {
+		if (staging_parts == null || staging_parts.capacity() < bytes)
+			staging_parts = Util.createByteBuffer(Math.max(4096, Integer.highestOneBit(bytes) << 1));
+	}
+	
+	private static void reservePacked(int v_count) {
+		if (staging_packed == null || staging_packed.capacity() < v_count)
+			staging_packed = Util.createIntBuffer(Math.max(1024, Integer.highestOneBit(v_count) << 1));
 	}
 	
 	/**
@@ -123,56 +642,6 @@ public class Model {
 		return vao;
 	}
 	
-	/**
-	 * stores an array of floats into a vertex buffer object (VBO) and sets up vertex
-	 * attributers to draw the data in a specific format.
-	 * 
-	 * @param attrib 3D vertex attribute that contains the data to be stored in the VBO,
-	 * specifying the buffer index and the format of the data.
-	 * 
-	 * @param data 3D data to be stored in a vertex buffer object (VBO).
-	 * 
-	 * 	- `data` is a `float[]` array.
-	 * 	- Its size is determined by the value of `Util.createFlippedBuffer(data)`, which
-	 * is 5 * 4 in this case.
-	 * 	- The elements of the array are stored in two vertex attributes, `attrib` and
-	 * `attrib + 1`, respectively.
-	 * 	- Each attribute has a value of 3 * 4 bytes for the first element, and 2 * 4 bytes
-	 * for the second element.
-	 */
-	private static void storeData(int attrib, float[] data) {
-		int vbo = GL15.glGenBuffers();
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, Util.createFlippedBuffer(data), GL15.GL_STATIC_DRAW);
-		GL20.glVertexAttribPointer(attrib, 3, GL11.GL_FLOAT, false, 5 * 4,     0);
-		GL20.glVertexAttribPointer(attrib + 1, 2, GL11.GL_FLOAT, false, 5 * 4, 3 * 4);
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-	}
-	
-	/**
-	 * generates a new buffer object using the `glGenBuffers` method, binds it with
-	 * `glBindBuffer`, and then uses `glBufferData` to store an array of indices in the
-	 * buffer.
-	 * 
-	 * @param indices 3D vertices' indices in the element array buffer to be bound and stored.
-	 * 
-	 * 	- `indices`: an array of integers that represents the indices of vertices in a
-	 * 3D mesh.
-	 * 	- `GL15`: a class that provides methods for managing graphics buffers and vertex
-	 * data.
-	 * 	- `glGenBuffers()`: a method that creates a new buffer object.
-	 * 	- `glBindBuffer()`: a method that binds a buffer object to the current rendering
-	 * context.
-	 * 	- `glBufferData()`: a method that fills a buffer with data, in this case, the
-	 * indices of a 3D mesh.
-	 * 	- `Util`: an unknown class that provides a method for creating a flipped buffer.
-	 */
-	private static void storeIndices(int[] indices) {
-		int ibo = GL15.glGenBuffers();
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ibo);
-		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, Util.createFlippedBuffer(indices), GL15.GL_STATIC_DRAW);
-	}
-	
 	/**
 	 * disables the vertex array object (VAO) bound to handle rendering more efficiently
 	 * by the GPU.
@@ -73,6 +73,17 @@ public class Shader {
 		}
 	}
 	
+	/**
+	 * sets an int or bool uniform.
+	 * 
+	 * @param name name of the uniform in the program.
+	 * 
+	 * @param val value to store, 0 or 1 for a bool.
+	 */
+	public void uniformi(String name, int val) {
+		GL20.glUniform1i(getLoaction(name), val);
+	}
+	
 	/**
 	 * sets a 4x4 uniform matrix value to the specified location using the `glUniformMatrix4`
 	 * method from the OpenGL API.
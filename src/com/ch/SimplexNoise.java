@@ -47,6 +47,14 @@ public class SimplexNoise { // Simplex noise in 2D, 3D and 4D
 	 // To remove the need for index wrapping, double the permutation table length
 	 private static int perm[] = new int[512];
 	 static { for(int i=0; i<512; i++) perm[i]=p[i & 255]; }
+	 // The 3D gradients flattened into x, y, z triples, and the permutation already reduced
+	 // to the offset of a gradient among them, for the batch `noise()`
+	 private static final float GRAD3[] = new float[36];
+	 private static final int PERM_GRAD3[] = new int[512];
+	 static {
+	 for(int i=0; i<36; i++) GRAD3[i]=grad3[i / 3][i % 3];
+	 for(int i=0; i<512; i++) PERM_GRAD3[i]=perm[i] % 12 * 3;
+	 }
 	 // A lookup table to traverse the simplex around a given point in 4D.
 	 // Details can be found where this table is used, in the 4D noise method.
 	 private static int simplex[][] = {
@@ -298,6 +306,99 @@ public class SimplexNoise { // Simplex noise in 2D, 3D and 4D
 	 // The result is scaled to stay just inside [-1,1]
 	 return 32.0*(n0 + n1 + n2 + n3);
 	 }
+	/**
+	 * the largest difference between the samples of the batch `noise()` and those of
+	 * `noise(double, double, double)` at the same points.
+	 */
+	public static final float BATCH_TOLERANCE = 2e-6f;
+
+	/**
+	 * samples the 3D noise at every point of a grid, as `noise(double, double, double)`
+	 * would one point at a time. The cell and simplex of each point are found in double
+	 * exactly as it does, since the noise jumps slightly across their boundaries, and only
+	 * the corners' contributions are summed in float, so the samples stay within
+	 * `BATCH_TOLERANCE` of it. Neighbouring points mostly share a lattice cube, so the
+	 * gradients of its eight corners are looked up once per cube rather than four per
+	 * point, from flat tables. Nothing is allocated once the JIT compiled it.
+	 * 
+	 * @param out array receiving the samples, x varying fastest, then y, then z.
+	 * 
+	 * @param offset index in `out` of the first sample.
+	 * 
+	 * @param xs coordinates of the grid's points along x.
+	 * 
+	 * @param ys coordinates along y.
+	 * 
+	 * @param zs coordinates along z.
+	 */
+	public static void noise(float[] out, int offset, float[] xs, float[] ys, float[] zs) {
+		final double F3 = 1.0/3.0, G3 = 1.0/6.0;
+		final float G = 1f / 6;
+		// the cube of the last point and the gradients of its corners, indexed by their
+		// offsets from its origin, x in the low bit. Only ever indexed by constants, so the
+		// JIT keeps it out of the heap, and it is faster than eight locals
+		int ci = Integer.MIN_VALUE, cj = 0, ck = 0;
+		final int[] cube = new int[8];
+		int o = offset;
+		for (float zf : zs) {
+			double zin = zf;
+			for (float yf : ys) {
+				double yin = yf;
+				for (float xf : xs) {
+					double xin = xf;
+					double s = (xin+yin+zin)*F3;
+					int i = fastfloor(xin+s), j = fastfloor(yin+s), k = fastfloor(zin+s);
+					if (i != ci || j != cj || k != ck) {
+						ci = i;
+						cj = j;
+						ck = k;
+						int ii = i & 255, jj = j & 255, kk = k & 255;
+						int p0 = perm[jj + perm[kk]], p1 = perm[jj + 1 + perm[kk]], p2 = perm[jj + perm[kk + 1]], p3 = perm[jj + 1 + perm[kk + 1]];
+						cube[0] = PERM_GRAD3[ii + p0];
+						cube[1] = PERM_GRAD3[ii + 1 + p0];
+						cube[2] = PERM_GRAD3[ii + p1];
+						cube[3] = PERM_GRAD3[ii + 1 + p1];
+						cube[4] = PERM_GRAD3[ii + p2];
+						cube[5] = PERM_GRAD3[ii + 1 + p2];
+						cube[6] = PERM_GRAD3[ii + p3];
+						cube[7] = PERM_GRAD3[ii + 1 + p3];
+					}
+					double t = (i+j+k)*G3;
+					double x0 = xin-(i-t), y0 = yin-(j-t), z0 = zin-(k-t);
+					// the second and third corners, as ordered in `noise(double, double, double)`
+					int i1, j1, k1, i2, j2, k2, g1, g2;
+					if (x0 >= y0) {
+						if (y0 >= z0) { i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 1; k2 = 0; g1 = cube[1]; g2 = cube[3]; }
+						else if (x0 >= z0) { i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 0; k2 = 1; g1 = cube[1]; g2 = cube[5]; }
+						else { i1 = 0; j1 = 0; k1 = 1; i2 = 1; j2 = 0; k2 = 1; g1 = cube[4]; g2 = cube[5]; }
+					} else {
+						if (y0 < z0) { i1 = 0; j1 = 0; k1 = 1; i2 = 0; j2 = 1; k2 = 1; g1 = cube[4]; g2 = cube[6]; }
+						else if (x0 < z0) { i1 = 0; j1 = 1; k1 = 0; i2 = 0; j2 = 1; k2 = 1; g1 = cube[2]; g2 = cube[6]; }
+						else { i1 = 0; j1 = 1; k1 = 0; i2 = 1; j2 = 1; k2 = 0; g1 = cube[2]; g2 = cube[3]; }
+					}
+					float x = (float) x0, y = (float) y0, z = (float) z0;
+					out[o++] = 32 * (corner(cube[0], x, y, z)
+							+ corner(g1, x - i1 + G, y - j1 + G, z - k1 + G)
+							+ corner(g2, x - i2 + 2 * G, y - j2 + 2 * G, z - k2 + 2 * G)
+							+ corner(cube[7], x - 1 + 3 * G, y - 1 + 3 * G, z - 1 + 3 * G));
+				}
+			}
+		}
+	}
+
+	/**
+	 * returns the contribution of a simplex corner to the 3D noise, 0 beyond its radius.
+	 * 
+	 * @param g offset of the corner's gradient in `GRAD3`.
+	 * 
+	 * @param x position of the point relative to the corner.
+	 */
+	private static float corner(int g, float x, float y, float z) {
+		float t = 0.6f - x * x - y * y - z * z;
+		t = (t + Math.abs(t)) * 0.5f; // 0 if negative, without a branch that mispredicts
+		t *= t;
+		return t * t * (GRAD3[g] * x + GRAD3[g + 1] * y + GRAD3[g + 2] * z);
+	}
 	 // 4D simplex noise
 		/**
 		 * calculates a Perlin noise simulation at a given position and scale, using a
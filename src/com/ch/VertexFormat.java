@@ -0,0 +1,29 @@
+package com.ch;
+
+/**
+ * selects how a `Model` lays out its vertices in the vertex buffer.
+ */
+public enum VertexFormat {
+
+	/** position, texture coordinates and ambient occlusion as six floats, 24 bytes per vertex */
+	FLOAT(24),
+
+	/** a single unsigned int per vertex decoded by the vertex shader, see `PackedVertex` */
+	PACKED(4);
+
+	private final int bytes;
+
+	VertexFormat(int bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * returns the size of one vertex in the vertex buffer.
+	 * 
+	 * @returns the stride of the format in bytes.
+	 */
+	public int getBytes() {
+		return bytes;
+	}
+
+}
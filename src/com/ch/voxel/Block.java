@@ -1,28 +1,17 @@
 package com.ch.voxel;
 
 /**
- * represents a three-dimensional block with various properties, including position
- * (x, y, z) and flags for different states (ft, bk, tp, bt, lt, rt).
- * Fields:
- * 	- z (int): represents the block's depth in the voxel world.
- * 	- rt (boolean): in the Block class represents whether the block is right-clickable.
+ * holds the block ids stored in a chunk's `VoxelStorage`. A voxel is no longer an
+ * object of its own: its position is implied by its index in the chunk and its face
+ * visibility is derived from its neighbours when the chunk is meshed. The properties
+ * of each id are kept in `BlockRegistry`, which registers these two first.
  */
-public class Block {
-	
-	public int x, y, z;
-	public boolean ft, bk, tp, bt, lt, rt;
-	
-	public Block(int x, int y, int z) {
-		this.x = x;
-		this.y = y;
-		this.z = z;
-		
-		this.ft = false;
-		this.bk = false;
-		this.tp = false;
-		this.bt = false;
-		this.lt = false;
-		this.rt = false;
+public final class Block {
+
+	public static final int AIR = 0;
+	public static final int SOLID = 1;
+
+	private Block() {
 	}
 
 }
@@ -0,0 +1,166 @@
+package com.ch.voxel;
+
+import java.util.HashMap;
+
+/**
+ * assigns the numeric ids stored in chunks to block types and holds their properties.
+ * Each property lives in its own primitive array indexed by id, so the meshing and
+ * culling loops look a property up with a single array read instead of going through
+ * a block object.
+ *
+ * Ids are handed out in registration order, from 0 up to `MAX_ID`. `Block.AIR` and
+ * `Block.SOLID` are registered first and keep their fixed ids. Types are meant to be
+ * registered at startup, before the first chunk is generated.
+ */
+public final class BlockRegistry {
+
+	public static final int MAX_ID = 65535;
+	public static final int MAX_LIGHT = 15;
+
+	private static final HashMap<String, Integer> ids = new HashMap<>();
+	private static String[] names = new String[16];
+	private static boolean[] opaque = new boolean[16];
+	private static boolean[] transparent = new boolean[16];
+	private static boolean[] collision = new boolean[16];
+	private static byte[] light = new byte[16];
+	private static char[] textures = new char[16 * 6]; // 6 per id, in `FACE_*` bit order
+	private static int count;
+
+	static {
+		register("air", false, true, false, 0, 0);
+		register("solid", true, false, true, 0, 0);
+	}
+
+	private BlockRegistry() {
+	}
+
+	/**
+	 * registers a block type that uses the same texture on all six faces.
+	 *
+	 * @param name unique name of the type.
+	 *
+	 * @param opaque whether the type hides the faces of the voxels next to it.
+	 *
+	 * @param transparent whether light and sight pass through the type.
+	 *
+	 * @param collision whether the type blocks movement.
+	 *
+	 * @param light emitted light level, in the range [0, MAX_LIGHT].
+	 *
+	 * @param texture texture index of every face.
+	 *
+	 * @returns the id assigned to the type.
+	 */
+	public static int register(String name, boolean opaque, boolean transparent, boolean collision, int light, int texture) {
+		return register(name, opaque, transparent, collision, light, new int[] { texture, texture, texture, texture, texture, texture });
+	}
+
+	/**
+	 * registers a block type with a texture per face.
+	 *
+	 * @param face_textures six texture indices, ordered front, back, bottom, top, left,
+	 * right like the `Chunk.FACE_*` bits.
+	 *
+	 * @returns the id assigned to the type.
+	 */
+	public static synchronized int register(String name, boolean opaque, boolean transparent, boolean collision, int light, int[] face_textures) {
+		if (ids.containsKey(name))
+			throw new IllegalArgumentException("block type " + name + " is already registered");
+		if (count > MAX_ID)
+			throw new IllegalStateException("more than " + (MAX_ID + 1) + " block types");
+		if (light < 0 || light > MAX_LIGHT)
+			throw new IllegalArgumentException("light " + light + " is not in [0, " + MAX_LIGHT + "]");
+		if (face_textures.length != 6)
+			throw new IllegalArgumentException("expected 6 face textures, got " + face_textures.length);
+		if (count == names.length)
+			grow(Math.min(names.length * 2, MAX_ID + 1));
+
+		int id = count++;
+		ids.put(name, id);
+		names[id] = name;
+		BlockRegistry.opaque[id] = opaque;
+		BlockRegistry.transparent[id] = transparent;
+		BlockRegistry.collision[id] = collision;
+		BlockRegistry.light[id] = (byte) light;
+		for (int f = 0; f < 6; f++)
+			textures[id * 6 + f] = (char) face_textures[f];
+		return id;
+	}
+
+	/**
+	 * returns the id of a registered block type.
+	 *
+	 * @returns the id, or -1 if no type of that name is registered.
+	 */
+	public static synchronized int getId(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public static String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * returns the number of registered block types, which is also the next id.
+	 */
+	public static int getCount() {
+		return count;
+	}
+
+	/**
+	 * checks whether a block hides the faces of its neighbours. Only opaque voxels are
+	 * set in a chunk's occupancy bits.
+	 */
+	public static boolean isOpaque(int id) {
+		return opaque[id];
+	}
+
+	public static boolean isTransparent(int id) {
+		return transparent[id];
+	}
+
+	public static boolean hasCollision(int id) {
+		return collision[id];
+	}
+
+	public static int getLight(int id) {
+		return light[id];
+	}
+
+	/**
+	 * returns the texture index of one face of a block.
+	 *
+	 * @param id block id.
+	 *
+	 * @param face one of the `Chunk.FACE_*` bits.
+	 *
+	 * @returns the texture index of that face.
+	 */
+	public static int getTexture(int id, int face) {
+		return textures[id * 6 + Integer.numberOfTrailingZeros(face)];
+	}
+
+	private static void grow(int capacity) {
+		String[] n_names = new String[capacity];
+		boolean[] n_opaque = new boolean[capacity];
+		boolean[] n_transparent = new boolean[capacity];
+		boolean[] n_collision = new boolean[capacity];
+		byte[] n_light = new byte[capacity];
+		char[] n_textures = new char[capacity * 6];
+		System.arraycopy(names, 0, n_names, 0, count);
+		System.arraycopy(opaque, 0, n_opaque, 0, count);
+		System.arraycopy(transparent, 0, n_transparent, 0, count);
+		System.arraycopy(collision, 0, n_collision, 0, count);
+		System.arraycopy(light, 0, n_light, 0, count);
+		System.arraycopy(textures, 0, n_textures, 0, count * 6);
+		// the arrays are swapped one by one; readers only ever index ids below `count`
+		names = n_names;
+		opaque = n_opaque;
+		transparent = n_transparent;
+		collision = n_collision;
+		light = n_light;
+		textures = n_textures;
+	}
+
+}
@@ -1,294 +1,2435 @@
 package com.ch.voxel;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import com.ch.FloatList;
+import com.ch.IntList;
 import com.ch.Model;
 import com.ch.SimplexNoise;
-import com.ch.Util;
+import com.ch.VertexFormat;
 import com.ch.math.Matrix4f;
 
 public class Chunk {
 
-	public static final int CHUNK_SIZE = 64;
-	private static final int CHUNK_SIZE_SQUARED = CHUNK_SIZE * CHUNK_SIZE;
-	private static final int CHUNK_SIZE_CUBED = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+	/**
+	 * system property holding the chunk edge length, set by `Main` from its `-chunk`
+	 * option. It is read once when the class is loaded, so it has to be set before the
+	 * first chunk is created.
+	 */
+	public static final String CHUNK_SIZE_PROPERTY = "voxel.chunk_size";
+
+	/**
+	 * edge length of a chunk in voxels: 16, 32, 64 (the default) or 128. Being a power of
+	 * two fixed at startup, every index below is built with shifts and masks.
+	 */
+	public static final int CHUNK_SIZE = checkSize(Integer.getInteger(CHUNK_SIZE_PROPERTY, 64));
+	private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+	private static final int CHUNK_SIZE_SQUARED = 1 << (CHUNK_SHIFT << 1);
+	private static final int ROW_SHIFT = CHUNK_SIZE > 64 ? 1 : 0; // log2 of the occupancy words per x row
+	private static final int ROW_WORDS = 1 << ROW_SHIFT;
+	private static final int FIELD_SIZE = CHUNK_SIZE + 2; // samples of the density field along each axis
+
+	public static final int FACE_FT = 1, FACE_BK = 2, FACE_BT = 4, FACE_TP = 8, FACE_LT = 16, FACE_RT = 32;
+	private static final int FACE_ALL = 63;
+	public static final int MAX_LOD = 3; // coarsest level of detail, cells of 8 voxels a side
+	// the coordinates and samples of the batched noise are as large as a layer of the
+	// chunk, so they are kept per thread rather than per chunk
+	private static final ThreadLocal<NoiseGrid> grids = ThreadLocal.withInitial(NoiseGrid::new);
 
-	private Block[] blocks;
+	private VoxelData blocks; // null while deflated
+	private byte[] deflated; // `VoxelCodec` encoding of the voxels of an idle chunk
+	private long deflated_saved;
+	private long last_access; // System.nanoTime() of the last read or write of the voxels
+	private volatile int version; // bumped whenever `blocks` changes, checked by the compactor
+	private volatile boolean released;
+	private boolean deflate_tried;
+	private VoxelStorage spare_dense; // storage kept by `recycle()` for the next `generate()`
+	private VoxelData detached; // storage a mesher job read when the chunk was evicted, released once it is back
+	private RleColumnStorage spare_rle;
+	private MeshMode mesh_mode = MeshMode.NAIVE;
+	private VertexFormat vertex_format = VertexFormat.FLOAT;
+	private long[] solid; // bit x & 63 of word(x, y, z) is set for opaque voxels, null while uniform
+	private long[] clear; // the same for non-opaque blocks other than air, null while there are none
+	private float[] density; // terrain density around the voxels, `SMOOTH` chunks only, see `fillDensity()`
+	private long[][] border; // occupancy of the six outer layers by face index, see `buildBorders()`
+	private long[][] clear_border; // the same for `clear`, null while the outer layers hold no such block
+	private final int[] border_versions = new int[6]; // bumped whenever a layer of `border` changes
+	private final Chunk[] neighbours = new Chunk[6]; // by face index, set by the world
+	private final Chunk[] meshed_with = new Chunk[6]; // neighbours the border meshes were built against
+	private final int[] meshed_versions = new int[6]; // their `border_versions` at the time
+	private int meshed_open; // `FACE_*` bits of the border meshes built against a coarser neighbour
+	private final Chunk[] sections_with = new Chunk[6]; // neighbours the sections' ambient occlusion was read from
+	private final int[] sections_versions = new int[6]; // their `border_versions` at the time
+	private boolean ambient_occlusion = true;
+	private boolean welding = true; // whether block meshes get their shared corners merged
+	private long optimize_nanos; // time `ChunkMesh.optimize()` may take per chunk, 0 to keep the meshers' order
+	private int dirty_borders; // `FACE_*` bits of the border meshes to rebuild whatever the neighbours
+	private int dirty_sections; // bits of the sections edited since they were meshed
+	private int pending_parts; // bits of the mesh parts meshed since they were uploaded
+	private ChunkMesher mesher; // null to mesh on the calling thread
+	private boolean meshing; // a job of `mesher` is in flight, the voxels have to stay where they are
+	private boolean unmeshed; // the sections do not show the generated terrain yet
+	private final VoxelFormat format;
+	private final VoxelArena arena;
+	private boolean sparse_tried;
 	public int x, y, z;
 	private Model model;
+	private int lod; // level of detail the chunk is drawn at, see `setLod()`
+	private boolean deferred; // generated while drawn coarser, the sections are not meshed yet
+	private ChunkMesh lod_mesh; // faces of the downsampled voxels, see `genLod()`
+	private int lod_meshed; // level `lod_mesh` was built at, 0 if there is none
+	private boolean lod_stale; // the voxels changed since `lod_mesh` was built
+	private boolean lod_pending; // `lod_mesh` was built or swapped in and not uploaded yet
+	private Model lod_model;
 	
 	public Model getModel() {
-		if (to_gen_model) {
+		if (lod_pending)
+			uploadLod();
+		if (lod > 0)
+			return getLodModel();
+		dirty_sections |= staleSections();
+		if (dirty_sections != 0 || pending_parts != 0 || staleBorders() != 0)
 			createModel();
-			to_gen_model = false;
-		}
-		return model;
+		// whatever a recycled chunk's model holds belongs to the terrain it had before,
+		// while a chunk coming closer keeps drawing its coarser mesh until it is meshed
+		if (unmeshed)
+			return lod_meshed > 0 ? drawable(lod_model) : null;
+		return drawable(model);
+	}
+	
+	private static Model drawable(Model model) {
+		// chunks without any exposed face, such as all air ones, have nothing to draw
+		return model == null || model.getSize() == 0 ? null : model;
 	}
 	
 	public Matrix4f getModelMatrix() {
 		return new Matrix4f().initTranslation(x * CHUNK_SIZE, y * CHUNK_SIZE, z * CHUNK_SIZE);
 	}
 
+	/**
+	 * returns the face directions that can be seen from a point, for `Model.draw(int)`.
+	 * A face is only seen from in front of its plane, and the faces of a direction lie
+	 * between the chunk's sides along it, so from beyond one side every face that looks
+	 * the other way is turned away.
+	 * 
+	 * @param cam_x position in world coordinates, usually the camera's.
+	 * 
+	 * @returns the `FACE_*` bits of the directions not turned away from the point.
+	 */
+	public int getVisibleFaces(float cam_x, float cam_y, float cam_z) {
+		int x0 = x * CHUNK_SIZE, y0 = y * CHUNK_SIZE, z0 = z * CHUNK_SIZE;
+		return (cam_z < z0 + CHUNK_SIZE ? FACE_FT : 0) | (cam_z > z0 ? FACE_BK : 0)
+				| (cam_y < y0 + CHUNK_SIZE ? FACE_BT : 0) | (cam_y > y0 ? FACE_TP : 0)
+				| (cam_x < x0 + CHUNK_SIZE ? FACE_LT : 0) | (cam_x > x0 ? FACE_RT : 0);
+	}
+
 	public Chunk(int _x, int _y, int _z) {
+		this(_x, _y, _z, VoxelFormat.PALETTE, null);
+	}
+
+	private static int checkSize(int size) {
+		if (size < 16 || size > 128 || Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("chunk size " + size + " is not one of 16, 32, 64 or 128");
+		return size;
+	}
+
+	/**
+	 * returns the linear voxel index of a local position, as used by `VoxelData`.
+	 */
+	private static int index(int x, int y, int z) {
+		return x | y << CHUNK_SHIFT | z << (CHUNK_SHIFT << 1);
+	}
+
+	/**
+	 * returns the occupancy word holding the bit of a local position. Rows of x are one
+	 * word long, or two for 128 voxel chunks.
+	 */
+	private static int word(int x, int y, int z) {
+		return (y | z << CHUNK_SHIFT) << ROW_SHIFT | x >>> 6;
+	}
+
+	/**
+	 * generates the chunk at the given chunk coordinates.
+	 * 
+	 * @param _x chunk x coordinate, in chunks.
+	 * 
+	 * @param _y chunk y coordinate, in chunks.
+	 * 
+	 * @param _z chunk z coordinate, in chunks.
+	 * 
+	 * @param format layout of the voxel data while the chunk is near the camera.
+	 * 
+	 * @param arena arena holding `PALETTE` voxel data off-heap, or `null` to keep it in
+	 * a `long[]` on the heap.
+	 */
+	public Chunk(int _x, int _y, int _z, VoxelFormat format, VoxelArena arena) {
+		this.format = format;
+		this.arena = arena;
+		generate(_x, _y, _z);
+	}
+	
+	/**
+	 * fills the chunk with the terrain at the given chunk coordinates, generating into the
+	 * storage and occupancy arrays kept by `recycle()` when there are any.
+	 */
+	private void generate(int _x, int _y, int _z) {
 		
 		this.x = _x;
 		this.y = _y;
 		this.z = _z;
+		this.last_access = System.nanoTime();
+		this.unmeshed = true;
+		
+		// the storage starts uniform with the first sample and only materializes its
+		// packed array once a differing voxel shows up
+		final float[] field = density; // kept by smooth chunks, the voxels are read off it
+		final NoiseGrid grid = grids.get();
+		if (field != null) {
+			fillDensity(field);
+		} else {
+			grid.axis(grid.xs, this.x << CHUNK_SHIFT);
+			grid.axis(grid.ys, this.y << CHUNK_SHIFT);
+			sampleLayer(grid, 0);
+		}
+		int first = blockAt(field == null ? grid.layer[0] : field[fieldIndex(0, 0, 0)]);
+		blocks = spare_dense;
+		spare_dense = null;
+		if (blocks == null)
+			blocks = newDenseStorage(first);
+		else
+			((VoxelStorage) blocks).reset(first);
+		if (solid == null)
+			solid = new long[CHUNK_SIZE_SQUARED << ROW_SHIFT];
+		else
+			Arrays.fill(solid, 0);
+		clear = null;
+		
+		int i = 0;
+		for (int z = 0; z < CHUNK_SIZE; z++) {
+			if (field == null && z > 0)
+				sampleLayer(grid, z);
+			for (int y = 0; y < CHUNK_SIZE; y++)
+				for (int x = 0; x < CHUNK_SIZE; x++, i++) {
+					int id = blockAt(field == null ? grid.layer[x | y << CHUNK_SHIFT] : field[fieldIndex(x, y, z)]);
+					blocks.set(i, id);
+					if (BlockRegistry.isOpaque(id))
+						solid[word(x, y, z)] |= 1L << x;
+					else if (id != Block.AIR)
+						setClear(x, y, z, true);
+				}
+		}
+		buildBorders();
 		
-		blocks = new Block[CHUNK_SIZE_CUBED];
+		if (blocks.isUniform())
+			solid = clear = null;
 		
-		for (int i = 0; i < CHUNK_SIZE_CUBED; i++) {
-			int z = i / CHUNK_SIZE_SQUARED;
-			int ii = i - (z * CHUNK_SIZE_SQUARED);
-			int y = ii / CHUNK_SIZE;
-			int x = ii % CHUNK_SIZE;
-			if (SimplexNoise.noise((x + this.x * CHUNK_SIZE) / 10f, (y + this.y * CHUNK_SIZE) / 10f, (z + this.z * CHUNK_SIZE) / 10f) > 0.1f) {
-			blocks[i] = new Block(x, y, z);
+		if (format == VoxelFormat.RLE_COLUMNS) {
+			VoxelData generated = blocks;
+			if (spare_rle != null) {
+				spare_rle.load(generated);
+				blocks = spare_rle;
+				spare_rle = null;
+			} else {
+				blocks = new RleColumnStorage(CHUNK_SIZE, generated);
 			}
+			generated.release();
 		}
+		version++;
 	}
 	
+	/**
+	 * hands the chunk's storage, occupancy array, vertex lists and model over to the next
+	 * terrain it is generated with. Called by `ChunkPool` when the chunk is evicted; the
+	 * chunk must not be used again before `reuse()`. While a mesher job reads the voxels,
+	 * they are kept for it and the next terrain gets new storage.
+	 */
+	void recycle() {
+		released = true;
+		if (meshing && detached == null) {
+			// a job may still be reading the voxels and the density field, so they stay
+			// with it rather than go to the next terrain, see `applyMesh()`
+			detached = blocks;
+			if (density != null)
+				density = new float[density.length];
+		} else if (blocks instanceof RleColumnStorage) {
+			spare_rle = (RleColumnStorage) blocks;
+		} else if (blocks instanceof VoxelStorage) {
+			spare_dense = (VoxelStorage) blocks;
+			spare_dense.reset(Block.AIR);
+		} else if (blocks != null) {
+			blocks.release();
+		}
+		blocks = null;
+		deflated = null;
+		deflated_saved = 0;
+		for (ChunkMesh part : parts)
+			part.clear();
+		for (ChunkMesh part : border_meshes)
+			part.clear();
+		lod_mesh.clear();
+		lod_meshed = 0;
+		lod_pending = false;
+		lod = 0;
+		deferred = false;
+		dirty_sections = 0;
+		Arrays.fill(neighbours, null);
+		Arrays.fill(meshed_with, null);
+		Arrays.fill(sections_with, null);
+		version++;
+	}
 	
-
-	public void updateBlocks() {
-		for (int i = 0; i < CHUNK_SIZE_CUBED; i++) {
-			Block b = blocks[i];
-				if (b != null) {
-				int n_x = i - 1;
-				int p_x = i + 1;
-				int n_y = i - CHUNK_SIZE;
-				int p_y = i + CHUNK_SIZE;
-				int n_z = i - CHUNK_SIZE_SQUARED;
-				int p_z = i + CHUNK_SIZE_SQUARED;
-				
-				if (b.x - 1 < 0) {
-					//TODO: check neighbor chunk
-					b.lt = false;
-				} else {
-					Block bl = blocks[n_x];
-					if (bl == null)
-						b.lt = true;
-					else
-						b.lt = false;
-				}
-				if (b.y - 1 < 0) {
-					//TODO: check neighbor chunk
-					b.bt = false;
-				} else {
-					Block bl = blocks[n_y];
-					if (bl == null)
-						b.bt = true;
-					else
-						b.bt = false;
-				}
-				if (b.z - 1 < 0) {
-					//TODO: check neighbor chunk
-					b.ft = false;
-				} else {
-					Block bl = blocks[n_z];
-					if (bl == null)
-						b.ft = true;
-					else
-						b.ft = false;
-				}
-				
-				if (b.x + 1 >= CHUNK_SIZE) {
-					//TODO: check neighbor chunk
-					b.rt = false;
-				} else {
-					Block bl = blocks[p_x];
-					if (bl == null)
-						b.rt = true;
-					else
-						b.rt = false;
-				}
-				if (b.y + 1 >= CHUNK_SIZE) {
-					//TODO: check neighbor chunk
-					b.tp = false;
-				} else {
-					Block bl = blocks[p_y];
-					if (bl == null)
-						b.tp = true;
-					else
-						b.tp = false;
-				}
-				if (b.z + 1 >= CHUNK_SIZE) {
-					//TODO: check neighbor chunk
-					b.bk = false;
-				} else {
-					Block bl = blocks[p_z];
-					if (bl == null)
-						b.bk = true;
-					else
-						b.bk = false;
-				}
-			}
+	/**
+	 * generates a recycled chunk at new chunk coordinates, as if it had just been created.
+	 * Called on the generator's threads; the chunk stays released until the world takes
+	 * it over with `place()`.
+	 */
+	void reuse(int _x, int _y, int _z) {
+		sparse_tried = false;
+		deflate_tried = false;
+		generate(_x, _y, _z);
+	}
+	
+	/**
+	 * hands a generated chunk over to the world, on the main thread. Until then a
+	 * recycled chunk counts as released, so that a mesher job or an encoding started
+	 * before it was recycled is dropped rather than applied to the new terrain while it
+	 * is being generated.
+	 */
+	void place() {
+		released = false;
+	}
+	
+	private static int blockAt(float density) {
+		return density > 0 ? Block.SOLID : Block.AIR;
+	}
+	
+	/**
+	 * the coordinates the terrain is sampled at and the samples of one layer of voxels,
+	 * for `SimplexNoise.noise(float[], int, float[], float[], float[])`.
+	 */
+	private static final class NoiseGrid {
+		
+		final float[] xs = new float[CHUNK_SIZE], ys = new float[CHUNK_SIZE], zs = new float[1];
+		final float[] layer = new float[CHUNK_SIZE_SQUARED];
+		final float[] field_xs = new float[FIELD_SIZE], field_ys = new float[FIELD_SIZE], field_zs = new float[FIELD_SIZE];
+		
+		/**
+		 * fills the coordinates along an axis, starting at a world position in voxels.
+		 * The terrain is 10 voxels to a unit of noise.
+		 */
+		void axis(float[] coords, int first) {
+			for (int i = 0; i < coords.length; i++)
+				coords[i] = (first + i) / 10f;
 		}
+		
 	}
 	
-//	class Vertex3i {
-//		
-//		public int x, y, z; 
-//		public float u, v;
-//		
-//		public Vertex3i(x, y, z, u, v) {
-//			
-//		}
-//		
-//	}
+	/**
+	 * samples the terrain's density at a layer of voxels along z into `grid.layer`,
+	 * whose x and y coordinates are already set: positive inside the terrain, negative
+	 * in the air.
+	 */
+	private void sampleLayer(NoiseGrid grid, int z) {
+		final float[] layer = grid.layer;
+		grid.axis(grid.zs, z + (this.z << CHUNK_SHIFT));
+		SimplexNoise.noise(layer, 0, grid.xs, grid.ys, grid.zs);
+		for (int i = 0; i < CHUNK_SIZE_SQUARED; i++)
+			layer[i] -= 0.1f;
+	}
+	
+	/**
+	 * samples the terrain's density at every voxel of the chunk and one voxel beyond it
+	 * on every side, where the neighbours sample it too, for `genSmooth()`.
+	 */
+	private void fillDensity(float[] field) {
+		NoiseGrid grid = grids.get();
+		grid.axis(grid.field_xs, (this.x << CHUNK_SHIFT) - 1);
+		grid.axis(grid.field_ys, (this.y << CHUNK_SHIFT) - 1);
+		grid.axis(grid.field_zs, (this.z << CHUNK_SHIFT) - 1);
+		SimplexNoise.noise(field, 0, grid.field_xs, grid.field_ys, grid.field_zs);
+		for (int i = 0; i < field.length; i++)
+			field[i] -= 0.1f;
+	}
+	
+	/**
+	 * returns the index of the density sample at a local position, from -1 to
+	 * `CHUNK_SIZE` along each axis.
+	 */
+	private static int fieldIndex(int x, int y, int z) {
+		return x + 1 + (y + 1 + (z + 1) * FIELD_SIZE) * FIELD_SIZE;
+	}
 	
-	private ArrayList<Float> vertices = new ArrayList<>();
-	private ArrayList<Integer> indices = new ArrayList<>();
-	private boolean to_gen_model;
+	/**
+	 * returns the density field of a smooth chunk, sampling it first if the chunk was
+	 * generated before it was switched to `SMOOTH`.
+	 * 
+	 * @returns the density samples, or `null` for the other mesh modes.
+	 */
+	private float[] density() {
+		if (mesh_mode != MeshMode.SMOOTH)
+			return null;
+		if (density == null) {
+			density = new float[FIELD_SIZE * FIELD_SIZE * FIELD_SIZE];
+			fillDensity(density);
+		}
+		return density;
+	}
 	
+	/**
+	 * checks whether every voxel of the chunk holds the same block id, in which case the
+	 * chunk keeps no per-voxel array until its first edit.
+	 * 
+	 * @returns `true` if the chunk is uniformly air or uniformly one block type.
+	 */
+	public boolean isUniform() {
+		// uniform chunks are never deflated, there is nothing to gain
+		return blocks != null && blocks.isUniform();
+	}
 	
-	public void toGenModel() { toGenModel(false); };
+	/**
+	 * returns the block id at a position local to this chunk.
+	 * 
+	 * @param x local x coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @param y local y coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @param z local z coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @returns the id of the block, `Block.AIR` for empty space.
+	 */
+	public int getBlock(int x, int y, int z) {
+		return data().get(index(x, y, z));
+	}
 	
 	/**
-	 * Generates a 3D model from a set of vertices, indices, and blocks. It determines
-	 * the maximum index, generates new vertices and indices, and creates the model.
+	 * sets the block id at a position local to this chunk. Only the sections of the mesh
+	 * the block can change, and the border part if it is on the chunk's surface, are
+	 * rebuilt and uploaded again by the next `getModel()`. A sparse chunk is converted
+	 * back to dense storage before the edit. A smooth chunk sets the density at the voxel
+	 * as well, though not the copies of it the neighbours sampled, so an edit on the
+	 * chunk's outer layer leaves a seam.
 	 * 
-	 * @param now boolean flag to indicate whether the model should be re-generated or
-	 * loaded from existing arrays, with a value of `true` for re-generation and `false`
-	 * for loading.
+	 * @param x local x coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @param y local y coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @param z local z coordinate, in the range [0, CHUNK_SIZE).
+	 * 
+	 * @param id block id to store, `Block.AIR` to clear the voxel.
 	 */
-	public void toGenModel(boolean now) {
-
-		int max_index = 0;
-//		System.out.println("gen model");
-		for (int i = 0; i < CHUNK_SIZE_CUBED; i++) {
-			Block b = blocks[i];
-			if (b != null) {
-				max_index = gen(vertices, indices, b, max_index);
-					
+	public void setBlock(int x, int y, int z, int id) {
+		if (isSparse())
+			toDense();
+		sparse_tried = false;
+		deflate_tried = false;
+		data().set(index(x, y, z), id);
+		version++;
+		lod_stale = true;
+		boolean opaque = BlockRegistry.isOpaque(id), see_through = !opaque && id != Block.AIR;
+		if (density != null) // pulls the smooth surface over or away from the voxel
+			density[fieldIndex(x, y, z)] = opaque ? 1 : -1;
+		if (solid == null) {
+			if (!blocks.isUniform())
+				buildOccupancy();
+		} else {
+			if (opaque)
+				solid[word(x, y, z)] |= 1L << x;
+			else
+				solid[word(x, y, z)] &= ~(1L << x);
+			setClear(x, y, z, see_through);
+		}
+		if (x == 0 || y == 0 || z == 0 || x == CHUNK_SIZE - 1 || y == CHUNK_SIZE - 1 || z == CHUNK_SIZE - 1)
+			setBorder(x, y, z, opaque, see_through);
+		// a block on a section's top or bottom layer also shows or hides a face of the
+		// section next to it
+		int section = y >>> SECTION_SHIFT, in_section = y & (SECTION_SIZE - 1);
+		dirty_sections |= 1 << section;
+		if (in_section == 0 && section > 0)
+			dirty_sections |= 1 << (section - 1);
+		if (in_section == SECTION_SIZE - 1 && section + 1 < SECTIONS)
+			dirty_sections |= 1 << (section + 1);
+	}
+	
+	/**
+	 * checks whether the block at a local position hides its neighbours' faces, from the
+	 * occupancy bits rather than the block storage.
+	 * 
+	 * @returns `true` if the voxel holds an opaque block type.
+	 */
+	public boolean isSolid(int x, int y, int z) {
+		if (solid == null)
+			return BlockRegistry.isOpaque(getBlock(x, y, z));
+		return (solid[word(x, y, z)] >>> x & 1) != 0;
+	}
+	
+	/**
+	 * sets or clears the bit of a voxel in `clear`, which is only allocated once a
+	 * non-opaque block other than air shows up.
+	 */
+	private void setClear(int x, int y, int z, boolean see_through) {
+		if (see_through) {
+			if (clear == null)
+				clear = new long[CHUNK_SIZE_SQUARED << ROW_SHIFT];
+			clear[word(x, y, z)] |= 1L << x;
+		} else if (clear != null) {
+			clear[word(x, y, z)] &= ~(1L << x);
+		}
+	}
+	
+	/**
+	 * rebuilds the occupancy bits from the block storage, walking runs rather than
+	 * voxels when the chunk is run-length encoded.
+	 */
+	private void buildOccupancy() {
+		solid = new long[CHUNK_SIZE_SQUARED << ROW_SHIFT];
+		clear = null;
+		VoxelData blocks = data();
+		if (blocks instanceof RleColumnStorage) {
+			((RleColumnStorage) blocks).forEachRun((x, z, y0, y1, id) -> {
+				if (id != Block.AIR)
+					for (int y = y0; y < y1; y++)
+						setOccupied(x, y, z, id);
+			});
+		} else {
+			blocks.forEach(this::setOccupied);
+		}
+	}
+	
+	private void setOccupied(int x, int y, int z, int id) {
+		if (BlockRegistry.isOpaque(id))
+			solid[word(x, y, z)] |= 1L << x;
+		else if (id != Block.AIR)
+			setClear(x, y, z, true);
+	}
+	
+	/**
+	 * copies the occupancy of the chunk's six outer layers into `border`, where its
+	 * neighbours read it to cull the faces against this chunk. The slices outlive the
+	 * occupancy bits, so chunks that are uniform, sparse or deflated can still be culled
+	 * against. Each slice is laid out like the rows of `solid`: a row of up to 64 voxels
+	 * per word, or two words for 128 voxel chunks. Rows run along x for the z and y
+	 * sides, indexed by y and z respectively, and along y for the x sides, indexed by z.
+	 * The non-opaque blocks other than air get slices of their own in `clear_border`.
+	 */
+	private void buildBorders() {
+		border = slices(solid, border);
+		clear_border = clear == null ? null : slices(clear, clear_border);
+		for (int f = 0; f < 6; f++)
+			border_versions[f]++;
+	}
+	
+	/**
+	 * copies the six outer layers of occupancy bits into border slices.
+	 * 
+	 * @param slices slices to fill, or `null` to allocate them.
+	 * 
+	 * @returns the slices by face index.
+	 */
+	private static long[][] slices(long[] bits, long[][] slices) {
+		if (slices == null)
+			slices = new long[6][CHUNK_SIZE << ROW_SHIFT];
+		final int last = CHUNK_SIZE - 1;
+		for (int b = 0; b < CHUNK_SIZE; b++)
+			for (int w = 0; w < ROW_WORDS; w++) {
+				int r = b << ROW_SHIFT | w;
+				slices[0][r] = bits[word(w << 6, b, 0)];    // FACE_FT
+				slices[1][r] = bits[word(w << 6, b, last)]; // FACE_BK
+				slices[2][r] = bits[word(w << 6, 0, b)];    // FACE_BT
+				slices[3][r] = bits[word(w << 6, last, b)]; // FACE_TP
+				slices[4][r] = 0;
+				slices[5][r] = 0;
+			}
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = 0; y < CHUNK_SIZE; y++) {
+				int r = z << ROW_SHIFT | y >>> 6;
+				slices[4][r] |= (bits[word(0, y, z)] & 1) << y;                  // FACE_LT
+				slices[5][r] |= (bits[word(last, y, z)] >>> (last & 63) & 1) << y; // FACE_RT
 			}
+		return slices;
+	}
+	
+	/**
+	 * updates the border slices holding a voxel on the chunk's surface after an edit.
+	 */
+	private void setBorder(int x, int y, int z, boolean opaque, boolean see_through) {
+		final int last = CHUNK_SIZE - 1;
+		if (see_through && clear_border == null)
+			clear_border = new long[6][CHUNK_SIZE << ROW_SHIFT];
+		if (z == 0)
+			setBorderBit(0, y, x, opaque, see_through);
+		if (z == last)
+			setBorderBit(1, y, x, opaque, see_through);
+		if (y == 0)
+			setBorderBit(2, z, x, opaque, see_through);
+		if (y == last)
+			setBorderBit(3, z, x, opaque, see_through);
+		if (x == 0)
+			setBorderBit(4, z, y, opaque, see_through);
+		if (x == last)
+			setBorderBit(5, z, y, opaque, see_through);
+	}
+	
+	private void setBorderBit(int f, int row, int bit, boolean opaque, boolean see_through) {
+		int r = row << ROW_SHIFT | bit >>> 6;
+		if (opaque)
+			border[f][r] |= 1L << bit;
+		else
+			border[f][r] &= ~(1L << bit);
+		if (clear_border != null) {
+			if (see_through)
+				clear_border[f][r] |= 1L << bit;
+			else
+				clear_border[f][r] &= ~(1L << bit);
 		}
-//		System.out.println("vertice   : " + vertices.size() / 5 + " -- floats : " + vertices.size());
-//		System.out.println("indices   : " + indices.size());
-//		System.out.println("triangles : " + indices.size() / 3);
-//		System.out.println("quads     : " + indices.size() / 6);
-//		System.out.println("---------------------------\nloading model arrays");
-		
-		// cant implement filtering and re-indexing for textured cubes
-//		{
-//			
-//			ArrayList<Integer>
-//			
-//		}
-		
-//		return Model.load(Util.toFloatArray(new_vertices), Util.toIntArray(new_indices));
-		
-		if (now) {
-			createModel();
-			to_gen_model = false;
+		border_versions[f]++;
+		dirty_borders |= 1 << f;
+	}
+	
+	/**
+	 * visits every non-air voxel of the chunk, whatever its storage.
+	 * 
+	 * @param visitor receives the local position and id of each solid voxel.
+	 */
+	public void forEachBlock(VoxelData.Visitor visitor) {
+		data().forEach(visitor);
+	}
+	
+	/**
+	 * checks whether the chunk's voxels are held in a `SparseVoxelOctree`.
+	 * 
+	 * @returns `true` if the chunk uses the sparse representation.
+	 */
+	public boolean isSparse() {
+		return blocks instanceof SparseVoxelOctree;
+	}
+	
+	/**
+	 * converts the chunk's voxels into a `SparseVoxelOctree`. Meant for chunks far from
+	 * the camera whose mesh is already built and which are not being edited. The octree
+	 * is only kept if it is smaller than the current storage, which is not the case for
+	 * finely fragmented content; the outcome is remembered until the next edit. Nothing
+	 * happens while a `ChunkMesher` is reading the voxels.
+	 */
+	public void toSparse() {
+		if (blocks == null || isSparse() || sparse_tried || meshing)
+			return;
+		sparse_tried = true;
+		SparseVoxelOctree octree = new SparseVoxelOctree(CHUNK_SIZE, blocks);
+		if (octree.getMemoryUsage() < blocks.getMemoryUsage()) {
+			blocks.release();
+			blocks = octree;
+			solid = clear = null; // rebuilt on demand once the chunk is meshed or edited again
+			version++;
+		}
+	}
+	
+	/**
+	 * converts the chunk's voxels back from the octree into the chunk's `VoxelFormat`, for
+	 * chunks that came close to the camera or are about to be edited.
+	 */
+	public void toDense() {
+		if (!isSparse())
+			return;
+		if (format == VoxelFormat.RLE_COLUMNS) {
+			blocks = new RleColumnStorage(CHUNK_SIZE, blocks);
 		} else {
-			to_gen_model = true;
+			final VoxelStorage dense = newDenseStorage(Block.AIR);
+			blocks.forEach((x, y, z, id) -> dense.set(index(x, y, z), id));
+			blocks = dense;
 		}
-		
+		version++;
 	}
 	
-	private void createModel() {
-		this.model = Model.load(Util.toFloatArray(vertices), Util.toIntArray(indices));
+	/**
+	 * returns the chunk's voxel data for a read or write, inflating it first if the
+	 * compactor deflated it, and records the access time.
+	 */
+	private VoxelData data() {
+		last_access = System.nanoTime();
+		if (blocks == null)
+			inflate();
+		return blocks;
 	}
 	
-	public Model genModel() {
-		
-		toGenModel(true);
-		
-		return this.model;
+	private void inflate() {
+		VoxelStorage dense = newDenseStorage(Block.AIR);
+		VoxelCodec.inflate(deflated, CHUNK_SIZE, dense);
+		if (format == VoxelFormat.RLE_COLUMNS) {
+			blocks = new RleColumnStorage(CHUNK_SIZE, dense);
+			dense.release();
+		} else {
+			blocks = dense;
+		}
+		deflated = null;
+		deflated_saved = 0;
+		sparse_tried = false; // it may have been an octree before, let the world decide again
+		version++;
 	}
-
+	
+	/**
+	 * replaces the voxel data and occupancy bits of an idle chunk with their deflated
+	 * encoding, which is inflated again on the next access. Called by `ChunkCompactor` on
+	 * the main thread; the encoding is dropped if the chunk changed since it was made, and
+	 * refused while a `ChunkMesher` is reading the voxels.
+	 * 
+	 * @param data `VoxelCodec` encoding of the chunk's voxels.
+	 * 
+	 * @param version value of `getVersion()` when the encoding was started.
+	 * 
+	 * @returns `true` if the chunk now holds the encoding.
+	 */
+	boolean deflate(byte[] data, int version) {
+		if (released || blocks == null || meshing || version != this.version)
+			return false;
+		long before = getMemoryUsage();
+		if (16 + data.length >= before) {
+			deflate_tried = true; // not worth it, until the next edit
+			return false;
+		}
+		blocks.release();
+		blocks = null;
+		solid = clear = null;
+		deflated = data;
+		deflated_saved = before - getMemoryUsage();
+		this.version++;
+		return true;
+	}
+	
+	/**
+	 * returns the voxel data as it is, without inflating it or counting as an access, for
+	 * the compactor to encode off the main thread.
+	 * 
+	 * @returns the voxel data, or `null` while the chunk is deflated.
+	 */
+	VoxelData peekData() {
+		return blocks;
+	}
+	
+	int getVersion() {
+		return version;
+	}
+	
+	boolean isReleased() {
+		return released;
+	}
+	
+	boolean isDeflateTried() {
+		return deflate_tried;
+	}
+	
+	/**
+	 * checks whether the chunk's voxels are currently held deflated.
+	 * 
+	 * @returns `true` if the next access has to inflate them.
+	 */
+	public boolean isDeflated() {
+		return blocks == null;
+	}
+	
+	/**
+	 * returns when the chunk's voxels were last read or written.
+	 * 
+	 * @returns the `System.nanoTime()` of the last access.
+	 */
+	public long getLastAccess() {
+		return last_access;
+	}
+	
+	/**
+	 * returns the memory freed by deflating the chunk.
+	 * 
+	 * @returns the bytes saved, 0 unless the chunk is deflated.
+	 */
+	public long getBytesSaved() {
+		return deflated_saved;
+	}
+	
+	private VoxelStorage newDenseStorage(int fill) {
+		if (arena != null)
+			return new OffHeapVoxelStorage(CHUNK_SIZE, fill, arena);
+		return new VoxelStorage(CHUNK_SIZE, fill);
+	}
+	
+	/**
+	 * frees the chunk's voxel data, returning off-heap slabs to the arena. Called by the
+	 * world when the chunk is evicted; the chunk must not be used afterwards.
+	 */
+	public void release() {
+		released = true;
+		if (meshing && detached == null)
+			detached = blocks; // released once the job reading it is back
+		else if (blocks != null)
+			blocks.release();
+		deflated = null;
+		spare_dense = null;
+		spare_rle = null;
+		density = null;
+		Arrays.fill(neighbours, null);
+		Arrays.fill(meshed_with, null);
+		Arrays.fill(sections_with, null);
+		if (model != null) {
+			model.delete();
+			model = null;
+		}
+		if (lod_model != null) {
+			lod_model.delete();
+			lod_model = null;
+		}
+		version++;
+	}
+	
 	/**
-	 * Generates high-quality documentation for given code by adding vertices and indices
-	 * to a list, based on the block type and its position in the space.
+	 * selects the mesher used by the next `toGenModel()`.
+	 * 
+	 * @param mesh_mode `NAIVE` for one quad per face, `GREEDY` for merged rectangles,
+	 * `SMOOTH` for a surface through the density field, which needs float vertices.
+	 */
+	public void setMeshMode(MeshMode mesh_mode) {
+		if (mesh_mode == MeshMode.SMOOTH && vertex_format == VertexFormat.PACKED)
+			throw new IllegalStateException("smooth meshes need float vertices");
+		this.mesh_mode = mesh_mode;
+		if (mesh_mode != MeshMode.SMOOTH)
+			density = null;
+	}
+	
+	/**
+	 * selects whether the next `toGenModel()` bakes ambient occlusion into the vertices.
+	 * Without it every corner is left at `PackedVertex.AO_NONE` and the sections no
+	 * longer depend on the neighbours.
+	 * 
+	 * @param ambient_occlusion `true` to darken the corners next to opaque voxels.
+	 */
+	public void setAmbientOcclusion(boolean ambient_occlusion) {
+		this.ambient_occlusion = ambient_occlusion;
+	}
+	
+	/**
+	 * selects whether the next `toGenModel()` merges the vertices that the block faces
+	 * share, see `ChunkMesh.weld()`. That pays off most for packed vertices, which carry
+	 * no texture coordinates to tell the corners of neighbouring faces apart, and takes
+	 * the meshers roughly as long again as meshing.
+	 * 
+	 * @param welding `true` to upload each distinct vertex of a part once.
+	 */
+	public void setWelding(boolean welding) {
+		this.welding = welding;
+	}
+	
+	/**
+	 * selects whether the next `toGenModel()` reorders the triangles of the sections and
+	 * of the downsampled mesh for the GPU, see `ChunkMesh.optimize()`. The border part is
+	 * meshed on the main thread and left as it is. The budget is shared by the sections
+	 * meshed together; the triangles of the ones left over are only sorted front to back.
+	 * 
+	 * @param budget_nanos time the reordering may take per chunk in nanoseconds, 0 to
+	 * keep the triangles in the order they are meshed.
+	 */
+	public void setOptimizing(long budget_nanos) {
+		this.optimize_nanos = budget_nanos;
+	}
+	
+	/**
+	 * selects the level of detail the chunk is drawn at: 0 for its voxels, or level n
+	 * for a mesh of cells 2^n voxels a side built by `genLod()`. A chunk generated at a
+	 * coarser level only meshes its sections once it is brought back to 0, and until
+	 * they are meshed it keeps drawing the coarser mesh.
+	 * 
+	 * @param level from 0 for full resolution to `MAX_LOD`.
+	 */
+	public void setLod(int level) {
+		if (level < 0 || level > MAX_LOD)
+			throw new IllegalArgumentException("level of detail " + level + " is not between 0 and " + MAX_LOD);
+		if (level == lod)
+			return;
+		lod = level;
+		if (level == 0 && deferred)
+			toGenModel();
+	}
+	
+	/**
+	 * returns the level of detail the chunk is drawn at.
+	 * 
+	 * @returns 0 for full resolution, up to `MAX_LOD`.
+	 */
+	public int getLod() {
+		return lod;
+	}
+	
+	/**
+	 * selects where the sections are meshed. With a mesher they are meshed on its
+	 * threads and the chunk keeps drawing its previous mesh until `ChunkMesher.apply()`
+	 * swaps the new one in; without one they are meshed on the thread asking for them.
+	 * 
+	 * @param mesher mesher to hand the sections to, or `null`.
+	 */
+	public void setMesher(ChunkMesher mesher) {
+		this.mesher = mesher;
+	}
+	
+	/**
+	 * returns the size of the vertex buffer of the chunk's model, without updating it.
+	 * 
+	 * @returns the vertex memory of the chunk on the GPU in bytes.
+	 */
+	public long getVertexBytes() {
+		return (model == null ? 0 : model.getVertexBytes()) + (lod_model == null ? 0 : lod_model.getVertexBytes());
+	}
+	
+	/**
+	 * returns the size of the index buffer of the chunk's model, without updating it.
+	 * 
+	 * @returns the index memory of the chunk on the GPU in bytes.
+	 */
+	public long getIndexBytes() {
+		return (model == null ? 0 : model.getIndexBytes()) + (lod_model == null ? 0 : lod_model.getIndexBytes());
+	}
+	
+	/**
+	 * returns how much smaller the chunk's model is for the corners its faces share being
+	 * welded and its indices being 16 bit, than with a vertex per corner of every face
+	 * and 32 bit indices.
+	 * 
+	 * @returns the GPU memory saved by the chunk in bytes.
+	 */
+	public long getSavedBytes() {
+		long saved = 0;
+		if (model != null) {
+			long welded = 0;
+			for (ChunkMesh part : sections)
+				welded += part.getWeldedCount();
+			for (ChunkMesh part : border_meshes)
+				welded += part.getWeldedCount();
+			saved += welded * vertex_format.getBytes() + model.getIndexBytesSaved();
+		}
+		if (lod_model != null)
+			saved += (long) lod_mesh.getWeldedCount() * vertex_format.getBytes() + lod_model.getIndexBytesSaved();
+		return saved;
+	}
+	
+	/**
+	 * adds up the post-transform cache misses of the chunk's reordered meshes, the
+	 * sections and the downsampled mesh, see `ChunkMesh.getCacheMisses()`.
+	 * 
+	 * @param totals incremented by the triangles of the meshes, their misses in the
+	 * order they were meshed in and their misses once reordered, in that order.
+	 */
+	void addCacheMisses(long[] totals) {
+		if (model != null)
+			for (ChunkMesh part : sections)
+				addCacheMisses(totals, part);
+		if (lod_meshed > 0)
+			addCacheMisses(totals, lod_mesh);
+	}
+	
+	private static void addCacheMisses(long[] totals, ChunkMesh mesh) {
+		if (mesh.getCacheMisses(false) == 0)
+			return; // not reordered
+		totals[0] += mesh.getTriangleCount();
+		totals[1] += mesh.getCacheMisses(false);
+		totals[2] += mesh.getCacheMisses(true);
+	}
+	
+	/**
+	 * selects the vertex layout of the chunk's model, starting over with an empty mesh
+	 * when it changes.
+	 * 
+	 * @param vertex_format `FLOAT` for position and texture coordinates, `PACKED` for one
+	 * int per vertex, which needs chunks of at most 64 voxels.
+	 */
+	public void setVertexFormat(VertexFormat vertex_format) {
+		if (vertex_format == this.vertex_format)
+			return;
+		if (vertex_format == VertexFormat.PACKED && CHUNK_SIZE > PackedVertex.MAX_COORD)
+			throw new IllegalStateException("packed vertices need chunks of at most " + PackedVertex.MAX_COORD + " voxels");
+		if (vertex_format == VertexFormat.PACKED && mesh_mode == MeshMode.SMOOTH)
+			throw new IllegalStateException("smooth meshes need float vertices");
+		this.vertex_format = vertex_format;
+		createMeshes();
+		if (model != null) {
+			model.delete();
+			model = null;
+		}
+		if (lod_model != null) {
+			lod_model.delete();
+			lod_model = null;
+		}
+		lod_meshed = 0;
+		lod_pending = false;
+	}
+	
+	/**
+	 * returns the estimated footprint of the chunk's voxel data, including any off-heap
+	 * slab.
+	 * 
+	 * @returns the approximate size of the voxel storage in bytes.
+	 */
+	public long getMemoryUsage() {
+		if (blocks == null)
+			return deflated == null ? 0 : 16 + deflated.length;
+		return blocks.getMemoryUsage() + (solid == null ? 0 : 16 + solid.length * 8L) + (clear == null ? 0 : 16 + clear.length * 8L)
+				+ (density == null ? 0 : 16 + density.length * 4L);
+	}
+
+	/**
+	 * trims the chunk's voxel storage after generation or edits, dropping palette entries
+	 * that are no longer used so the packed array stays as narrow as possible. Face
+	 * visibility is not stored; it is derived from the occupancy bits while meshing.
+	 */
+	public void updateBlocks() {
+		data().compact();
+		version++;
+		if (blocks.isUniform())
+			solid = clear = null;
+	}
+	
+//	class Vertex3i {
+//		
+//		public int x, y, z; 
+//		public float u, v;
+//		
+//		public Vertex3i(x, y, z, u, v) {
+//			
+//		}
+//		
+//	}
+	
+	/**
+	 * height in voxels of the sections the interior of the mesh is split into, 16 or the
+	 * chunk size if that is smaller. Each section is meshed, uploaded and drawn as a part
+	 * of its own, so an edit only costs the sections it touches.
+	 */
+	public static final int SECTION_SIZE = Math.min(16, CHUNK_SIZE);
+	private static final int SECTION_SHIFT = Integer.numberOfTrailingZeros(SECTION_SIZE);
+	public static final int SECTIONS = CHUNK_SIZE >>> SECTION_SHIFT;
+	private static final int ALL_SECTIONS = (1 << SECTIONS) - 1;
+	
+	private ChunkMesh[] sections; // faces between the blocks of each section and their neighbours
+	// faces looking out of the chunk, one part per face index, each indexed from 0
+	private final ChunkMesh[] border_meshes = new ChunkMesh[6];
+	private ChunkMesh borders; // the six border parts one after the other, uploaded as one part
+	private ChunkMesh[] parts; // the parts of the model: the sections followed by `borders`
+	{
+		createMeshes();
+	}
+	// lists of the parts handed to `Model.upload()`, shared as models are only built on the GL thread
+	private static final FloatList[] upload_floats = new FloatList[SECTIONS + 1];
+	private static final IntList[] upload_vertices = new IntList[SECTIONS + 1], upload_indices = new IntList[SECTIONS + 1];
+	
+	private void createMeshes() {
+		sections = new ChunkMesh[SECTIONS];
+		parts = new ChunkMesh[SECTIONS + 1];
+		for (int s = 0; s < SECTIONS; s++)
+			parts[s] = sections[s] = new ChunkMesh(vertex_format, 256);
+		for (int f = 0; f < 6; f++)
+			border_meshes[f] = new ChunkMesh(vertex_format, 64);
+		parts[SECTIONS] = borders = new ChunkMesh(vertex_format, 256);
+		lod_mesh = new ChunkMesh(vertex_format, 256);
+	}
+	
+	
+	public void toGenModel() { toGenModel(false); };
+	
+	/**
+	 * meshes all sections of the chunk and marks its borders stale, to be meshed and
+	 * uploaded with the sections by the next `getModel()`. With a `ChunkMesher` the
+	 * sections are only handed to it, unless `now` is set. A chunk drawn at a coarser
+	 * level of detail only gets its downsampled mesh, and its sections once it comes
+	 * back to full resolution.
+	 * 
+	 * @param now `true` to mesh the sections on the calling thread even with a mesher,
+	 * and to upload the model right away, which needs the GL context.
+	 */
+	public void toGenModel(boolean now) {
+
+		lod_stale = true;
+		if (lod > 0) {
+			// drawn coarser, so only the downsampled mesh is built for now
+			deferred = true;
+			if (!meshing)
+				meshLod();
+			return;
+		}
+		deferred = false;
+		staleSections(); // all of them are meshed against the current neighbours anyway
+		if (mesher == null || now) {
+			long deadline = System.nanoTime() + optimize_nanos;
+			for (int section = 0; section < SECTIONS; section++)
+				meshSection(section, deadline);
+			dirty_sections = 0;
+			pending_parts |= ALL_SECTIONS;
+			unmeshed = false;
+		} else {
+			dirty_sections = ALL_SECTIONS;
+			if (!meshing) // otherwise submitted by `remesh()` once the job in flight is applied
+				submitSections();
+		}
+		dirty_borders = FACE_ALL;
+		if (now)
+			createModel();
+	}
+	
+	/**
+	 * rebuilds the mesh of one section from the chunk's voxels, on the calling thread.
+	 * 
+	 * @param section index of the section, counting up from the bottom of the chunk.
+	 * 
+	 * @param deadline `System.nanoTime()` by which its triangles have to be reordered.
+	 */
+	private void meshSection(int section, long deadline) {
+		long[] solid = occupancy();
+		meshSection(sections[section], section, solid, clear, solid == null ? null : data(), density(), sides(), deadline);
+	}
+	
+	/**
+	 * meshes one section into the given mesh, reading the voxels only through the given
+	 * arrays so that it can run on a `ChunkMesher` thread. The corners the block faces
+	 * share are welded into single vertices afterwards, unless welding is off, and the
+	 * triangles reordered if the chunk optimizes its meshes.
+	 * 
+	 * @param solid the chunk's occupancy bits, `null` if the chunk is uniform.
+	 * 
+	 * @param clear occupancy bits of the non-opaque blocks other than air, `null` if
+	 * there are none.
+	 * 
+	 * @param blocks the chunk's voxel data.
+	 * 
+	 * @param density the chunk's density field from `density()`, for `SMOOTH` meshes.
+	 * 
+	 * @param sides the neighbours' border slices from `sides()`.
+	 * 
+	 * @param deadline `System.nanoTime()` by which the triangles have to be reordered.
+	 */
+	private void meshSection(ChunkMesh mesh, int section, long[] solid, long[] clear, VoxelData blocks, float[] density, long[][] sides, long deadline) {
+		mesh.clear();
+		int y0 = section << SECTION_SHIFT, y1 = y0 + SECTION_SIZE;
+		if (mesh_mode == MeshMode.SMOOTH) {
+			// the surface may cross the chunk's sides even if its voxels are uniform
+			genSmooth(mesh, y0, y1, density);
+		} else if (solid == null) {
+			// all air has nothing to mesh, a single other block only has faces on its borders
+		} else if (mesh_mode == MeshMode.GREEDY) {
+			genGreedy(mesh, y0, y1, solid, clear, blocks, sides);
+		} else {
+			genRows(mesh, y0, y1, solid, clear, vertex_format == VertexFormat.PACKED || clear != null ? blocks : null, sides);
+		}
+		if (mesh_mode != MeshMode.SMOOTH) {
+			if (welding)
+				mesh.weld();
+			mesh.bucket();
+		}
+		if (optimize_nanos > 0)
+			mesh.optimize(deadline, mesh_mode != MeshMode.SMOOTH);
+	}
+	
+	/**
+	 * collects the border slices of the neighbours facing the chunk, which the ambient
+	 * occlusion of the faces along the chunk's sides reads.
+	 * 
+	 * @returns the slices by face index, `null` where there is no neighbour, or `null`
+	 * altogether when the ambient occlusion is off or the chunk is meshed smooth.
+	 */
+	private long[][] sides() {
+		if (!ambient_occlusion || mesh_mode == MeshMode.SMOOTH)
+			return null;
+		long[][] sides = new long[6][];
+		for (int f = 0; f < 6; f++)
+			if (neighbours[f] != null)
+				sides[f] = neighbours[f].border[f ^ 1];
+		return sides;
+	}
+	
+	/**
+	 * returns the occupancy bits, building them first if they were dropped.
+	 * 
+	 * @returns the occupancy bits, or `null` if the chunk is uniform and has no faces
+	 * inside.
+	 */
+	private long[] occupancy() {
+		if (isUniform())
+			return null;
+		if (solid == null)
+			buildOccupancy();
+		return solid;
+	}
+	
+	/**
+	 * counts the faces between the chunk's opaque voxels and the other voxels next to
+	 * them inside the chunk, from the occupancy bits a word at a time like `genRows()`.
+	 * Timed against `countFacesPerVoxel()` by the `occupancy` benchmark.
+	 * 
+	 * @returns the number of visible faces.
+	 */
+	int countFaces() {
+		long[] solid = occupancy();
+		if (solid == null)
+			return 0;
+		final long first = 1L, last = 1L << ((CHUNK_SIZE - 1) & 63);
+		final int plane = CHUNK_SIZE << ROW_SHIFT;
+		int count = 0;
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = 0; y < CHUNK_SIZE; y++)
+				for (int w = 0; w < ROW_WORDS; w++) {
+					int r = word(w << 6, y, z);
+					long row = solid[r];
+					if (row == 0)
+						continue;
+					count += Long.bitCount(row & ~(row << 1 | (w > 0 ? solid[r - 1] >>> 63 : first)));
+					count += Long.bitCount(row & ~(row >>> 1 | (w + 1 < ROW_WORDS ? solid[r + 1] << 63 : last)));
+					if (y > 0)
+						count += Long.bitCount(row & ~solid[r - ROW_WORDS]);
+					if (y + 1 < CHUNK_SIZE)
+						count += Long.bitCount(row & ~solid[r + ROW_WORDS]);
+					if (z > 0)
+						count += Long.bitCount(row & ~solid[r - plane]);
+					if (z + 1 < CHUNK_SIZE)
+						count += Long.bitCount(row & ~solid[r + plane]);
+				}
+		return count;
+	}
+	
+	/**
+	 * counts the same faces as `countFaces()` voxel by voxel, looking every voxel and its
+	 * six neighbours up in the voxel data, as the chunk did before it kept occupancy bits.
+	 * 
+	 * @returns the number of visible faces.
+	 */
+	int countFacesPerVoxel() {
+		VoxelData blocks = data();
+		final int last = CHUNK_SIZE - 1;
+		int count = 0;
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = 0; y < CHUNK_SIZE; y++)
+				for (int x = 0; x < CHUNK_SIZE; x++) {
+					if (!BlockRegistry.isOpaque(blocks.get(index(x, y, z))))
+						continue;
+					if (x > 0 && !BlockRegistry.isOpaque(blocks.get(index(x - 1, y, z))))
+						count++;
+					if (x < last && !BlockRegistry.isOpaque(blocks.get(index(x + 1, y, z))))
+						count++;
+					if (y > 0 && !BlockRegistry.isOpaque(blocks.get(index(x, y - 1, z))))
+						count++;
+					if (y < last && !BlockRegistry.isOpaque(blocks.get(index(x, y + 1, z))))
+						count++;
+					if (z > 0 && !BlockRegistry.isOpaque(blocks.get(index(x, y, z - 1))))
+						count++;
+					if (z < last && !BlockRegistry.isOpaque(blocks.get(index(x, y, z + 1))))
+						count++;
+				}
+		return count;
+	}
+	
+	/**
+	 * meshes the chunk from its occupancy bits, one word of up to 64 voxels at a time. A
+	 * face is visible where a solid bit meets an air bit in the neighbouring row, or in
+	 * the same row shifted by one for the x faces, so each direction costs a shift, a not
+	 * and an and per word; only the voxels with a visible face are visited individually.
+	 * The x shifts carry the edge bit over from the other word of a two word row. The
+	 * non-opaque blocks other than air get their faces from `clearFaces()`.
+	 * 
+	 * @param mesh section the faces are added to.
+	 * 
+	 * @param y0 first layer of the section.
+	 * 
+	 * @param y1 layer above the section's last one.
+	 * 
+	 * @param solid the chunk's occupancy bits.
+	 * 
+	 * @param clear occupancy bits of the non-opaque blocks other than air, `null` if
+	 * there are none.
+	 * 
+	 * @param blocks the chunk's voxel data, needed for the texture layers of packed
+	 * vertices and wherever `clear` is given, otherwise `null`.
+	 * 
+	 * @param sides the neighbours' border slices for the ambient occlusion, `null` to
+	 * leave it out.
+	 */
+	private static void genRows(ChunkMesh mesh, int y0, int y1, long[] solid, long[] clear, VoxelData blocks, long[][] sides) {
+		final long first = 1L, last = 1L << ((CHUNK_SIZE - 1) & 63);
+		final int plane = CHUNK_SIZE << ROW_SHIFT;
+		int max_index = 0;
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = y0; y < y1; y++)
+				for (int w = 0; w < ROW_WORDS; w++) {
+					int r = word(w << 6, y, z);
+					long row = solid[r], see = clear == null ? 0 : clear[r];
+					if ((row | see) == 0)
+						continue;
+					// faces out of the chunk are left to `meshBorder()`
+					long lt = row & ~(row << 1 | (w > 0 ? solid[r - 1] >>> 63 : first));
+					long rt = row & ~(row >>> 1 | (w + 1 < ROW_WORDS ? solid[r + 1] << 63 : last));
+					long bt = y > 0 ? row & ~solid[r - ROW_WORDS] : 0;
+					long tp = y + 1 < CHUNK_SIZE ? row & ~solid[r + ROW_WORDS] : 0;
+					long ft = z > 0 ? row & ~solid[r - plane] : 0;
+					long bk = z + 1 < CHUNK_SIZE ? row & ~solid[r + plane] : 0;
+					if (see != 0) {
+						lt |= clearFaces(solid, clear, blocks, FACE_LT, w, y, z);
+						rt |= clearFaces(solid, clear, blocks, FACE_RT, w, y, z);
+						bt |= clearFaces(solid, clear, blocks, FACE_BT, w, y, z);
+						tp |= clearFaces(solid, clear, blocks, FACE_TP, w, y, z);
+						ft |= clearFaces(solid, clear, blocks, FACE_FT, w, y, z);
+						bk |= clearFaces(solid, clear, blocks, FACE_BK, w, y, z);
+					}
+					
+					long visible = lt | rt | bt | tp | ft | bk;
+					while (visible != 0) {
+						int b = Long.numberOfTrailingZeros(visible);
+						int faces = (int) (ft >>> b & 1) * FACE_FT | (int) (bk >>> b & 1) * FACE_BK
+								| (int) (bt >>> b & 1) * FACE_BT | (int) (tp >>> b & 1) * FACE_TP
+								| (int) (lt >>> b & 1) * FACE_LT | (int) (rt >>> b & 1) * FACE_RT;
+						int x = w << 6 | b;
+						int id = blocks == null ? Block.SOLID : blocks.get(index(x, y, z));
+						max_index = gen(mesh, id, x, y, z, faces, solid, sides, max_index);
+						visible &= visible - 1;
+					}
+				}
+	}
+	
+	/**
+	 * returns the visible faces of the non-opaque blocks other than air in one word, in
+	 * one direction. Such a face shows wherever the voxel in front of it is not opaque,
+	 * unless it holds the same block, so the inside of a body of water has no faces while
+	 * water against glass does. Faces out of the chunk are left to `meshBorder()`.
+	 * 
+	 * @param face the `FACE_*` bit of the direction.
+	 * 
+	 * @param w word of the row, see `word()`.
+	 * 
+	 * @returns the bits of the voxels in the word with a visible face.
+	 */
+	private static long clearFaces(long[] solid, long[] clear, VoxelData blocks, int face, int w, int y, int z) {
+		final int r = word(w << 6, y, z), plane = CHUNK_SIZE << ROW_SHIFT;
+		long row = clear[r];
+		if (row == 0)
+			return 0;
+		long faces, same; // the faces in front of no opaque voxel, and those of them in front of another clear one
+		int step; // voxel index of the voxel in front, relative to the face's
+		switch (face) {
+		case FACE_LT:
+			faces = row & ~(solid[r] << 1 | (w > 0 ? solid[r - 1] >>> 63 : 1L));
+			same = faces & (clear[r] << 1 | (w > 0 ? clear[r - 1] >>> 63 : 0));
+			step = -1;
+			break;
+		case FACE_RT:
+			faces = row & ~(solid[r] >>> 1 | (w + 1 < ROW_WORDS ? solid[r + 1] << 63 : 1L << ((CHUNK_SIZE - 1) & 63)));
+			same = faces & (clear[r] >>> 1 | (w + 1 < ROW_WORDS ? clear[r + 1] << 63 : 0));
+			step = 1;
+			break;
+		case FACE_BT:
+		case FACE_TP:
+			int dy = face == FACE_BT ? -1 : 1;
+			if (y + dy < 0 || y + dy >= CHUNK_SIZE)
+				return 0;
+			faces = row & ~solid[r + dy * ROW_WORDS];
+			same = faces & clear[r + dy * ROW_WORDS];
+			step = dy * CHUNK_SIZE;
+			break;
+		default:
+			int dz = face == FACE_FT ? -1 : 1;
+			if (z + dz < 0 || z + dz >= CHUNK_SIZE)
+				return 0;
+			faces = row & ~solid[r + dz * plane];
+			same = faces & clear[r + dz * plane];
+			step = dz * CHUNK_SIZE_SQUARED;
+			break;
+		}
+		while (same != 0) {
+			long bit = same & -same;
+			int i = index(w << 6 | Long.numberOfTrailingZeros(same), y, z);
+			if (blocks.get(i) == blocks.get(i + step))
+				faces &= ~bit;
+			same &= same - 1;
+		}
+		return faces;
+	}
+	
+	/**
+	 * meshes the chunk by merging the visible faces of each layer into rectangles, a
+	 * word of up to 64 faces at a time. For every face direction and layer the visible
+	 * faces are found from the occupancy bits like in `genRows()`, as one bit mask per
+	 * row of the layer. Each face's block id and corner levels go into a grid, and a
+	 * second mask per row marks the faces equal to the one before them, so that
+	 * `mergeLayer()` can find runs of equal faces with bit scans rather than comparing
+	 * cells. Only faces shaded alike are merged: as neighbouring faces share the levels
+	 * of the corners between them, a rectangle's levels then do not change along the
+	 * axes it grew along, and it is shaded exactly like its single faces. Rectangles do
+	 * not grow across the section's top or bottom, so each section can be remeshed alone.
+	 * 
+	 * @param mesh section the quads are added to.
+	 * 
+	 * @param y0 first layer of the section.
+	 * 
+	 * @param y1 layer above the section's last one.
+	 * 
+	 * @param solid the chunk's occupancy bits.
+	 * 
+	 * @param clear occupancy bits of the non-opaque blocks other than air, `null` if
+	 * there are none.
+	 * 
+	 * @param blocks the chunk's voxel data.
+	 * 
+	 * @param sides the neighbours' border slices for the ambient occlusion, `null` to
+	 * leave it out.
+	 */
+	private static void genGreedy(ChunkMesh mesh, int y0, int y1, long[] solid, long[] clear, VoxelData blocks, long[][] sides) {
+		final int plane = CHUNK_SIZE << ROW_SHIFT;
+		final long first = 1L, last = 1L << ((CHUNK_SIZE - 1) & 63);
+		// masks of row v of the layer, u and v being the face's in-plane axes: x and y for
+		// z faces, x and z for y faces, z and y for x faces
+		final long[] rows = new long[CHUNK_SIZE << ROW_SHIFT], same = new long[CHUNK_SIZE << ROW_SHIFT];
+		final int[] grid = new int[CHUNK_SIZE_SQUARED]; // cell u + v * CHUNK_SIZE, valid where `rows` is set
+		
+		// x faces need bit x of every row for each layer x, so their masks are kept per row
+		final long[] lt_rows = new long[solid.length], rt_rows = new long[solid.length];
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = y0; y < y1; y++)
+				for (int w = 0; w < ROW_WORDS; w++) {
+					int r = word(w << 6, y, z);
+					long row = solid[r];
+					// faces out of the chunk are left to `meshBorder()`
+					lt_rows[r] = row & ~(row << 1 | (w > 0 ? solid[r - 1] >>> 63 : first));
+					rt_rows[r] = row & ~(row >>> 1 | (w + 1 < ROW_WORDS ? solid[r + 1] << 63 : last));
+					if (clear != null) {
+						lt_rows[r] |= clearFaces(solid, clear, blocks, FACE_LT, w, y, z);
+						rt_rows[r] |= clearFaces(solid, clear, blocks, FACE_RT, w, y, z);
+					}
+				}
+		
+		int max_index = 0;
+		for (int face = FACE_FT; face <= FACE_RT; face <<= 1) {
+			// y faces take the section's layers, the others the section's rows
+			boolean y_face = face == FACE_BT || face == FACE_TP;
+			int l0 = y_face ? y0 : 0, l1 = y_face ? y1 : CHUNK_SIZE;
+			int v0 = y_face ? 0 : y0, v1 = y_face ? CHUNK_SIZE : y1;
+			for (int layer = l0; layer < l1; layer++) {
+				boolean any = false;
+				for (int v = v0; v < v1; v++)
+					for (int w = 0; w < ROW_WORDS; w++) {
+						long mask;
+						if (face == FACE_FT || face == FACE_BK) {
+							int r = word(w << 6, v, layer);
+							int n = face == FACE_FT ? layer - 1 : layer + 1;
+							mask = n < 0 || n >= CHUNK_SIZE ? 0 : solid[r] & ~solid[r + (n - layer) * plane];
+							if (clear != null)
+								mask |= clearFaces(solid, clear, blocks, face, w, v, layer);
+						} else if (face == FACE_BT || face == FACE_TP) {
+							int r = word(w << 6, layer, v);
+							int n = face == FACE_BT ? layer - 1 : layer + 1;
+							mask = n < 0 || n >= CHUNK_SIZE ? 0 : solid[r] & ~solid[r + (n - layer) * ROW_WORDS];
+							if (clear != null)
+								mask |= clearFaces(solid, clear, blocks, face, w, layer, v);
+						} else {
+							// gather bit x of the rows (y = v, z = u) into one mask
+							long[] bits = face == FACE_LT ? lt_rows : rt_rows;
+							mask = 0;
+							for (int u = w << 6, end = Math.min(u + 64, CHUNK_SIZE); u < end; u++)
+								mask |= (bits[word(layer, v, u)] >>> layer & 1) << (u & 63);
+						}
+						rows[v << ROW_SHIFT | w] = mask;
+						while (mask != 0) {
+							int u = w << 6 | Long.numberOfTrailingZeros(mask);
+							int x, y, z;
+							if (face <= FACE_BK) {
+								x = u; y = v; z = layer;
+							} else if (face <= FACE_TP) {
+								x = u; y = layer; z = v;
+							} else {
+								x = layer; y = v; z = u;
+							}
+							grid[u + (v << CHUNK_SHIFT)] = cell(blocks.get(index(x, y, z)), face, x, y, z, solid, sides);
+							any = true;
+							mask &= mask - 1;
+						}
+					}
+				if (any)
+					max_index = mergeLayer(mesh, rows, same, grid, face, layer, v0, v1, 1, max_index);
+			}
+		}
+	}
+	
+	/**
+	 * returns the grid cell of a face for `mergeLayer()`: the block id plus one above the
+	 * 8 bits of its corner levels, so faces merge only if their cells are equal.
+	 */
+	private static int cell(int id, int face, int x, int y, int z, long[] solid, long[][] sides) {
+		return id + 1 << 8 | (sides == null ? NO_OCCLUSION : faceAo(solid, sides, face, x, y, z));
+	}
+	
+	/**
+	 * emits the rectangles of rows `v0` to `v1` of one layer, clearing their faces from
+	 * the row masks as it goes. The lowest face left in a row starts a rectangle, which
+	 * grows right over the run of set bits in `same`, then up as long as the row above
+	 * has the whole span set, equal to each other and to the first face. A rectangle
+	 * never spans the two words of a 128 voxel row.
+	 * 
+	 * @param rows visible faces of each row of the layer, word w of row v at
+	 * `v << ROW_SHIFT | w`.
+	 * 
+	 * @param same scratch masks, filled with the faces equal to the one before them.
+	 * 
+	 * @param grid cells of the visible faces, from `cell()`.
+	 * 
+	 * @param scale edge length of the blocks in voxels, see `quad()`.
+	 */
+	private static int mergeLayer(ChunkMesh mesh, long[] rows, long[] same, int[] grid, int face, int layer, int v0, int v1, int scale, int max_index) {
+		for (int v = v0; v < v1; v++)
+			for (int w = 0; w < ROW_WORDS; w++) {
+				int r = v << ROW_SHIFT | w;
+				long row = rows[r], eq = 0, rest = row & row << 1;
+				while (rest != 0) {
+					int u = w << 6 | Long.numberOfTrailingZeros(rest);
+					if (grid[u + (v << CHUNK_SHIFT)] == grid[u - 1 + (v << CHUNK_SHIFT)])
+						eq |= rest & -rest;
+					rest &= rest - 1;
+				}
+				same[r] = eq;
+			}
+		for (int v = v0; v < v1; v++)
+			for (int w = 0; w < ROW_WORDS; w++) {
+				int r = v << ROW_SHIFT | w;
+				long row;
+				while ((row = rows[r]) != 0) {
+					int b = Long.numberOfTrailingZeros(row);
+					int u = w << 6 | b;
+					int cell = grid[u + (v << CHUNK_SHIFT)];
+					// faces left of the run are gone, so it ends at the first face that was taken
+					// or differs from the one before it
+					int width = b == 63 ? 1 : 1 + Long.numberOfTrailingZeros(~((same[r] & row) >>> b + 1));
+					long span = width == 64 ? -1L : (1L << width) - 1 << b, inner = span & span << 1;
+					int h = 1;
+					while (v + h < v1) {
+						int above = r + (h << ROW_SHIFT);
+						if ((rows[above] & span) != span || (same[above] & inner) != inner || grid[u + ((v + h) << CHUNK_SHIFT)] != cell)
+							break;
+						h++;
+					}
+					for (int dv = 0; dv < h; dv++)
+						rows[r + (dv << ROW_SHIFT)] &= ~span;
+					max_index = quad(mesh, (cell >>> 8) - 1, cell & 0xff, face, layer, u, v, width, h, scale, max_index);
+				}
+			}
+		return max_index;
+	}
+	
+	/**
+	 * meshes the chunk at a level of detail. The voxels are downsampled into cells of
+	 * `1 << level` voxels a side, each solid if at least half of its voxels are, with the
+	 * block most of its opaque voxels hold, and the cells are meshed like `genGreedy()`
+	 * meshes voxels, without ambient occlusion. The cells' occupancy is counted from the
+	 * occupancy bits a word at a time. All faces on the chunk's sides are kept, as the
+	 * neighbours may be drawn at other levels: they form skirts that close the coarse
+	 * surface, hidden inside the terrain wherever the neighbour is solid too. Non-opaque
+	 * blocks other than air count as air, they are too thin to show from that far away.
+	 * 
+	 * @param level from 1 to `MAX_LOD`.
+	 * 
+	 * @param solid the chunk's occupancy bits, `null` if the chunk is uniform.
+	 * 
+	 * @param blocks the chunk's voxel data.
+	 */
+	private static void genLod(ChunkMesh mesh, int level, long[] solid, VoxelData blocks) {
+		mesh.clear();
+		if (solid == null && !BlockRegistry.isOpaque(blocks.get(0)))
+			return;
+		final int scale = 1 << level, size = CHUNK_SIZE >>> level, half = 1 << 3 * level - 1;
+		final long cell_bits = (1L << scale) - 1;
+		// bit cx of cells[cy + cz * size] is set for solid cells, at most 64 cells a row
+		final long[] cells = new long[size * size];
+		final int[] counts = new int[size];
+		for (int cz = 0; cz < size; cz++)
+			for (int cy = 0; cy < size; cy++) {
+				long row = 0;
+				if (solid == null) {
+					row = size == 64 ? -1L : (1L << size) - 1;
+				} else {
+					Arrays.fill(counts, 0);
+					for (int z = cz << level; z < cz + 1 << level; z++)
+						for (int y = cy << level; y < cy + 1 << level; y++)
+							for (int w = 0; w < ROW_WORDS; w++) {
+								long bits = solid[word(w << 6, y, z)];
+								for (int cx = w << 6 >>> level; bits != 0; cx++, bits >>>= scale)
+									counts[cx] += Long.bitCount(bits & cell_bits);
+							}
+					for (int cx = 0; cx < size; cx++)
+						if (counts[cx] >= half)
+							row |= 1L << cx;
+				}
+				cells[cy + cz * size] = row;
+			}
+		
+		// the same layout as `genGreedy()`, with only the first word of each row used
+		final long[] rows = new long[CHUNK_SIZE << ROW_SHIFT], same = new long[CHUNK_SIZE << ROW_SHIFT];
+		final int[] grid = new int[CHUNK_SIZE_SQUARED];
+		final int[] ids = new int[size * size * size]; // block id plus one of the cells looked up so far
+		int max_index = 0;
+		for (int face = FACE_FT; face <= FACE_RT; face <<= 1)
+			for (int layer = 0; layer < size; layer++) {
+				boolean any = false;
+				for (int v = 0; v < size; v++) {
+					long mask;
+					if (face == FACE_FT || face == FACE_BK) {
+						int n = face == FACE_FT ? layer - 1 : layer + 1;
+						mask = cells[v + layer * size] & ~(n < 0 || n >= size ? 0 : cells[v + n * size]);
+					} else if (face == FACE_BT || face == FACE_TP) {
+						int n = face == FACE_BT ? layer - 1 : layer + 1;
+						mask = cells[layer + v * size] & ~(n < 0 || n >= size ? 0 : cells[n + v * size]);
+					} else {
+						mask = 0;
+						for (int u = 0; u < size; u++) {
+							long row = cells[v + u * size];
+							long bits = row & ~(face == FACE_LT ? row << 1 : row >>> 1);
+							mask |= (bits >>> layer & 1) << u;
+						}
+					}
+					rows[v << ROW_SHIFT] = mask;
+					while (mask != 0) {
+						int u = Long.numberOfTrailingZeros(mask);
+						int cx, cy, cz;
+						if (face <= FACE_BK) {
+							cx = u; cy = v; cz = layer;
+						} else if (face <= FACE_TP) {
+							cx = u; cy = layer; cz = v;
+						} else {
+							cx = layer; cy = v; cz = u;
+						}
+						int c = cx + (cy + cz * size) * size;
+						if (ids[c] == 0)
+							ids[c] = majority(blocks, solid, level, cx, cy, cz) + 1;
+						grid[u + (v << CHUNK_SHIFT)] = ids[c] << 8 | NO_OCCLUSION;
+						any = true;
+						mask &= mask - 1;
+					}
+				}
+				if (any)
+					max_index = mergeLayer(mesh, rows, same, grid, face, layer, 0, size, scale, max_index);
+			}
+	}
+	
+	/**
+	 * returns the block held by most of the opaque voxels of a cell of `genLod()`, by a
+	 * single pass majority vote.
+	 */
+	private static int majority(VoxelData blocks, long[] solid, int level, int cx, int cy, int cz) {
+		if (solid == null)
+			return blocks.get(0);
+		int candidate = Block.SOLID, votes = 0;
+		for (int z = cz << level; z < cz + 1 << level; z++)
+			for (int y = cy << level; y < cy + 1 << level; y++)
+				for (int x = cx << level; x < cx + 1 << level; x++) {
+					if ((solid[word(x, y, z)] >>> x & 1) == 0)
+						continue;
+					int id = blocks.get(index(x, y, z));
+					if (votes == 0) {
+						candidate = id;
+						votes = 1;
+					} else {
+						votes += id == candidate ? 1 : -1;
+					}
+				}
+		return candidate;
+	}
+	
+	/**
+	 * meshes the chunk as a smooth surface through its density field, by naive surface
+	 * nets. Every cell between eight neighbouring samples that has samples of both signs
+	 * gets one vertex, at the average of the points where the density crosses zero along
+	 * the cell's edges, and every edge between two samples of different signs joins the
+	 * four cells around it with a quad. Each vertex is added once and shared by the quads
+	 * around it. The chunk meshes the edges starting at its own samples, whose cells
+	 * reach one sample past its sides, where the neighbours sample the same density, so
+	 * neighbouring surfaces meet. The vertices carry a half lambert term of the density's
+	 * gradient where blocks carry their ambient occlusion, and texture coordinates along
+	 * the plane the surface faces most.
+	 * 
+	 * @param mesh section the surface is added to.
+	 * 
+	 * @param y0 first layer of the section.
+	 * 
+	 * @param y1 layer above the section's last one.
+	 * 
+	 * @param density the chunk's density field, from `density()`.
+	 */
+	private static void genSmooth(ChunkMesh mesh, int y0, int y1, float[] density) {
+		// vertices of the cells from layer y0 - 1 to y1 - 1 by cell, -1 until added, where
+		// cell (x, y, z) spans the samples from (x, y, z) to (x + 1, y + 1, z + 1)
+		final int cells = CHUNK_SIZE + 1, layers = y1 - y0 + 1;
+		final int[] vertices = new int[cells * cells * layers];
+		Arrays.fill(vertices, -1);
+		final int[] sample_step = { 1, FIELD_SIZE, FIELD_SIZE * FIELD_SIZE }, cell_step = { 1, cells, cells * layers };
+		final float[] corners = new float[8];
+		for (int z = 0; z < CHUNK_SIZE; z++)
+			for (int y = y0; y < y1; y++)
+				for (int x = 0; x < CHUNK_SIZE; x++) {
+					int s = fieldIndex(x, y, z);
+					boolean inside = density[s] > 0;
+					for (int a = 0; a < 3; a++) {
+						if (density[s + sample_step[a]] > 0 == inside)
+							continue;
+						// the cells around the edge, going around it counterclockwise as seen from
+						// the end of axis a, along b then c
+						int b = a == 2 ? 0 : a + 1, c = a == 0 ? 2 : a - 1;
+						int cell = x + 1 + (y - y0 + 1) * cells + (z + 1) * cells * layers;
+						int bx = b == 0 ? 1 : 0, by = b == 1 ? 1 : 0, bz = b == 2 ? 1 : 0;
+						int cx = c == 0 ? 1 : 0, cy = c == 1 ? 1 : 0, cz = c == 2 ? 1 : 0;
+						int v0 = smoothVertex(mesh, density, vertices, corners, cell - cell_step[b] - cell_step[c], x - bx - cx, y - by - cy, z - bz - cz);
+						int v1 = smoothVertex(mesh, density, vertices, corners, cell - cell_step[c], x - cx, y - cy, z - cz);
+						int v2 = smoothVertex(mesh, density, vertices, corners, cell, x, y, z);
+						int v3 = smoothVertex(mesh, density, vertices, corners, cell - cell_step[b], x - bx, y - by, z - bz);
+						// the surface faces the air, along a if the edge starts inside
+						if (inside)
+							mesh.addQuad(v0, v1, v2, v3);
+						else
+							mesh.addQuad(v0, v3, v2, v1);
+					}
+				}
+	}
+	
+	private static final float LIGHT_X = 0.36f, LIGHT_Y = 0.9f, LIGHT_Z = 0.24f; // unit vector towards the light of smooth meshes
+	
+	/**
+	 * returns the index of the vertex of a cell of `genSmooth()`, adding it first.
+	 * 
+	 * @param key index of the cell in `vertices`.
+	 * 
+	 * @param x local position of the cell's first sample.
+	 */
+	private static int smoothVertex(ChunkMesh mesh, float[] density, int[] vertices, float[] corners, int key, int x, int y, int z) {
+		int vertex = vertices[key];
+		if (vertex >= 0)
+			return vertex;
+		vertex = vertices[key] = mesh.getVertexCount();
+		// corner i is the sample at x + (i & 1), y + (i >> 1 & 1), z + (i >> 2)
+		int s = fieldIndex(x, y, z);
+		for (int i = 0; i < 8; i++)
+			corners[i] = density[s + (i & 1) + ((i >> 1 & 1) + (i >> 2) * FIELD_SIZE) * FIELD_SIZE];
+		float px = 0, py = 0, pz = 0;
+		int crossings = 0;
+		for (int axis = 1; axis <= 4; axis <<= 1)
+			for (int i = 0; i < 8; i++) {
+				if ((i & axis) != 0)
+					continue;
+				float d0 = corners[i], d1 = corners[i | axis];
+				if (d0 > 0 == d1 > 0)
+					continue;
+				float t = d0 / (d0 - d1);
+				px += axis == 1 ? t : i & 1;
+				py += axis == 2 ? t : i >> 1 & 1;
+				pz += axis == 4 ? t : i >> 2;
+				crossings++;
+			}
+		px /= crossings;
+		py /= crossings;
+		pz /= crossings;
+		// the density grows into the terrain, so the surface faces down its gradient
+		float nx = corners[0] - corners[1] + corners[2] - corners[3] + corners[4] - corners[5] + corners[6] - corners[7];
+		float ny = corners[0] + corners[1] - corners[2] - corners[3] + corners[4] + corners[5] - corners[6] - corners[7];
+		float nz = corners[0] + corners[1] + corners[2] + corners[3] - corners[4] - corners[5] - corners[6] - corners[7];
+		float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+		float light = length == 0 ? 1 : (nx * LIGHT_X + ny * LIGHT_Y + nz * LIGHT_Z) / length;
+		px += x;
+		py += y;
+		pz += z;
+		float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+		if (ay >= ax && ay >= az)
+			mesh.addSmooth(px, py, pz, px, pz, 1.5f + 1.5f * light);
+		else if (ax >= az)
+			mesh.addSmooth(px, py, pz, pz, py, 1.5f + 1.5f * light);
+		else
+			mesh.addSmooth(px, py, pz, px, py, 1.5f + 1.5f * light);
+		return vertex;
+	}
+	
+	/**
+	 * uploads the mesh into the chunk's model, creating the model the first time there is
+	 * something to draw. Once the model exists only the parts rebuilt by `remesh()` are
+	 * written, each into its own range of the buffers, unless one outgrew its range or
+	 * every part changed, in which case the whole mesh is laid out again.
+	 */
+	private void createModel() {
+		int changed = remesh();
+		if (unmeshed) {
+			pending_parts |= changed; // uploaded along with the sections
+			return;
+		}
+		if (model == null) {
+			boolean empty = true;
+			for (ChunkMesh part : parts)
+				empty &= part.isEmpty();
+			if (empty)
+				return;
+			model = Model.create(vertex_format);
+			changed = (1 << parts.length) - 1;
+		}
+		boolean all = changed == (1 << parts.length) - 1;
+		for (int p = 0; p < parts.length && !all; p++)
+			if ((changed >>> p & 1) != 0)
+				all = !updatePart(p);
+		if (all)
+			uploadParts();
+	}
+	
+	/**
+	 * rebuilds the edited sections, the ones whose ambient occlusion went stale and the
+	 * stale border parts of the mesh, on the CPU only. With a `ChunkMesher` the sections
+	 * are handed to it instead, and come back through `applyMesh()`.
+	 * 
+	 * @returns the bits of the parts to upload, the sections by index followed by the
+	 * border part, including the ones meshed since the last upload.
+	 */
+	int remesh() {
+		dirty_sections |= staleSections(); // none left when called from `getModel()`
+		int changed = pending_parts;
+		if (mesher == null) {
+			long deadline = System.nanoTime() + optimize_nanos;
+			for (int section = 0; section < SECTIONS; section++)
+				if ((dirty_sections >>> section & 1) != 0)
+					meshSection(section, deadline);
+			changed |= dirty_sections;
+			dirty_sections = 0;
+		} else if (dirty_sections != 0 && !meshing) {
+			submitSections();
+		}
+		pending_parts = 0;
+		int stale = staleBorders();
+		if (stale != 0) {
+			for (int f = 0; f < 6; f++)
+				if ((stale >>> f & 1) != 0)
+					meshBorder(f);
+			borders.clear();
+			for (ChunkMesh part : border_meshes)
+				borders.append(part);
+			if (mesh_mode != MeshMode.SMOOTH)
+				borders.bucket();
+			changed |= 1 << SECTIONS;
+		}
+		dirty_borders = 0;
+		return changed;
+	}
+	
+	/**
+	 * returns the parts of the chunk's mesh as `remesh()` left them, the sections by
+	 * index followed by the border part.
+	 */
+	ChunkMesh[] getParts() {
+		return parts;
+	}
+	
+	/**
+	 * hands the edited sections to the mesher, along with copies of the occupancy bits
+	 * and of the neighbours' border slices, which stay the same while the main thread
+	 * edits the chunk and its neighbours, and the voxel data and density field, which
+	 * are read in place. An edit of those drops the job, see `applyMesh()`.
+	 */
+	private void submitSections() {
+		long[] solid = occupancy();
+		VoxelData blocks = solid == null ? null : data();
+		ChunkMesh[] meshes = new ChunkMesh[SECTIONS];
+		for (int section = 0; section < SECTIONS; section++)
+			if ((dirty_sections >>> section & 1) != 0)
+				meshes[section] = mesher.obtainMesh(vertex_format);
+		meshing = true;
+		mesher.submit(new ChunkMesher.Job(this, version, 0, dirty_sections, mesher.copyOccupancy(solid), mesher.copyOccupancy(clear), blocks, density(), mesher.copySides(sides()),
+				meshes));
+		dirty_sections = 0;
+	}
+	
+	/**
+	 * meshes the sections of a job, on a mesher thread. Only the job's arrays are read.
+	 */
+	void meshSections(ChunkMesher.Job job) {
+		long deadline = System.nanoTime() + optimize_nanos;
+		if (job.lod > 0) {
+			genLod(job.meshes[0], job.lod, job.solid, job.blocks);
+			if (welding)
+				job.meshes[0].weld();
+			job.meshes[0].bucket();
+			if (optimize_nanos > 0)
+				job.meshes[0].optimize(deadline, true);
+			return;
+		}
+		for (int section = 0; section < SECTIONS; section++)
+			if ((job.sections >>> section & 1) != 0)
+				meshSection(job.meshes[section], section, job.solid, job.clear, job.blocks, job.density, job.sides, deadline);
+	}
+	
+	/**
+	 * swaps the sections meshed by a job into the chunk, on the main thread, to be
+	 * uploaded by the next `getModel()`. The meshes they replace are left in the job for
+	 * the mesher to reuse. A job started before the chunk last changed is dropped and the
+	 * sections meshed again.
+	 * 
+	 * @returns `true` if the job's meshes were swapped in.
+	 */
+	boolean applyMesh(ChunkMesher.Job job) {
+		meshing = false;
+		if (detached != null) {
+			detached.release();
+			detached = null;
+		}
+		if (released)
+			return false;
+		if (job.lod > 0)
+			return applyLod(job);
+		int mask = job.sections;
+		boolean current = !job.failed && job.version == version;
+		for (int section = 0; current && section < SECTIONS; section++)
+			current = job.meshes[section] == null || job.meshes[section].getFormat() == vertex_format;
+		if (!current) {
+			dirty_sections |= mask;
+			submitSections();
+			return false;
+		}
+		for (int section = 0; section < SECTIONS; section++) {
+			if ((mask >>> section & 1) == 0)
+				continue;
+			ChunkMesh old = sections[section];
+			sections[section] = parts[section] = job.meshes[section];
+			job.meshes[section] = old;
+		}
+		pending_parts |= mask;
+		unmeshed = false;
+		return true;
+	}
+	
+	/**
+	 * returns the model of the chunk's downsampled voxels, meshing them first if the
+	 * level changed or the voxels were edited. While a mesher works on it, the chunk
+	 * keeps drawing the mesh it has, at the previous level or at full resolution.
+	 */
+	private Model getLodModel() {
+		if ((lod_meshed != lod || lod_stale) && !meshing)
+			meshLod();
+		if (lod_pending)
+			uploadLod();
+		if (lod_meshed > 0)
+			return drawable(lod_model);
+		return unmeshed ? null : drawable(model);
+	}
+	
+	/**
+	 * returns the mesh of the chunk's downsampled voxels, meshing them first on the
+	 * calling thread if the level changed or the voxels were edited, on the CPU only like
+	 * `remesh()`. The mesh is uploaded by the next `getModel()`.
+	 * 
+	 * @returns the level of detail mesh, which only chunks drawn coarser than full
+	 * resolution draw.
+	 */
+	ChunkMesh remeshLod() {
+		if (lod > 0 && (lod_meshed != lod || lod_stale) && mesher == null)
+			meshLod();
+		return lod_mesh;
+	}
+	
+	/**
+	 * meshes the chunk at its level of detail, on the calling thread or on the mesher's.
+	 */
+	private void meshLod() {
+		lod_stale = false;
+		long[] solid = occupancy();
+		VoxelData blocks = data();
+		if (mesher == null) {
+			genLod(lod_mesh, lod, solid, blocks);
+			if (welding)
+				lod_mesh.weld();
+			lod_mesh.bucket();
+			if (optimize_nanos > 0)
+				lod_mesh.optimize(System.nanoTime() + optimize_nanos, true);
+			lod_meshed = lod;
+			lod_pending = true; // uploaded by `getLodModel()`
+		} else {
+			meshing = true;
+			ChunkMesh[] meshes = { mesher.obtainMesh(vertex_format) };
+			mesher.submit(new ChunkMesher.Job(this, version, lod, 0, mesher.copyOccupancy(solid), null, blocks, null, null, meshes));
+		}
+	}
+	
+	/**
+	 * swaps the mesh of a level of detail job into the chunk, to be uploaded by the next
+	 * `getModel()` even if the chunk moved on to another level meanwhile, as it is still
+	 * closer than nothing.
+	 */
+	private boolean applyLod(ChunkMesher.Job job) {
+		if (job.failed || job.version != version || job.meshes[0].getFormat() != vertex_format) {
+			lod_stale = true; // meshed again by the next `getModel()`
+			return false;
+		}
+		ChunkMesh old = lod_mesh;
+		lod_mesh = job.meshes[0];
+		job.meshes[0] = old;
+		lod_meshed = job.lod;
+		lod_pending = true;
+		return true;
+	}
+	
+	private void uploadLod() {
+		lod_pending = false;
+		if (lod_model == null) {
+			if (lod_mesh.isEmpty())
+				return;
+			lod_model = Model.create(vertex_format);
+		}
+		if (vertex_format == VertexFormat.PACKED)
+			lod_model.upload(new IntList[] { lod_mesh.getPacked() }, new IntList[] { lod_mesh.getIndices() });
+		else
+			lod_model.upload(new FloatList[] { lod_mesh.getVertices() }, new IntList[] { lod_mesh.getIndices() });
+		lod_model.setRanges(0, lod_mesh.getFaceEnds());
+	}
+	
+	private boolean updatePart(int p) {
+		ChunkMesh part = parts[p];
+		boolean updated = vertex_format == VertexFormat.PACKED ? model.update(p, part.getPacked(), part.getIndices())
+				: model.update(p, part.getVertices(), part.getIndices());
+		if (updated)
+			model.setRanges(p, part.getFaceEnds());
+		return updated;
+	}
+	
+	private void uploadParts() {
+		if (vertex_format == VertexFormat.PACKED) {
+			for (int p = 0; p < parts.length; p++) {
+				upload_vertices[p] = parts[p].getPacked();
+				upload_indices[p] = parts[p].getIndices();
+			}
+			model.upload(upload_vertices, upload_indices);
+		} else {
+			for (int p = 0; p < parts.length; p++) {
+				upload_floats[p] = parts[p].getVertices();
+				upload_indices[p] = parts[p].getIndices();
+			}
+			model.upload(upload_floats, upload_indices);
+		}
+		for (int p = 0; p < parts.length; p++)
+			model.setRanges(p, parts[p].getFaceEnds());
+	}
+	
+	/**
+	 * links the chunk to the chunk next to one of its faces, whose border layer decides
+	 * which faces on that side are visible and how the faces along it are shaded. Called
+	 * by the world whenever its grid moves; the border, and with ambient occlusion the
+	 * sections along it, are remeshed on the next `getModel()` if the neighbour changed.
+	 * 
+	 * @param face the `FACE_*` bit of the side the neighbour is on.
+	 * 
+	 * @param neighbour the adjacent chunk, or `null` if it is not loaded, in which case
+	 * the faces on that side stay hidden.
+	 */
+	public void setNeighbour(int face, Chunk neighbour) {
+		neighbours[Integer.numberOfTrailingZeros(face)] = neighbour;
+	}
+	
+	/**
+	 * finds the border parts of the mesh that are out of date, either because the chunk
+	 * was remeshed or because the neighbour on that side was replaced, had its facing
+	 * layer edited or changed between full resolution and a coarser level since the part
+	 * was built.
+	 * 
+	 * @returns the `FACE_*` bits of the stale border parts.
+	 */
+	private int staleBorders() {
+		int stale = dirty_borders;
+		for (int f = 0; f < 6; f++) {
+			Chunk nb = neighbours[f];
+			if (nb != meshed_with[f] || nb != null && (nb.border_versions[f ^ 1] != meshed_versions[f]
+					|| (nb.lod > 0 ? 1 : 0) != (meshed_open >>> f & 1)))
+				stale |= 1 << f;
+		}
+		return stale;
+	}
+	
+	/**
+	 * finds the sections whose ambient occlusion is out of date because a neighbour was
+	 * replaced or had its facing layer edited, and records the neighbours as they are
+	 * now, as the sections are about to be meshed against them. The faces along the
+	 * chunk's sides read the neighbours' border slices: every section touches the four
+	 * sides around it, only the bottom and top sections the neighbours below and above.
+	 * 
+	 * @returns the bits of the stale sections, always 0 without ambient occlusion or for
+	 * smooth meshes.
+	 */
+	private int staleSections() {
+		if (!ambient_occlusion || mesh_mode == MeshMode.SMOOTH)
+			return 0;
+		int stale = 0;
+		for (int f = 0; f < 6; f++) {
+			Chunk nb = neighbours[f];
+			int version = nb == null ? 0 : nb.border_versions[f ^ 1];
+			if (nb == sections_with[f] && version == sections_versions[f])
+				continue;
+			sections_with[f] = nb;
+			sections_versions[f] = version;
+			stale |= f == 2 ? 1 : f == 3 ? 1 << (SECTIONS - 1) : ALL_SECTIONS;
+		}
+		// uniform chunks have no faces inside to shade
+		return isUniform() ? 0 : stale;
+	}
+	
+	/**
+	 * meshes the faces on one side of the chunk that look into the neighbour, which are
+	 * the ones `genRows()` and `genGreedy()` leave out. A face is visible where the
+	 * chunk's outer layer on that side is opaque and the neighbour's facing layer is not,
+	 * so only the two border slices are compared, a word of up to 64 voxels at a time.
+	 * The non-opaque blocks other than air in the layer get their faces the same way:
+	 * the neighbour's block ids are not read, so unlike inside a chunk a body of water
+	 * shows its faces where it crosses from one chunk into the next.
+	 * A neighbour drawn at a coarser level of detail shows its downsampled surface rather
+	 * than its voxels, so every opaque voxel of the layer gets its face towards it, which
+	 * closes the chunk's surface on that side whatever the neighbour's cells cover.
+	 * 
+	 * @param f face index, the position of the side's `FACE_*` bit.
+	 */
+	private void meshBorder(int f) {
+		ChunkMesh mesh = border_meshes[f];
+		mesh.clear();
+		Chunk nb = neighbours[f];
+		boolean open = nb != null && nb.lod > 0;
+		meshed_with[f] = nb;
+		meshed_versions[f] = nb == null ? 0 : nb.border_versions[f ^ 1];
+		meshed_open = open ? meshed_open | 1 << f : meshed_open & ~(1 << f);
+		if (nb == null || mesh_mode == MeshMode.SMOOTH) // smooth sections mesh their sides themselves
+			return;
+		
+		final int face = 1 << f;
+		final int layer = (face & (FACE_FT | FACE_BT | FACE_LT)) != 0 ? 0 : CHUNK_SIZE - 1;
+		final long[] own = border[f], own_clear = clear_border == null ? null : clear_border[f], other = open ? null : nb.border[f ^ 1];
+		final int[] grid = mesh_mode == MeshMode.GREEDY ? new int[CHUNK_SIZE_SQUARED] : null;
+		final long[] rows = grid == null ? null : new long[CHUNK_SIZE << ROW_SHIFT];
+		final VoxelData blocks = grid == null && vertex_format == VertexFormat.FLOAT ? null : data();
+		// the voxels in front of these faces are all in the neighbour's slice, the chunk's
+		// own occupancy bits are not read
+		final long[][] sides = sides();
+		int max_index = 0;
+		boolean any = false;
+		for (int r = 0; r < own.length; r++) {
+			long mask = own_clear == null ? own[r] : own[r] | own_clear[r];
+			if (other != null)
+				mask &= ~other[r];
+			while (mask != 0) {
+				// the slices hold bit a of row b, being x and y for z faces, x and z for y
+				// faces, y and z for x faces
+				int a = (r & (ROW_WORDS - 1)) << 6 | Long.numberOfTrailingZeros(mask);
+				int b = r >>> ROW_SHIFT;
+				int x, y, z;
+				if (face <= FACE_BK) {
+					x = a; y = b; z = layer;
+				} else if (face <= FACE_TP) {
+					x = a; y = layer; z = b;
+				} else {
+					x = layer; y = a; z = b;
+				}
+				if (grid == null) {
+					int id = blocks == null ? Block.SOLID : blocks.get(index(x, y, z));
+					max_index = gen(mesh, id, x, y, z, face, null, sides, max_index);
+				} else {
+					// same in-plane axes as `genGreedy()`
+					int u = face <= FACE_TP ? x : z, v = face <= FACE_BK || face > FACE_TP ? y : z;
+					grid[u + (v << CHUNK_SHIFT)] = cell(blocks.get(index(x, y, z)), face, x, y, z, null, sides);
+					rows[v << ROW_SHIFT | u >>> 6] |= 1L << u;
+					any = true;
+				}
+				mask &= mask - 1;
+			}
+		}
+		if (any)
+			mergeLayer(mesh, rows, new long[rows.length], grid, face, layer, 0, CHUNK_SIZE, 1, 0);
+		if (welding)
+			mesh.weld();
+	}
+	
+	public Model genModel() {
+		
+		toGenModel(true);
+		
+		return getModel();
+	}
+
+	/**
+	 * emits a `w` by `h` rectangle of one face direction, as `gen()` would emit a single
+	 * face but with the texture coordinates running from 0 to `w` and `h`, so the texture
+	 * repeats once per block with the same orientation as on the single faces. The
+	 * faces of a rectangle all have the same corner levels, which go to its corners.
+	 * 
+	 * @param id id of the blocks in the rectangle.
+	 * 
+	 * @param ao corner levels of every face in the rectangle, as returned by `faceAo()`.
+	 * 
+	 * @param face the `FACE_*` bit of the rectangle's direction.
+	 * 
+	 * @param layer local coordinate of the blocks along the face's normal.
+	 * 
+	 * @param u0 first block of the rectangle along its u axis: x for z and y faces, z for
+	 * x faces.
+	 * 
+	 * @param v0 first block of the rectangle along its v axis: y for z and x faces, z for
+	 * y faces.
+	 * 
+	 * @param scale edge length of the blocks in voxels, 1 but for the cells of `genLod()`,
+	 * whose quads are scaled up while the texture still repeats once per voxel.
+	 * 
+	 * @returns the index of the next vertex after the rectangle.
+	 */
+	private static int quad(ChunkMesh mesh, int id, int ao, int face, int layer, int u0, int v0, int w, int h, int scale, int max_index) {
+		float l = layer * scale, u = u0 * scale, v = v0 * scale, u1 = (u0 + w) * scale, v1 = (v0 + h) * scale, d = scale;
+		w *= scale;
+		h *= scale;
+		mesh.face(face, id);
+		switch (face) {
+		case FACE_FT:
+			mesh.add(u,  v,  l,   0, 0, ao & 3);
+			mesh.add(u1, v,  l,   w, 0, ao >>> 2 & 3);
+			mesh.add(u1, v1, l,   w, h, ao >>> 4 & 3);
+			mesh.add(u,  v1, l,   0, h, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
+			break;
+		case FACE_BK:
+			mesh.add(u,  v,  l+d, w, 0, ao & 3);
+			mesh.add(u1, v,  l+d, 0, 0, ao >>> 2 & 3);
+			mesh.add(u1, v1, l+d, 0, h, ao >>> 4 & 3);
+			mesh.add(u,  v1, l+d, w, h, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
+			break;
+		case FACE_BT:
+			mesh.add(u,  l,   v,  0, 0, ao & 3);
+			mesh.add(u1, l,   v,  w, 0, ao >>> 2 & 3);
+			mesh.add(u1, l,   v1, w, h, ao >>> 4 & 3);
+			mesh.add(u,  l,   v1, 0, h, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
+			break;
+		case FACE_TP:
+			mesh.add(u,  l+d, v,  0, 0, ao & 3);
+			mesh.add(u1, l+d, v,  w, 0, ao >>> 2 & 3);
+			mesh.add(u1, l+d, v1, w, h, ao >>> 4 & 3);
+			mesh.add(u,  l+d, v1, 0, h, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
+			break;
+		case FACE_LT:
+			mesh.add(l,   v,  u,  w, 0, ao & 3);
+			mesh.add(l,   v1, u,  w, h, ao >>> 2 & 3);
+			mesh.add(l,   v1, u1, 0, h, ao >>> 4 & 3);
+			mesh.add(l,   v,  u1, 0, 0, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
+			break;
+		default: // FACE_RT
+			mesh.add(l+d, v,  u,  0, 0, ao & 3);
+			mesh.add(l+d, v1, u,  0, h, ao >>> 2 & 3);
+			mesh.add(l+d, v1, u1, w, h, ao >>> 4 & 3);
+			mesh.add(l+d, v,  u1, w, 0, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
+			break;
+		}
+		return max_index + 4;
+	}
+	
+	private static final int[] QUAD_CCW = { 0, 1, 2, 0, 2, 3 }, QUAD_CW = { 0, 3, 2, 0, 2, 1 };
+	// the same triangles split along the other diagonal, from corner 1 to corner 3
+	private static final int[] QUAD_CCW_FLIPPED = { 1, 2, 3, 1, 3, 0 }, QUAD_CW_FLIPPED = { 1, 0, 3, 1, 3, 2 };
+	private static final int NO_OCCLUSION = 0xff; // `PackedVertex.AO_NONE` at all four corners
+	
+	/**
+	 * works out the ambient occlusion of the four corners of a face from the voxels in
+	 * front of it. Each corner touches three of them, two along the face's edges and one
+	 * diagonally, and loses a level for each that is opaque, or all three levels when
+	 * both edge ones are, as light cannot reach it through the diagonal then. The eight
+	 * voxels around the face are read once, so every face costs the same. Voxels across
+	 * one side of the chunk are read from that neighbour's border slice; voxels beyond an
+	 * edge or a corner of the chunk count as air.
+	 * 
+	 * @param solid the chunk's occupancy bits.
+	 * 
+	 * @param sides border slices of the neighbours facing the chunk by face index, `null`
+	 * where there is no neighbour.
+	 * 
+	 * @param face the `FACE_*` bit of the face.
+	 * 
+	 * @returns the levels of the corners in the order `gen()` and `quad()` add them, two
+	 * bits per corner from the lowest, each from 0 for the darkest to
+	 * `PackedVertex.AO_NONE`.
+	 */
+	private static int faceAo(long[] solid, long[][] sides, int face, int x, int y, int z) {
+		// step into the layer in front of the face, then along its in-plane axes u and v,
+		// the same as in `genGreedy()`
+		int ux = 0, uz = 0, vy = 0, vz = 0;
+		switch (face) {
+		case FACE_FT: z--; ux = 1; vy = 1; break;
+		case FACE_BK: z++; ux = 1; vy = 1; break;
+		case FACE_BT: y--; ux = 1; vz = 1; break;
+		case FACE_TP: y++; ux = 1; vz = 1; break;
+		case FACE_LT: x--; uz = 1; vy = 1; break;
+		default:      x++; uz = 1; vy = 1; break;
+		}
+		int l, r, d, t, ld, rd, lt, rt;
+		final int last = CHUNK_SIZE - 1;
+		if (ux != 0 && x > 0 && x < last && (x - 1 ^ x + 1) >>> 6 == 0 && y - vy >= 0 && y + vy <= last
+				&& z - vz >= 0 && z + vz <= last) {
+			// u runs along x, so each row in front of the face holds three of the voxels side
+			// by side, unless they straddle the two words of a 128 voxel row
+			int down = (int) (solid[word(x, y - vy, z - vz)] >>> x - 1) & 7;
+			int middle = (int) (solid[word(x, y, z)] >>> x - 1) & 7;
+			int up = (int) (solid[word(x, y + vy, z + vz)] >>> x - 1) & 7;
+			l = middle & 1; r = middle >>> 2; d = down >>> 1 & 1; t = up >>> 1 & 1;
+			ld = down & 1; rd = down >>> 2; lt = up & 1; rt = up >>> 2;
+		} else if (ux == 0 && x >= 0 && x <= last && y > 0 && y < last && z > 0 && z < last) {
+			// u runs along z and v along y, one row apart each way
+			final int plane = CHUNK_SIZE << ROW_SHIFT;
+			int m = word(x, y, z);
+			l = (int) (solid[m - plane] >>> x) & 1; r = (int) (solid[m + plane] >>> x) & 1;
+			d = (int) (solid[m - ROW_WORDS] >>> x) & 1; t = (int) (solid[m + ROW_WORDS] >>> x) & 1;
+			ld = (int) (solid[m - plane - ROW_WORDS] >>> x) & 1; rd = (int) (solid[m + plane - ROW_WORDS] >>> x) & 1;
+			lt = (int) (solid[m - plane + ROW_WORDS] >>> x) & 1; rt = (int) (solid[m + plane + ROW_WORDS] >>> x) & 1;
+		} else {
+			l = occludes(solid, sides, x - ux, y, z - uz); r = occludes(solid, sides, x + ux, y, z + uz);
+			d = occludes(solid, sides, x, y - vy, z - vz); t = occludes(solid, sides, x, y + vy, z + vz);
+			ld = occludes(solid, sides, x - ux, y - vy, z - uz - vz); rd = occludes(solid, sides, x + ux, y - vy, z + uz - vz);
+			lt = occludes(solid, sides, x - ux, y + vy, z - uz + vz); rt = occludes(solid, sides, x + ux, y + vy, z + uz + vz);
+		}
+		int c00 = corner(l, d, ld), c10 = corner(r, d, rd), c11 = corner(r, t, rt), c01 = corner(l, t, lt);
+		// x faces add their corners going up v first, the others going along u first
+		if (face >= FACE_LT)
+			return c00 | c01 << 2 | c11 << 4 | c10 << 6;
+		return c00 | c10 << 2 | c11 << 4 | c01 << 6;
+	}
+	
+	private static int corner(int side1, int side2, int diagonal) {
+		return (side1 & side2) != 0 ? 0 : PackedVertex.AO_NONE - side1 - side2 - diagonal;
+	}
+	
+	/**
+	 * returns 1 if the voxel at a local position is opaque, reading the neighbour's
+	 * border slice for positions one voxel outside one side of the chunk, and 0 for the
+	 * voxels beyond its edges and corners.
+	 */
+	private static int occludes(long[] solid, long[][] sides, int x, int y, int z) {
+		final int outside = ~(CHUNK_SIZE - 1);
+		long[] slice;
+		int row, bit;
+		if (((x | y | z) & outside) == 0) {
+			return (int) (solid[word(x, y, z)] >>> x) & 1;
+		} else if ((x & outside) != 0) {
+			if (((y | z) & outside) != 0)
+				return 0;
+			slice = sides[x < 0 ? 4 : 5];
+			row = z;
+			bit = y;
+		} else if ((y & outside) != 0) {
+			if ((z & outside) != 0)
+				return 0;
+			slice = sides[y < 0 ? 2 : 3];
+			row = z;
+			bit = x;
+		} else {
+			slice = sides[z < 0 ? 0 : 1];
+			row = y;
+			bit = x;
+		}
+		return slice == null ? 0 : (int) (slice[row << ROW_SHIFT | bit >>> 6] >>> bit) & 1;
+	}
+	
+	/**
+	 * picks the diagonal a face's quad is split along: the one between its two darker
+	 * corners. The shading is interpolated across each triangle, so with a fixed diagonal
+	 * a single corner darker than the others would shade the face differently depending
+	 * on which corner it is, and the same crease would look different on every side.
+	 * 
+	 * @param order corner order of the quad's triangles, `QUAD_CCW` or `QUAD_CW`.
+	 * 
+	 * @param ao the corner levels from `faceAo()`.
+	 * 
+	 * @returns `order` or the same triangles split along the other diagonal.
+	 */
+	private static int[] split(int[] order, int ao) {
+		if ((ao & 3) + (ao >>> 4 & 3) <= (ao >>> 2 & 3) + (ao >>> 6))
+			return order;
+		return order == QUAD_CCW ? QUAD_CCW_FLIPPED : QUAD_CW_FLIPPED;
+	}
+	
+	/**
+	 * emits the given faces of one block, each as four corners and the two triangles
+	 * `split()` picks for its corner levels.
+	 * 
+	 * @param mesh mesh part the faces are added to.
+	 * 
+	 * @param id id of the block, which selects the texture layer of packed vertices.
+	 * 
+	 * @param bx local x coordinate of the block.
+	 * 
+	 * @param by local y coordinate of the block.
+	 * 
+	 * @param bz local z coordinate of the block.
 	 * 
-	 * @param vertices 2D coordinates of the vertices that make up the 3D shape of the
-	 * block, and is used to add those vertices to a list for further processing.
+	 * @param faces mask of the `FACE_*` bits to emit.
 	 * 
-	 * @param indices 3D indices of vertices in the mesh, and is used to update the array
-	 * `vertices` by adding or removing indices based on the type of block being processed.
+	 * @param solid the chunk's occupancy bits, for the ambient occlusion.
 	 * 
-	 * @param block 3D block being generated and determines which type of geometry is
-	 * added to the vertices and indices lists.
+	 * @param sides the neighbours' border slices for `faceAo()`, or `null` to leave the
+	 * faces unoccluded.
 	 * 
-	 * @param max_index 0-based index of the current block being processed, and is used
-	 * to update the indices array with the new vertex positions and to increment the
-	 * index for each new block.
+	 * @param max_index index of the first corner added, the number of vertices in the
+	 * mesh so far.
 	 * 
-	 * @returns an integer representing the maximum index value added to the `indices`
-	 * list for each block type.
+	 * @returns the index of the next vertex after the block's faces.
 	 */
-	private static int gen(List<Float> vertices, List<Integer> indices, Block block, int max_index) {
+	private static int gen(ChunkMesh mesh, int id, int bx, int by, int bz, int faces, long[] solid, long[][] sides, int max_index) {
 		
-		float x = block.x;
-		float y = block.y;
-		float z = block.z;
+		float x = bx;
+		float y = by;
+		float z = bz;
 		
-		if (block.ft) {
-			float[] tmp_v = { //
-				x,   y,   z,   0, 0, //
-				x+1, y,   z,   1, 0, //
-				x+1, y+1, z,   1, 1, //
-				x,   y+1, z,   0, 1, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 1, 2, 0, 2, 3}) indices.add(max_index + i);
+		if ((faces & FACE_FT) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_FT, bx, by, bz);
+			mesh.face(FACE_FT, id);
+			mesh.add(x,   y,   z,   0, 0, ao & 3);
+			mesh.add(x+1, y,   z,   1, 0, ao >>> 2 & 3);
+			mesh.add(x+1, y+1, z,   1, 1, ao >>> 4 & 3);
+			mesh.add(x,   y+1, z,   0, 1, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
 			max_index += 4;
 		}
-		if (block.bk) {
-			float[] tmp_v = { //
-				x,   y,   z+1,   1, 0, //
-				x+1, y,   z+1,   0, 0, //
-				x+1, y+1, z+1,   0, 1, //
-				x,   y+1, z+1,   1, 1, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 3, 2, 0, 2, 1}) indices.add(max_index + i);
+		if ((faces & FACE_BK) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_BK, bx, by, bz);
+			mesh.face(FACE_BK, id);
+			mesh.add(x,   y,   z+1,   1, 0, ao & 3);
+			mesh.add(x+1, y,   z+1,   0, 0, ao >>> 2 & 3);
+			mesh.add(x+1, y+1, z+1,   0, 1, ao >>> 4 & 3);
+			mesh.add(x,   y+1, z+1,   1, 1, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
 			max_index += 4;
 		}
-		if (block.bt) {
-			float[] tmp_v = { //
-				x,   y,   z,     0, 0, //
-				x+1, y,   z,   	 1, 0, //
-				x+1, y,   z+1,   1, 1, //
-				x,   y,   z+1,   0, 1, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 3, 2, 0, 2, 1}) indices.add(max_index + i);
+		if ((faces & FACE_BT) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_BT, bx, by, bz);
+			mesh.face(FACE_BT, id);
+			mesh.add(x,   y,   z,     0, 0, ao & 3);
+			mesh.add(x+1, y,   z,     1, 0, ao >>> 2 & 3);
+			mesh.add(x+1, y,   z+1,   1, 1, ao >>> 4 & 3);
+			mesh.add(x,   y,   z+1,   0, 1, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
 			max_index += 4;
 		}
-		if (block.tp) {
-			float[] tmp_v = { //
-				x,   y+1, z,     0, 0, //
-				x+1, y+1, z,     1, 0, //
-				x+1, y+1, z+1,   1, 1, //
-				x,   y+1, z+1,   0, 1, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 1, 2, 0, 2, 3}) indices.add(max_index + i);
+		if ((faces & FACE_TP) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_TP, bx, by, bz);
+			mesh.face(FACE_TP, id);
+			mesh.add(x,   y+1, z,     0, 0, ao & 3);
+			mesh.add(x+1, y+1, z,     1, 0, ao >>> 2 & 3);
+			mesh.add(x+1, y+1, z+1,   1, 1, ao >>> 4 & 3);
+			mesh.add(x,   y+1, z+1,   0, 1, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
 			max_index += 4;
 		}
-		if (block.lt) {
-			float[] tmp_v = { //
-				x,   y,   z,     1, 0, //
-				x,   y+1, z,     1, 1, //
-				x,   y+1, z+1,   0, 1, //
-				x,   y,   z+1,   0, 0, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 1, 2, 0, 2, 3}) indices.add(max_index + i);
+		if ((faces & FACE_LT) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_LT, bx, by, bz);
+			mesh.face(FACE_LT, id);
+			mesh.add(x,   y,   z,     1, 0, ao & 3);
+			mesh.add(x,   y+1, z,     1, 1, ao >>> 2 & 3);
+			mesh.add(x,   y+1, z+1,   0, 1, ao >>> 4 & 3);
+			mesh.add(x,   y,   z+1,   0, 0, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CCW, ao));
 			max_index += 4;
 		}
-		if (block.rt) {
-			float[] tmp_v = { //
-				x+1, y,   z,     0, 0, //
-				x+1, y+1, z,     0, 1, //
-				x+1, y+1, z+1,   1, 1, //
-				x+1, y,   z+1,   1, 0, //
-			}; //
-			for (float f : tmp_v) vertices.add(f);
-			for (int i : new int[] {0, 3, 2, 0, 2, 1}) indices.add(max_index + i);
+		if ((faces & FACE_RT) != 0) {
+			int ao = sides == null ? NO_OCCLUSION : faceAo(solid, sides, FACE_RT, bx, by, bz);
+			mesh.face(FACE_RT, id);
+			mesh.add(x+1, y,   z,     0, 0, ao & 3);
+			mesh.add(x+1, y+1, z,     0, 1, ao >>> 2 & 3);
+			mesh.add(x+1, y+1, z+1,   1, 1, ao >>> 4 & 3);
+			mesh.add(x+1, y,   z+1,   1, 0, ao >>> 6);
+			mesh.addIndices(max_index, split(QUAD_CW, ao));
 			max_index += 4;
 		}
 		return max_index;
@@ -0,0 +1,170 @@
+package com.ch.voxel;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * deflates the voxel data of chunks that have not been read or written for a while.
+ * Once a chunk is generated and meshed nothing looks at its voxels until the next
+ * edit, so they can be held as a `VoxelCodec` encoding instead, which the chunk
+ * inflates again on its next access.
+ *
+ * The encoding is done on a background thread. Chunks are only ever modified on the
+ * main thread though, so the finished encodings are queued and swapped in by
+ * `apply()`, which the world calls every frame; an encoding is dropped if its chunk
+ * was modified in the meantime.
+ */
+public class ChunkCompactor {
+
+	/**
+	 * an encoding waiting for `apply()`.
+	 */
+	private static class Result {
+
+		final Chunk chunk;
+		final byte[] data;
+		final int version;
+
+		Result(Chunk chunk, byte[] data, int version) {
+			this.chunk = chunk;
+			this.data = data;
+			this.version = version;
+		}
+
+	}
+
+	private final long idle_nanos;
+	private final Set<Chunk> chunks = ConcurrentHashMap.newKeySet();
+	private final Set<Chunk> pending = ConcurrentHashMap.newKeySet();
+	private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>();
+	private final Deflater deflater = new Deflater(); // only used by the compactor thread
+	private final ScheduledExecutorService executor;
+	private long compactions;
+
+	/**
+	 * starts the compactor thread.
+	 *
+	 * @param idle_millis time in milliseconds a chunk's voxels have to go untouched
+	 * before they are deflated.
+	 */
+	public ChunkCompactor(long idle_millis) {
+		this.idle_nanos = TimeUnit.MILLISECONDS.toNanos(idle_millis);
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "chunk-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.min(Math.max(idle_millis / 4, 250), 5000);
+		executor.scheduleWithFixedDelay(this::pass, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * starts watching a resident chunk.
+	 */
+	public void track(Chunk chunk) {
+		chunks.add(chunk);
+	}
+
+	/**
+	 * stops watching a chunk, called before it is released.
+	 */
+	public void untrack(Chunk chunk) {
+		chunks.remove(chunk);
+	}
+
+	/**
+	 * swaps the finished encodings into their chunks. Must be called on the thread that
+	 * modifies the chunks.
+	 *
+	 * @returns the number of chunks deflated.
+	 */
+	public int apply() {
+		int applied = 0;
+		long now = System.nanoTime();
+		Result r;
+		while ((r = results.poll()) != null) {
+			pending.remove(r.chunk);
+			if (now - r.chunk.getLastAccess() >= idle_nanos && r.chunk.deflate(r.data, r.version))
+				applied++;
+		}
+		compactions += applied;
+		return applied;
+	}
+
+	/**
+	 * stops the compactor thread. Chunks stay as they are.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		results.clear();
+		pending.clear();
+	}
+
+	/**
+	 * returns the number of chunks deflated by `apply()` so far.
+	 *
+	 * @returns the total compaction count.
+	 */
+	public long getCompactionCount() {
+		return compactions;
+	}
+
+	/**
+	 * returns the number of watched chunks currently deflated.
+	 *
+	 * @returns the deflated chunk count.
+	 */
+	public int getDeflatedCount() {
+		int count = 0;
+		for (Chunk ch : chunks)
+			if (ch.isDeflated())
+				count++;
+		return count;
+	}
+
+	/**
+	 * sums the memory freed by deflating the watched chunks.
+	 *
+	 * @returns the bytes currently saved.
+	 */
+	public long getBytesSaved() {
+		long saved = 0;
+		for (Chunk ch : chunks)
+			saved += ch.getBytesSaved();
+		return saved;
+	}
+
+	/**
+	 * encodes every idle chunk that is not deflated or waiting to be applied yet. The
+	 * chunk's voxel data is read without a lock; a chunk modified meanwhile either makes
+	 * the encoding fail here or gets its encoding dropped by `apply()`.
+	 */
+	private void pass() {
+		for (Chunk ch : chunks) {
+			if (ch.isDeflated() || ch.isDeflateTried() || pending.contains(ch))
+				continue;
+			if (System.nanoTime() - ch.getLastAccess() < idle_nanos)
+				continue;
+			int version = ch.getVersion();
+			VoxelData data = ch.peekData();
+			if (data == null || data.isUniform() || ch.isReleased())
+				continue;
+			byte[] encoded;
+			try {
+				encoded = VoxelCodec.deflate(data, Chunk.CHUNK_SIZE, deflater);
+			} catch (RuntimeException e) {
+				continue; // changed under us, retried on the next pass
+			}
+			if (ch.getVersion() != version)
+				continue;
+			pending.add(ch);
+			results.add(new Result(ch, encoded, version));
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.ch.voxel;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * generates the terrain of chunks on a `ForkJoinPool`, one task per chunk, so that
+ * loading a grid of them takes as many cores as there are instead of stalling the
+ * render thread for all of them in turn.
+ *
+ * A chunk's voxels only depend on its coordinates, through `SimplexNoise`, which keeps
+ * no state, so it comes out the same whichever thread generated it and in whatever
+ * order. Generated chunks are queued, not linked to anything yet, and placed into the
+ * world by `World.applyChunks()` on the main thread, which links and meshes them there.
+ */
+public class ChunkGenerator {
+
+	private final ForkJoinPool executor;
+	private final ConcurrentLinkedQueue<Chunk> results = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger in_flight = new AtomicInteger();
+	private long generated;
+
+	/**
+	 * starts the generator threads.
+	 *
+	 * @param threads number of generator threads, usually one per core.
+	 */
+	public ChunkGenerator(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ForkJoinPool(threads, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("chunk-generator-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, null, true); // async mode, the chunks are independent and taken in the order submitted
+	}
+
+	/**
+	 * queues a chunk for generation. Called by the world on the main thread.
+	 *
+	 * @param pool pool to obtain the chunk from, which may hand out a recycled one.
+	 *
+	 * @param cx chunk coordinates, in chunks.
+	 */
+	void submit(ChunkPool pool, int cx, int cy, int cz) {
+		in_flight.incrementAndGet();
+		executor.execute(() -> {
+			Chunk ch = pool.obtain(cx, cy, cz);
+			ch.updateBlocks();
+			results.add(ch);
+		});
+	}
+
+	/**
+	 * takes the next generated chunk off the queue. Must be called on the main thread.
+	 *
+	 * @returns the chunk, or `null` if none is waiting.
+	 */
+	Chunk poll() {
+		Chunk ch = results.poll();
+		if (ch != null) {
+			in_flight.decrementAndGet();
+			generated++;
+		}
+		return ch;
+	}
+
+	/**
+	 * generates a grid of chunks around the origin and waits for all of them, without a
+	 * world to place them in, to time the generation alone. Nothing else may be
+	 * submitted meanwhile.
+	 *
+	 * @param width chunks along x and z.
+	 *
+	 * @param height chunks along y.
+	 *
+	 * @param format layout of the chunks' voxel data.
+	 *
+	 * @returns the chunks generated per second.
+	 */
+	public double benchmark(int width, int height, VoxelFormat format) {
+		ChunkPool pool = new ChunkPool(0, format, null);
+		long start = System.nanoTime();
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				for (int k = 0; k < width; k++)
+					submit(pool, i - width / 2, j - height / 2, k - width / 2);
+		int count = width * height * width;
+		for (int done = 0; done < count;) {
+			Chunk ch = poll();
+			if (ch == null) {
+				Thread.yield();
+				continue;
+			}
+			ch.release();
+			done++;
+		}
+		return count * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * stops the generator threads. Chunks in flight are abandoned.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		results.clear();
+	}
+
+	/**
+	 * returns the number of chunks submitted and not taken off the queue yet, either
+	 * being generated or waiting for `World.applyChunks()`.
+	 *
+	 * @returns the chunks in flight.
+	 */
+	public int getPendingCount() {
+		return in_flight.get();
+	}
+
+	/**
+	 * returns the number of chunks taken off the queue so far.
+	 */
+	public long getGeneratedCount() {
+		return generated;
+	}
+
+	/**
+	 * returns the number of generator threads.
+	 */
+	public int getParallelism() {
+		return executor.getParallelism();
+	}
+
+}
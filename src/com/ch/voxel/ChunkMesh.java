@@ -0,0 +1,340 @@
+package com.ch.voxel;
+
+import java.util.Arrays;
+
+import com.ch.FloatList;
+import com.ch.IntList;
+import com.ch.Model;
+import com.ch.VertexFormat;
+
+/**
+ * collects one part of a chunk's mesh, a section of the interior or one of its
+ * borders, in the chunk's `VertexFormat`. The meshers announce each face with `face()` before adding
+ * its four corners, which is where a packed vertex gets its face index and texture
+ * layer from; float vertices carry texture coordinates instead. Both carry the
+ * ambient occlusion level of each corner. Smooth surfaces add float vertices of their
+ * own, shared between their quads; block faces get theirs shared by `weld()` once the
+ * part is complete.
+ */
+final class ChunkMesh {
+
+	private final VertexFormat format;
+	private final FloatList vertices; // FLOAT only
+	private final IntList packed;     // PACKED only
+	private final IntList indices;
+	// the scratch arrays of `optimize()` are several times the size of the indices, so
+	// they are kept per thread rather than per mesh
+	private static final ThreadLocal<MeshOptimizer> optimizers = ThreadLocal.withInitial(MeshOptimizer::new);
+
+	private int face_bits; // the face and layer bits of the packed vertices being added
+	private int[] slots, remap; // hash table and new vertex indices of `weld()`, kept for the next call
+	private int welded; // vertices removed by `weld()` since the last `clear()`
+	private int misses_meshed, misses; // cache misses before and after `optimize()`, 0 if not optimized
+	private final int[] face_ends = new int[6]; // end of the indices of each face direction, see `bucket()`
+	private boolean bucketed; // whether `face_ends` holds for the indices
+
+	ChunkMesh(VertexFormat format, int capacity) {
+		this.format = format;
+		this.vertices = format == VertexFormat.FLOAT ? new FloatList(capacity * Model.VERTEX_SIZE) : null;
+		this.packed = format == VertexFormat.PACKED ? new IntList(capacity) : null;
+		this.indices = new IntList(capacity * 3 / 2);
+	}
+
+	/**
+	 * starts a face of the given block.
+	 * 
+	 * @param face the `Chunk.FACE_*` bit of the face.
+	 * 
+	 * @param id block id, whose texture for that face becomes the layer.
+	 */
+	void face(int face, int id) {
+		if (packed == null)
+			return;
+		int layer = BlockRegistry.getTexture(id, face);
+		if (layer > PackedVertex.MAX_LAYER)
+			throw new IllegalStateException("texture " + layer + " of block " + BlockRegistry.getName(id) + " does not fit a packed vertex");
+		face_bits = PackedVertex.pack(0, 0, 0, Integer.numberOfTrailingZeros(face), 0, layer);
+	}
+
+	/**
+	 * adds a corner of the current face.
+	 * 
+	 * @param x corner position within the chunk.
+	 * 
+	 * @param u texture coordinates, only kept by float vertices.
+	 * 
+	 * @param ao ambient occlusion of the corner, from 0 to `PackedVertex.AO_NONE`.
+	 */
+	void add(float x, float y, float z, float u, float v, int ao) {
+		if (packed != null)
+			packed.add(face_bits | PackedVertex.pack((int) x, (int) y, (int) z, 0, ao, 0));
+		else
+			vertices.add(x, y, z, u, v, ao);
+	}
+
+	/**
+	 * adds a vertex of a smooth surface, which has no face to announce. Float vertices
+	 * only.
+	 * 
+	 * @param shade brightness of the vertex, in the range of the ambient occlusion levels.
+	 */
+	void addSmooth(float x, float y, float z, float u, float v, float shade) {
+		vertices.add(x, y, z, u, v, shade);
+	}
+	
+	/**
+	 * adds the two triangles of a quad from four vertices already added, going around it
+	 * counterclockwise as seen from the front.
+	 */
+	void addQuad(int v0, int v1, int v2, int v3) {
+		indices.add(v0);
+		indices.add(v1);
+		indices.add(v2);
+		indices.add(v0);
+		indices.add(v2);
+		indices.add(v3);
+	}
+	
+	/**
+	 * adds the two triangles of the current face.
+	 * 
+	 * @param first index of the face's first corner.
+	 * 
+	 * @param order corner order of the triangles.
+	 */
+	void addIndices(int first, int[] order) {
+		indices.addOffset(first, order);
+	}
+
+	/**
+	 * appends the faces of another part of the same format, offsetting its indices past
+	 * the vertices already held.
+	 */
+	void append(ChunkMesh part) {
+		bucketed = false;
+		if (packed != null) {
+			indices.addOffset(packed.size(), part.indices);
+			packed.addOffset(0, part.packed);
+		} else {
+			indices.addOffset(vertices.size() / Model.VERTEX_SIZE, part.indices);
+			vertices.addAll(part.vertices);
+		}
+	}
+
+	void clear() {
+		if (packed != null)
+			packed.clear();
+		else
+			vertices.clear();
+		indices.clear();
+		welded = 0;
+		misses_meshed = misses = 0;
+		bucketed = false;
+	}
+
+	/**
+	 * merges the vertices that are equal in every attribute, such as the corners that the
+	 * neighbouring faces of a flat surface share, and points the indices at the first of
+	 * them. The vertices are looked up in an open addressing table with linear probing,
+	 * at least twice as large as their count, and compacted in place in the order they
+	 * were added, so the order of the triangles is kept.
+	 * 
+	 * @returns the number of vertices removed.
+	 */
+	int weld() {
+		int count = getVertexCount();
+		if (count == 0)
+			return 0;
+		int capacity = Integer.highestOneBit(count) << 2, mask = capacity - 1;
+		if (slots == null || slots.length < capacity)
+			slots = new int[capacity];
+		final int[] slots = this.slots;
+		Arrays.fill(slots, 0, capacity, -1);
+		if (remap == null || remap.length < count)
+			remap = new int[Math.max(count, 1024)];
+		final int[] remap = this.remap;
+		int kept = 0;
+		if (packed != null) {
+			final int[] v = packed.array();
+			for (int i = 0; i < count; i++) {
+				int value = v[i], h = mix(value) & mask, k;
+				while ((k = slots[h]) >= 0 && v[k] != value)
+					h = h + 1 & mask;
+				if (k < 0) {
+					slots[h] = kept;
+					v[kept] = value;
+					k = kept++;
+				}
+				remap[i] = k;
+			}
+			packed.truncate(kept);
+		} else {
+			final float[] v = vertices.array();
+			final int n = Model.VERTEX_SIZE;
+			for (int i = 0, o = 0; i < count; i++, o += n) {
+				// the low bits of small whole numbers are all 0, so the high ones are folded in
+				int hash = 0;
+				for (int j = 0; j < n; j++) {
+					int bits = Float.floatToRawIntBits(v[o + j]);
+					hash = hash * 31 + (bits ^ bits >>> 16);
+				}
+				int h = mix(hash) & mask, k;
+				while ((k = slots[h]) >= 0 && !equal(v, k * n, o))
+					h = h + 1 & mask;
+				if (k < 0) {
+					slots[h] = kept;
+					System.arraycopy(v, o, v, kept * n, n);
+					k = kept++;
+				}
+				remap[i] = k;
+			}
+			vertices.truncate(kept * n);
+		}
+		final int[] ix = indices.array();
+		for (int i = 0, size = indices.size(); i < size; i++)
+			ix[i] = remap[ix[i]];
+		welded += count - kept;
+		return count - kept;
+	}
+
+	/**
+	 * spreads every bit of a hash over the low bits that pick its slot, as the final
+	 * mix of MurmurHash3 does.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ h >>> 16;
+	}
+
+	private static boolean equal(float[] v, int a, int b) {
+		for (int j = 0; j < Model.VERTEX_SIZE; j++)
+			if (Float.floatToRawIntBits(v[a + j]) != Float.floatToRawIntBits(v[b + j]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * reorders the triangles for the GPU's post-transform cache and front to back within
+	 * each face direction, see `MeshOptimizer`, and counts the cache misses before and
+	 * after. Meant to follow `weld()`, as only shared vertices can be hit in the cache.
+	 * 
+	 * @param deadline `System.nanoTime()` past which the rest of the triangles are only
+	 * sorted front to back.
+	 * 
+	 * @param planes `true` for block faces, `false` for smooth surfaces, which are only
+	 * ordered for the cache.
+	 * 
+	 * @returns `true` if the deadline was kept.
+	 */
+	boolean optimize(long deadline, boolean planes) {
+		if (indices.isEmpty())
+			return true;
+		MeshOptimizer optimizer = optimizers.get();
+		misses_meshed = optimizer.countMisses(this);
+		boolean complete = optimizer.optimize(this, deadline, planes);
+		bucketed &= planes; // the planes are sorted by direction first
+		misses = optimizer.countMisses(this);
+		return complete;
+	}
+
+	/**
+	 * sorts the triangles of block faces by the direction they face, so that the mesh
+	 * is six consecutive ranges of indices, one per `Chunk.FACE_*` bit in order, and a
+	 * camera behind all faces of a direction can skip their range. The triangles keep
+	 * their order within each direction, and `weld()` and `optimize()` keep the ranges.
+	 */
+	void bucket() {
+		optimizers.get().bucket(this, face_ends);
+		bucketed = true;
+	}
+
+	/**
+	 * returns the direction a triangle of block faces looks in.
+	 * 
+	 * @param triangle index of the triangle.
+	 * 
+	 * @returns the position of the face's `Chunk.FACE_*` bit.
+	 */
+	int faceOf(int triangle) {
+		final int[] ix = indices.array();
+		final int i = triangle * 3;
+		if (packed != null)
+			return PackedVertex.getFace(packed.get(ix[i]));
+		final float[] v = vertices.array();
+		final int n = Model.VERTEX_SIZE, a = ix[i] * n, b = ix[i + 1] * n, c = ix[i + 2] * n;
+		float ax = v[b] - v[a], ay = v[b + 1] - v[a + 1], az = v[b + 2] - v[a + 2];
+		float bx = v[c] - v[a], by = v[c + 1] - v[a + 1], bz = v[c + 2] - v[a + 2];
+		// the view of `Matrix4f.initPerspective()` is left handed, so the faces that are
+		// counterclockwise on screen have this normal pointing into them
+		float nx = ay * bz - az * by, ny = az * bx - ax * bz, nz = ax * by - ay * bx;
+		if (Math.abs(nz) >= Math.abs(ny) && Math.abs(nz) >= Math.abs(nx))
+			return nz < 0 ? 1 : 0; // FACE_BK, FACE_FT
+		if (Math.abs(ny) >= Math.abs(nx))
+			return ny < 0 ? 3 : 2; // FACE_TP, FACE_BT
+		return nx < 0 ? 5 : 4; // FACE_RT, FACE_LT
+	}
+
+	/**
+	 * returns where the indices of each face direction end, as left by `bucket()`.
+	 * 
+	 * @returns the end of each direction's range by face index, or `null` if the mesh
+	 * was not bucketed since it last changed.
+	 */
+	int[] getFaceEnds() {
+		return bucketed ? face_ends : null;
+	}
+
+	/**
+	 * returns the vertices the GPU transforms to draw the mesh, with a
+	 * `MeshOptimizer.CACHE_SIZE` entry post-transform cache. Divided by the triangles
+	 * that gives the average cache miss ratio, from 0.5 at best to 3.
+	 * 
+	 * @param optimized `true` for the order `optimize()` left, `false` for the order the
+	 * meshers produced.
+	 * 
+	 * @returns the cache misses, 0 if the mesh was not optimized since it was cleared.
+	 */
+	int getCacheMisses(boolean optimized) {
+		return optimized ? misses : misses_meshed;
+	}
+
+	int getTriangleCount() {
+		return indices.size() / 3;
+	}
+
+	/**
+	 * returns the number of vertices `weld()` removed from the mesh since it was last
+	 * cleared.
+	 */
+	int getWeldedCount() {
+		return welded;
+	}
+
+	int getVertexCount() {
+		return packed != null ? packed.size() : vertices.size() / Model.VERTEX_SIZE;
+	}
+	
+	boolean isEmpty() {
+		return indices.isEmpty();
+	}
+
+	VertexFormat getFormat() {
+		return format;
+	}
+
+	FloatList getVertices() {
+		return vertices;
+	}
+
+	IntList getPacked() {
+		return packed;
+	}
+
+	IntList getIndices() {
+		return indices;
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.ch.voxel;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ch.VertexFormat;
+
+/**
+ * meshes the sections of chunks on a pool of background threads, so that generating or
+ * editing chunks does not stall the frame it happens in.
+ *
+ * A job gets copies of the chunk's occupancy bits and of its neighbours' border slices,
+ * which the main thread goes on editing, and meshes the sections into buffers of its
+ * own. The chunk's voxel data and density field are read in place, without a lock: an
+ * edit may change them under the job, which then fails or is dropped by its version,
+ * but the chunk does not hand them to other terrain while the job is in flight. An
+ * evicted chunk leaves them to the job until it is back, see `Chunk.recycle()`.
+ *
+ * Chunks are only ever modified on the main thread, so finished jobs are queued and
+ * swapped into their chunks by `apply()`, which also uploads them and which the render
+ * loop calls every frame within a time budget. It hands the copies back for later
+ * jobs. A job is dropped if its chunk was modified in the meantime, and the chunk
+ * meshed again.
+ */
+public class ChunkMesher {
+
+	/**
+	 * the sections of one chunk being meshed, or its mesh at a level of detail, and then
+	 * waiting for `apply()`.
+	 */
+	static final class Job {
+
+		final Chunk chunk;
+		final int version;
+		final int lod; // level of detail meshed into `meshes[0]`, 0 for the sections
+		final int sections; // bits of the sections meshed
+		final long[] solid; // copy of the chunk's occupancy bits, see `copyOccupancy()`
+		final long[] clear; // the same for the non-opaque blocks other than air, null if there are none
+		final VoxelData blocks;
+		final float[] density; // the chunk's density field, for smooth meshes
+		final long[][] sides; // copies of the neighbours' border slices, for the ambient occlusion
+		final ChunkMesh[] meshes; // by section, null for the ones not meshed
+		boolean failed;
+
+		Job(Chunk chunk, int version, int lod, int sections, long[] solid, long[] clear, VoxelData blocks, float[] density, long[][] sides, ChunkMesh[] meshes) {
+			this.chunk = chunk;
+			this.version = version;
+			this.lod = lod;
+			this.sections = sections;
+			this.solid = solid;
+			this.clear = clear;
+			this.blocks = blocks;
+			this.density = density;
+			this.sides = sides;
+			this.meshes = meshes;
+		}
+
+	}
+
+	private final ExecutorService executor;
+	private final ArrayBlockingQueue<Job> results;
+	private final ConcurrentLinkedQueue<ChunkMesh> spare = new ConcurrentLinkedQueue<>(); // meshes swapped out of chunks
+	private final ArrayDeque<long[]> spare_occupancy = new ArrayDeque<>(), spare_slices = new ArrayDeque<>(); // copies of applied jobs, main thread only
+	private final AtomicInteger in_flight = new AtomicInteger();
+	private long applied, dropped;
+
+	/**
+	 * starts the mesher threads.
+	 *
+	 * @param threads number of meshing threads.
+	 *
+	 * @param capacity number of finished jobs that may wait for `apply()`; the threads
+	 * wait while the queue is full, so meshes never pile up faster than they are uploaded.
+	 */
+	public ChunkMesher(int threads, int capacity) {
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "chunk-mesher-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.results = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * queues the sections of a chunk for meshing. Called by the chunk on the main thread.
+	 */
+	void submit(Job job) {
+		in_flight.incrementAndGet();
+		executor.execute(() -> run(job));
+	}
+
+	/**
+	 * meshes a job on a mesher thread. The voxels are read without a lock; a chunk
+	 * modified meanwhile either makes the meshing fail here or gets the job dropped by
+	 * `apply()`.
+	 */
+	private void run(Job job) {
+		try {
+			job.chunk.meshSections(job);
+		} catch (RuntimeException e) {
+			job.failed = true; // changed under us, meshed again once applied
+		}
+		try {
+			results.put(job);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * swaps finished meshes into their chunks and uploads them, until the queue is empty
+	 * or the budget is spent. At least one job is applied per call, so the queue always
+	 * drains eventually. Must be called on the GL thread, which is also the thread that
+	 * modifies the chunks.
+	 *
+	 * @param budget_nanos time the uploads may take, in nanoseconds.
+	 *
+	 * @returns the number of chunks whose meshes were swapped in.
+	 */
+	public int apply(long budget_nanos) {
+		return apply(budget_nanos, true);
+	}
+
+	/**
+	 * swaps finished meshes into their chunks like `apply(long)`, uploading them only if
+	 * asked to. Otherwise they wait for the chunks' next `getModel()`, which lets the
+	 * headless benchmarks apply jobs without a GL context.
+	 */
+	int apply(long budget_nanos, boolean upload) {
+		long start = System.nanoTime();
+		int count = 0;
+		Job job;
+		while ((job = results.poll()) != null) {
+			in_flight.decrementAndGet();
+			if (job.chunk.applyMesh(job)) {
+				if (upload)
+					job.chunk.getModel();
+				count++;
+				applied++;
+			} else {
+				dropped++;
+			}
+			// the chunk hands back the meshes it swapped out, or the new ones if it dropped them
+			for (ChunkMesh mesh : job.meshes)
+				if (mesh != null)
+					spare.add(mesh);
+			if (job.solid != null)
+				spare_occupancy.push(job.solid);
+			if (job.clear != null)
+				spare_occupancy.push(job.clear);
+			if (job.sides != null)
+				for (long[] slice : job.sides)
+					if (slice != null)
+						spare_slices.push(slice);
+			if (System.nanoTime() - start >= budget_nanos)
+				break;
+		}
+		return count;
+	}
+
+	/**
+	 * returns a mesh to mesh a section into, a spare one if there is one of that format.
+	 */
+	ChunkMesh obtainMesh(VertexFormat format) {
+		ChunkMesh mesh = spare.poll();
+		if (mesh == null || mesh.getFormat() != format)
+			return new ChunkMesh(format, 256);
+		return mesh;
+	}
+
+	/**
+	 * copies occupancy bits for a job, into the copy of an applied job if there is one.
+	 * Called on the main thread.
+	 *
+	 * @returns the copy, or `null` if `bits` is `null`.
+	 */
+	long[] copyOccupancy(long[] bits) {
+		return copy(bits, spare_occupancy);
+	}
+
+	/**
+	 * copies the neighbours' border slices for a job, like `copyOccupancy()`.
+	 *
+	 * @param sides the slices by face index as `Chunk.sides()` collects them, `null`
+	 * where there is no neighbour.
+	 *
+	 * @returns the copies, or `null` if `sides` is `null`.
+	 */
+	long[][] copySides(long[][] sides) {
+		if (sides == null)
+			return null;
+		long[][] copies = new long[sides.length][];
+		for (int f = 0; f < sides.length; f++)
+			copies[f] = copy(sides[f], spare_slices);
+		return copies;
+	}
+
+	private static long[] copy(long[] bits, ArrayDeque<long[]> spares) {
+		if (bits == null)
+			return null;
+		long[] copy = spares.poll();
+		if (copy == null)
+			copy = new long[bits.length];
+		System.arraycopy(bits, 0, copy, 0, bits.length);
+		return copy;
+	}
+
+	/**
+	 * stops the mesher threads. Jobs in flight are abandoned, their chunks keep the
+	 * meshes they have.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		results.clear();
+		spare.clear();
+		spare_occupancy.clear();
+		spare_slices.clear();
+	}
+
+	/**
+	 * returns the number of jobs submitted and not applied yet, either being meshed or
+	 * waiting in the queue.
+	 *
+	 * @returns the jobs in flight.
+	 */
+	public int getPendingCount() {
+		return in_flight.get();
+	}
+
+	/**
+	 * returns the number of jobs applied so far.
+	 */
+	public long getAppliedCount() {
+		return applied;
+	}
+
+	/**
+	 * returns the number of jobs dropped so far because their chunk changed.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+}
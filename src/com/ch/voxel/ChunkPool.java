@@ -0,0 +1,109 @@
+package com.ch.voxel;
+
+import java.util.ArrayDeque;
+
+/**
+ * recycles evicted chunks for the chunks streamed in to replace them. A recycled
+ * chunk keeps its voxel storage, occupancy array, vertex lists and GL buffers, so
+ * crossing a chunk boundary generates and meshes the new slice into memory that is
+ * already there instead of allocating it all again and leaving the old slice to the
+ * garbage collector.
+ *
+ * Chunks may be obtained on the `ChunkGenerator`'s threads while the main thread
+ * recycles others, so the free list is locked, though not while a chunk generates.
+ */
+public class ChunkPool {
+
+	private final ArrayDeque<Chunk> free = new ArrayDeque<>();
+	private final int capacity;
+	private final VoxelFormat format;
+	private final VoxelArena arena;
+	private long created, reused;
+
+	/**
+	 * creates an empty pool.
+	 *
+	 * @param capacity number of evicted chunks kept for reuse; chunks evicted beyond it
+	 * are released.
+	 *
+	 * @param format layout of the voxel data of the chunks handed out.
+	 *
+	 * @param arena arena holding the chunks' `PALETTE` voxel data off-heap, or `null`.
+	 */
+	public ChunkPool(int capacity, VoxelFormat format, VoxelArena arena) {
+		this.capacity = capacity;
+		this.format = format;
+		this.arena = arena;
+	}
+
+	/**
+	 * returns a generated chunk at the given chunk coordinates, a recycled one if the
+	 * pool holds any.
+	 */
+	public Chunk obtain(int cx, int cy, int cz) {
+		Chunk ch;
+		synchronized (free) {
+			ch = free.poll();
+			if (ch == null)
+				created++;
+			else
+				reused++;
+		}
+		if (ch == null)
+			return new Chunk(cx, cy, cz, format, arena);
+		ch.reuse(cx, cy, cz);
+		return ch;
+	}
+
+	/**
+	 * takes back an evicted chunk. It must not be used by the caller afterwards.
+	 */
+	public void recycle(Chunk ch) {
+		boolean full;
+		synchronized (free) {
+			full = free.size() >= capacity;
+		}
+		if (full) {
+			ch.release();
+			return;
+		}
+		ch.recycle();
+		synchronized (free) {
+			free.push(ch);
+		}
+	}
+
+	/**
+	 * releases every pooled chunk, along with its off-heap storage and GL buffers.
+	 */
+	public void clear() {
+		Chunk ch;
+		while ((ch = poll()) != null)
+			ch.release();
+	}
+	
+	private Chunk poll() {
+		synchronized (free) {
+			return free.poll();
+		}
+	}
+
+	/**
+	 * returns the number of chunks that had to be created because the pool was empty.
+	 */
+	public long getCreatedCount() {
+		synchronized (free) {
+			return created;
+		}
+	}
+
+	/**
+	 * returns the number of chunks handed out from the pool.
+	 */
+	public long getReusedCount() {
+		synchronized (free) {
+			return reused;
+		}
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.ch.voxel;
+
+/**
+ * selects how `Chunk.toGenModel()` turns the visible block faces into quads.
+ */
+public enum MeshMode {
+
+	/** one quad per visible block face */
+	NAIVE,
+
+	/** coplanar neighbouring faces of the same block merged into maximal rectangles */
+	GREEDY,
+
+	/** a smooth surface through the terrain's density field instead of block faces, float vertices only */
+	SMOOTH
+
+}
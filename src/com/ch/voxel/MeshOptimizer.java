@@ -0,0 +1,311 @@
+package com.ch.voxel;
+
+import java.util.Arrays;
+
+import com.ch.Model;
+
+/**
+ * reorders the triangles of a `ChunkMesh` for the GPU, after the meshers and
+ * `ChunkMesh.weld()` are done with it. Only the CPU side buffers are touched, so it
+ * runs on the `ChunkMesher` threads along with the meshing.
+ *
+ * The triangles are first sorted by the direction they face, in the order of the
+ * `Chunk.FACE_*` bits, and within a direction front to back: faces looking up come
+ * from the top down and so on. Two faces of the same direction can only cover each
+ * other when the camera is in front of both, where the one further out along their
+ * normal is the nearer one, so every direction draws its nearest faces first whatever
+ * the camera's position, and early depth testing rejects more of the ones behind.
+ * Smooth surfaces are not cut into planes, see `optimize()`.
+ *
+ * The triangles of each plane are then ordered by Tipsify (Sander, Nehab and Barczak,
+ * "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw", 2007), which
+ * fans around one vertex at a time and moves on to a neighbour still in the cache,
+ * in time linear in the triangles. Faces of different planes hardly share vertices,
+ * so the sort costs the cache next to nothing. Last the vertices are renumbered in the
+ * order the triangles first use them, so that they are fetched front to back as well.
+ *
+ * An optimizer keeps its scratch arrays for the next mesh, so `ChunkMesh` keeps one
+ * per thread.
+ */
+final class MeshOptimizer {
+
+	/**
+	 * entries of the post-transform cache the triangles are ordered for and the misses
+	 * are counted with, as a first in first out cache.
+	 */
+	static final int CACHE_SIZE = 16;
+	private static final int CHECK_EVERY = 4096; // triangles ordered between looks at the deadline
+	private static final int PLANES = Chunk.CHUNK_SIZE + 1; // planes faces may lie in along an axis
+
+	private final int[] counts = new int[6 * PLANES]; // triangles by plane, then where their run ends
+	private int[] keys; // plane of each triangle, by direction and then front to back
+	private int[] tris; // corners of the triangles in the sorted order
+	private int[] offsets, adjacency; // triangles around each vertex, as positions in the sorted order
+	private int[] live; // triangles around each vertex not ordered yet
+	private int[] stamps; // time each vertex entered the cache
+	private int[] stack; // vertices of the triangles ordered, most recent on top
+	private int[] fan; // vertices of the last fan
+	private int[] output; // positions in the sorted order of the triangles, in their new order
+	private int[] remap; // new index of each vertex
+	private boolean[] done; // by position in the sorted order
+	private int[] packed_copy;
+	private float[] vertex_copy;
+
+	/**
+	 * counts the post-transform cache misses of the indices in their current order.
+	 *
+	 * @returns the vertices transformed, at least one per vertex used.
+	 */
+	int countMisses(ChunkMesh mesh) {
+		int vertices = mesh.getVertexCount(), count = mesh.getIndices().size();
+		final int[] ix = mesh.getIndices().array();
+		final int[] stamps = this.stamps = grow(this.stamps, vertices);
+		Arrays.fill(stamps, 0, vertices, 0);
+		int time = CACHE_SIZE, misses = 0;
+		for (int i = 0; i < count; i++) {
+			int v = ix[i];
+			if (time - stamps[v] >= CACHE_SIZE) {
+				stamps[v] = time++;
+				misses++;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * reorders the triangles of a mesh and renumbers its vertices. Once the deadline
+	 * passes the triangles not ordered yet follow in the sorted order, which is still
+	 * front to back.
+	 *
+	 * @param deadline `System.nanoTime()` by which to stop ordering.
+	 *
+	 * @param planes `true` to sort the triangles by plane first, `false` to order them
+	 * for the cache only. Smooth surfaces cut into planes lose most of what they share.
+	 *
+	 * @returns `true` if every triangle was ordered for the cache.
+	 */
+	boolean optimize(ChunkMesh mesh, long deadline, boolean planes) {
+		final int triangles = mesh.getIndices().size() / 3, vertices = mesh.getVertexCount();
+		if (triangles == 0)
+			return true;
+		final int[] ix = mesh.getIndices().array();
+		final int[] counts = this.counts;
+		// the triangles are copied in sorted order, so that the passes below find the
+		// ones of a plane next to each other
+		final int[] tris = this.tris = grow(this.tris, triangles * 3);
+		if (planes) {
+			sort(mesh, ix, triangles, tris, counts);
+		} else {
+			System.arraycopy(ix, 0, tris, 0, triangles * 3);
+			Arrays.fill(counts, triangles);
+		}
+
+		// the triangles around each vertex, in sorted order
+		final int[] offsets = this.offsets = grow(this.offsets, vertices + 1);
+		final int[] adjacency = this.adjacency = grow(this.adjacency, triangles * 3);
+		final int[] live = this.live = grow(this.live, vertices);
+		Arrays.fill(live, 0, vertices, 0);
+		for (int i = 0; i < triangles * 3; i++)
+			live[tris[i]]++;
+		offsets[0] = 0;
+		for (int v = 0; v < vertices; v++)
+			offsets[v + 1] = offsets[v] + live[v];
+		for (int i = 0; i < triangles * 3; i++)
+			adjacency[offsets[tris[i]]++] = i / 3;
+		for (int v = vertices; v > 0; v--)
+			offsets[v] = offsets[v - 1];
+		offsets[0] = 0;
+
+		final int[] stamps = this.stamps = grow(this.stamps, vertices);
+		Arrays.fill(stamps, 0, vertices, 0);
+		final int[] stack = this.stack = grow(this.stack, triangles * 3);
+		final int[] fan = this.fan = grow(this.fan, triangles * 3);
+		final int[] output = this.output = grow(this.output, triangles);
+		if (done == null || done.length < triangles)
+			done = new boolean[Math.max(triangles, 1024)];
+		final boolean[] done = this.done;
+		Arrays.fill(done, 0, triangles, false);
+		int ordered = 0, top = 0, time = CACHE_SIZE + 1, check = CHECK_EVERY;
+		boolean complete = true;
+		for (int key = 0, end = 0; key < counts.length && complete; key++) {
+			// one plane, from position `start` to `end` in the sorted order
+			int start = end, cursor = start;
+			end = counts[key];
+			int f = -1;
+			while (true) {
+				if (f < 0) {
+					while (top > 0 && f < 0)
+						if (live[stack[--top]] > 0)
+							f = stack[top];
+					if (f < 0) {
+						while (cursor < end && done[cursor])
+							cursor++;
+						if (cursor == end)
+							break;
+						f = tris[cursor * 3];
+					}
+				}
+				int fans = 0;
+				for (int a = offsets[f], a1 = offsets[f + 1]; a < a1; a++) {
+					int p = adjacency[a];
+					if (p < start || p >= end || done[p])
+						continue;
+					done[p] = true;
+					output[ordered++] = p;
+					for (int j = 0; j < 3; j++) {
+						int v = tris[p * 3 + j];
+						stack[top++] = v;
+						fan[fans++] = v;
+						live[v]--;
+						if (time - stamps[v] > CACHE_SIZE)
+							stamps[v] = time++;
+					}
+				}
+				// continue with the fan's vertex that stays in the cache the longest while
+				// fanning around it, or the one that has been in it the longest
+				int next = -1, best = -1;
+				for (int i = 0; i < fans; i++) {
+					int v = fan[i];
+					if (live[v] <= 0)
+						continue;
+					int priority = time - stamps[v] + 2 * live[v] <= CACHE_SIZE ? time - stamps[v] : 0;
+					if (priority > best) {
+						best = priority;
+						next = v;
+					}
+				}
+				f = next;
+				if (ordered >= check) {
+					check = ordered + CHECK_EVERY;
+					if (System.nanoTime() - deadline > 0) {
+						complete = false;
+						break;
+					}
+				}
+			}
+		}
+		if (!complete)
+			for (int p = 0; p < triangles; p++)
+				if (!done[p])
+					output[ordered++] = p;
+		renumber(mesh, tris, triangles, vertices, output);
+		return complete;
+	}
+
+	/**
+	 * copies the triangles into `tris` sorted by direction and, within a direction,
+	 * front to back, leaving the end of each plane's run in `counts`.
+	 */
+	private void sort(ChunkMesh mesh, int[] ix, int triangles, int[] tris, int[] counts) {
+		final int[] packed = mesh.getPacked() == null ? null : mesh.getPacked().array();
+		final float[] v = packed == null ? mesh.getVertices().array() : null;
+		final int[] keys = this.keys = grow(this.keys, triangles);
+		Arrays.fill(counts, 0);
+		for (int t = 0; t < triangles; t++) {
+			// every corner of a block face lies in its plane
+			int face = mesh.faceOf(t), axis = 2 - (face >> 1), plane; // axis as x, y, z = 0, 1, 2
+			if (packed != null) {
+				int c = packed[ix[t * 3]];
+				plane = axis == 0 ? PackedVertex.getX(c) : axis == 1 ? PackedVertex.getY(c) : PackedVertex.getZ(c);
+			} else {
+				plane = Math.max(0, Math.min(PLANES - 1, (int) v[ix[t * 3] * Model.VERTEX_SIZE + axis]));
+			}
+			// the odd faces look along their axis, where further out is nearer
+			int key = face * PLANES + ((face & 1) != 0 ? PLANES - 1 - plane : plane);
+			keys[t] = key;
+			counts[key]++;
+		}
+		scatter(ix, triangles, tris, keys, counts);
+	}
+
+	/**
+	 * sorts the triangles of a block mesh by the direction they face, in the order of
+	 * the `Chunk.FACE_*` bits, keeping their order within each direction.
+	 * 
+	 * @param ends set to the end of each direction's indices.
+	 */
+	void bucket(ChunkMesh mesh, int[] ends) {
+		final int triangles = mesh.getIndices().size() / 3;
+		final int[] ix = mesh.getIndices().array();
+		final int[] keys = this.keys = grow(this.keys, triangles);
+		final int[] counts = new int[6];
+		boolean sorted = true;
+		for (int t = 0, last = 0; t < triangles; t++) {
+			int face = mesh.faceOf(t);
+			sorted &= face >= last;
+			last = face;
+			keys[t] = face;
+			counts[face]++;
+		}
+		for (int f = 0, sum = 0; f < 6; f++)
+			ends[f] = sum += counts[f] * 3;
+		if (sorted)
+			return;
+		final int[] tris = this.tris = grow(this.tris, triangles * 3);
+		scatter(ix, triangles, tris, keys, counts);
+		System.arraycopy(tris, 0, ix, 0, triangles * 3);
+	}
+
+	/**
+	 * copies the triangles into `tris` in the order of their keys, keeping their order
+	 * for equal keys, and leaves the end of each key's run in `counts`.
+	 */
+	private static void scatter(int[] ix, int triangles, int[] tris, int[] keys, int[] counts) {
+		for (int k = 0, sum = 0; k < counts.length; k++) {
+			sum += counts[k];
+			counts[k] = sum - counts[k]; // start of the key's run for now
+		}
+		for (int t = 0; t < triangles * 3; t += 3) {
+			int s = counts[keys[t / 3]]++ * 3;
+			tris[s] = ix[t];
+			tris[s + 1] = ix[t + 1];
+			tris[s + 2] = ix[t + 2];
+		}
+	}
+
+	/**
+	 * writes the triangles back to the mesh in their new order, numbering the vertices
+	 * in the order they are first used.
+	 * 
+	 * @param tris the triangles in sorted order.
+	 * 
+	 * @param output their positions in that order, in the new order.
+	 */
+	private void renumber(ChunkMesh mesh, int[] tris, int triangles, int vertices, int[] output) {
+		final int[] remap = this.remap = grow(this.remap, vertices);
+		Arrays.fill(remap, 0, vertices, -1);
+		final int[] ix = mesh.getIndices().array();
+		int next = 0;
+		for (int i = 0, o = 0; i < triangles; i++)
+			for (int j = 0, t = output[i] * 3; j < 3; j++) {
+				int v = tris[t + j];
+				if (remap[v] < 0)
+					remap[v] = next++;
+				ix[o++] = remap[v];
+			}
+		for (int v = 0; v < vertices; v++)
+			if (remap[v] < 0)
+				remap[v] = next++;
+		if (mesh.getPacked() != null) {
+			final int[] packed = mesh.getPacked().array();
+			final int[] copy = packed_copy = grow(packed_copy, vertices);
+			System.arraycopy(packed, 0, copy, 0, vertices);
+			for (int v = 0; v < vertices; v++)
+				packed[remap[v]] = copy[v];
+		} else {
+			final int n = Model.VERTEX_SIZE;
+			final float[] floats = mesh.getVertices().array();
+			if (vertex_copy == null || vertex_copy.length < vertices * n)
+				vertex_copy = new float[Math.max(vertices * n, 1024)];
+			final float[] copy = vertex_copy;
+			System.arraycopy(floats, 0, copy, 0, vertices * n);
+			for (int v = 0; v < vertices; v++)
+				System.arraycopy(copy, v * n, floats, remap[v] * n, n);
+		}
+	}
+
+	private static int[] grow(int[] array, int size) {
+		return array != null && array.length >= size ? array : new int[Math.max(size, 1024)];
+	}
+
+}
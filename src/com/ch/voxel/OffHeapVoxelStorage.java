@@ -0,0 +1,85 @@
+package com.ch.voxel;
+
+import java.nio.LongBuffer;
+
+/**
+ * is a `VoxelStorage` whose packed words live in a slab of a `VoxelArena` instead of
+ * a `long[]` on the heap. Only the small palette stays on the heap, so resident
+ * chunks add next to nothing to the garbage collector's work.
+ */
+public class OffHeapVoxelStorage extends VoxelStorage {
+
+	private final VoxelArena arena;
+	private LongBuffer words;
+
+	/**
+	 * creates a uniform storage of `edge`^3 voxels, all set to `fill`. No slab is taken
+	 * from the arena until a different id is stored.
+	 *
+	 * @param edge edge length of the cube of voxels held by the storage.
+	 *
+	 * @param fill block id every voxel starts out as.
+	 *
+	 * @param arena arena the slabs are taken from and returned to.
+	 */
+	public OffHeapVoxelStorage(int edge, int fill, VoxelArena arena) {
+		super(edge, fill);
+		this.arena = arena;
+	}
+
+	@Override
+	protected long getWord(int word) {
+		return words.get(word);
+	}
+
+	@Override
+	protected void setWord(int word, long value) {
+		words.put(word, value);
+	}
+
+	/**
+	 * moves the words into a slab of the new size. A slab of the right size class is
+	 * kept, with the words past `count` zeroed.
+	 */
+	@Override
+	protected void resizeWords(int count) {
+		if (words != null && words.capacity() >= count && words.capacity() / 2 < count) {
+			for (int i = count; i < words.capacity(); i++)
+				words.put(i, 0);
+			return;
+		}
+		LongBuffer slab = arena.allocate(count);
+		if (words != null) {
+			int keep = Math.min(count, words.capacity());
+			for (int i = 0; i < keep; i++)
+				slab.put(i, words.get(i));
+			arena.free(words);
+		}
+		words = slab;
+	}
+
+	@Override
+	protected void releaseWords() {
+		if (words != null) {
+			arena.free(words);
+			words = null;
+		}
+	}
+
+	/**
+	 * returns the slab to the arena, which pools it for the next storage of that size.
+	 */
+	@Override
+	protected void recycleWords() {
+		releaseWords();
+	}
+
+	/**
+	 * returns the size of the slab held in the arena, which is native memory.
+	 */
+	@Override
+	protected long getWordsMemory() {
+		return words == null ? 0 : words.capacity() * 8L;
+	}
+
+}
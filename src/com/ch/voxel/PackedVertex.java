@@ -0,0 +1,98 @@
+package com.ch.voxel;
+
+/**
+ * packs a chunk mesh vertex into a single 32-bit int for `VertexFormat.PACKED`, and
+ * unpacks it again the way `default.vert` does. From the lowest bit up:
+ * 
+ * 	- 7 bits each of x, y and z, the vertex's corner position within the chunk, from 0
+ * to 64 inclusive.
+ * 	- 3 bits of face index, the position of the face's `Chunk.FACE_*` bit.
+ * 	- 2 bits of ambient occlusion, from 0 for a fully occluded corner to `AO_NONE`.
+ * 	- 6 bits of texture layer.
+ * 
+ * There are no texture coordinates: the shader derives them from the position along
+ * the face's two in-plane axes, mirrored where the float meshes mirror them, which
+ * repeats the texture once per block just like the coordinates of a merged quad do.
+ * Positions only fit for chunks of up to 64 voxels.
+ */
+public final class PackedVertex {
+
+	public static final int MAX_COORD = 64;
+	public static final int MAX_LAYER = 63;
+	public static final int AO_NONE = 3;
+
+	private static final int Y_SHIFT = 7, Z_SHIFT = 14, FACE_SHIFT = 21, AO_SHIFT = 24, LAYER_SHIFT = 26;
+
+	private PackedVertex() {
+	}
+
+	/**
+	 * packs a vertex. The values are not range checked.
+	 * 
+	 * @param x corner x coordinate within the chunk, in [0, MAX_COORD].
+	 * 
+	 * @param y corner y coordinate within the chunk, in [0, MAX_COORD].
+	 * 
+	 * @param z corner z coordinate within the chunk, in [0, MAX_COORD].
+	 * 
+	 * @param face face index, in [0, 6).
+	 * 
+	 * @param ao ambient occlusion level, in [0, AO_NONE].
+	 * 
+	 * @param layer texture layer, in [0, MAX_LAYER].
+	 * 
+	 * @returns the packed vertex.
+	 */
+	public static int pack(int x, int y, int z, int face, int ao, int layer) {
+		return x | y << Y_SHIFT | z << Z_SHIFT | face << FACE_SHIFT | ao << AO_SHIFT | layer << LAYER_SHIFT;
+	}
+
+	public static int getX(int v) {
+		return v & 127;
+	}
+
+	public static int getY(int v) {
+		return v >>> Y_SHIFT & 127;
+	}
+
+	public static int getZ(int v) {
+		return v >>> Z_SHIFT & 127;
+	}
+
+	public static int getFace(int v) {
+		return v >>> FACE_SHIFT & 7;
+	}
+
+	public static int getAo(int v) {
+		return v >>> AO_SHIFT & 3;
+	}
+
+	public static int getLayer(int v) {
+		return v >>> LAYER_SHIFT;
+	}
+
+	/**
+	 * derives the u texture coordinate of a vertex as the shader does.
+	 */
+	public static int getU(int v) {
+		switch (getFace(v)) {
+		case 1: // FACE_BK
+			return -getX(v);
+		case 4: // FACE_LT
+			return -getZ(v);
+		case 5: // FACE_RT
+			return getZ(v);
+		default:
+			return getX(v);
+		}
+	}
+
+	/**
+	 * derives the v texture coordinate of a vertex as the shader does.
+	 */
+	public static int getV(int v) {
+		int face = getFace(v);
+		return face == 2 || face == 3 ? getZ(v) : getY(v); // z for FACE_BT and FACE_TP
+	}
+
+}
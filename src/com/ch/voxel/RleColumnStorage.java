@@ -0,0 +1,392 @@
+package com.ch.voxel;
+
+/**
+ * stores the voxels of a chunk as one run-length encoded list per x/z column, runs
+ * going up the y axis. Terrain tends to come in long vertical stretches of the same
+ * block, which this layout stores as a single 16-bit run each.
+ *
+ * All runs sit in one `char[]`, column after column, with `offsets[c]` the first run
+ * of column `c = x + z * edge`. A run is `palette_index << 7 | (end - 1)` where `end`
+ * is the exclusive top of the run and the bottom is the end of the run before it, so
+ * edges up to 128 and palettes up to 512 ids fit.
+ */
+public class RleColumnStorage implements VoxelData {
+
+	/**
+	 * receives the runs of a `RleColumnStorage` during `forEachRun()`.
+	 */
+	public interface RunVisitor {
+
+		public void visit(int x, int z, int y0, int y1, int id);
+
+	}
+
+	private static final int END_BITS = 7;
+	private static final int END_MASK = (1 << END_BITS) - 1;
+	private static final int MAX_PALETTE = 1 << (16 - END_BITS);
+
+	/**
+	 * largest edge length the run ends can encode.
+	 */
+	public static final int MAX_EDGE = 1 << END_BITS;
+
+	private final int edge, edge_log2;
+	private int[] palette;
+	private int palette_size;
+	private final int[] offsets;
+	private char[] runs;
+
+	/**
+	 * creates a storage of `edge`^3 voxels, all set to `fill`, as one run per column.
+	 *
+	 * @param edge power of two edge length of the cube, at most 128.
+	 *
+	 * @param fill block id every voxel starts out as.
+	 */
+	public RleColumnStorage(int edge, int fill) {
+		if (edge > MAX_EDGE)
+			throw new IllegalArgumentException("edge " + edge + " exceeds " + MAX_EDGE);
+		this.edge = edge;
+		this.edge_log2 = Integer.numberOfTrailingZeros(edge);
+		this.palette = new int[2];
+		this.offsets = new int[edge * edge + 1];
+		this.runs = new char[edge * edge];
+		reset(fill);
+	}
+
+	/**
+	 * encodes the voxels of `src` column by column.
+	 *
+	 * @param edge power of two edge length of the cube, at most 128.
+	 *
+	 * @param src voxel data to copy.
+	 */
+	public RleColumnStorage(int edge, VoxelData src) {
+		this(edge, Block.AIR);
+		load(src);
+	}
+
+	/**
+	 * turns the storage back into one run per column, all set to `fill`, keeping the run
+	 * array for the next chunk of a pool.
+	 *
+	 * @param fill block id every voxel holds afterwards.
+	 */
+	public void reset(int fill) {
+		palette[0] = fill;
+		palette_size = 1;
+		int columns = edge * edge;
+		for (int c = 0; c < columns; c++) {
+			offsets[c] = c;
+			runs[c] = run(0, edge);
+		}
+		offsets[columns] = columns;
+	}
+
+	/**
+	 * replaces the content with the voxels of `src`, encoded column by column into the
+	 * existing run array as long as it is large enough.
+	 *
+	 * @param src voxel data of the same edge length to copy.
+	 */
+	public void load(VoxelData src) {
+		reset(src.isUniform() ? src.getUniformValue() : Block.AIR);
+		if (src.isUniform())
+			return;
+
+		int columns = edge * edge;
+		int count = 0;
+		for (int c = 0; c < columns; c++) {
+			offsets[c] = count;
+			int base = (c & (edge - 1)) + ((c >>> edge_log2) << (edge_log2 << 1));
+			int id = src.get(base);
+			for (int y = 1; y <= edge; y++) {
+				int next = y < edge ? src.get(base + (y << edge_log2)) : -1;
+				if (next == id)
+					continue;
+				if (count == runs.length) {
+					char[] grown = new char[runs.length + (runs.length >>> 1)];
+					System.arraycopy(runs, 0, grown, 0, count);
+					runs = grown;
+				}
+				runs[count++] = run(paletteIndex(id), y);
+				id = next;
+			}
+		}
+		offsets[columns] = count;
+	}
+
+	@Override
+	public int get(int index) {
+		int x = index & (edge - 1);
+		int y = (index >>> edge_log2) & (edge - 1);
+		int z = index >>> (edge_log2 << 1);
+		return palette[runs[find(x + (z << edge_log2), y)] >>> END_BITS];
+	}
+
+	/**
+	 * stores a block id, splitting the run it falls into and merging it with the runs
+	 * above and below when they end up holding the same id. A full palette first drops
+	 * the ids no voxel holds any more.
+	 */
+	@Override
+	public void set(int index, int id) {
+		int x = index & (edge - 1);
+		int y = (index >>> edge_log2) & (edge - 1);
+		int z = index >>> (edge_log2 << 1);
+		int c = x + (z << edge_log2);
+
+		int r = find(c, y);
+		if (palette[runs[r] >>> END_BITS] == id)
+			return;
+		if (palette_size == MAX_PALETTE && indexOf(id) < 0)
+			prunePalette(); // renumbers the runs, so before any palette index is read
+		int n_p = paletteIndex(id);
+		int p = runs[r] >>> END_BITS;
+
+		int first = offsets[c], last = offsets[c + 1] - 1;
+		int start = r == first ? 0 : end(r - 1);
+		int end = end(r);
+		boolean merge_below = r > first && (runs[r - 1] >>> END_BITS) == n_p && y == start;
+		boolean merge_above = r < last && (runs[r + 1] >>> END_BITS) == n_p && y == end - 1;
+
+		if (end - start == 1) {
+			// the run is exactly this voxel
+			if (merge_below && merge_above) {
+				runs[r - 1] = run(n_p, end(r + 1));
+				remove(c, r, 2);
+			} else if (merge_below) {
+				runs[r - 1] = run(n_p, end);
+				remove(c, r, 1);
+			} else if (merge_above) {
+				remove(c, r, 1);
+			} else {
+				runs[r] = run(n_p, end);
+			}
+		} else if (y == start) {
+			if (merge_below) {
+				runs[r - 1] = run(n_p, y + 1);
+			} else {
+				insert(c, r, 1);
+				runs[r] = run(n_p, y + 1);
+			}
+		} else if (y == end - 1) {
+			if (merge_above) {
+				runs[r] = run(p, y);
+			} else {
+				insert(c, r, 1);
+				runs[r] = run(p, y);
+				runs[r + 1] = run(n_p, end);
+			}
+		} else {
+			insert(c, r, 2);
+			runs[r] = run(p, y);
+			runs[r + 1] = run(n_p, y + 1);
+			runs[r + 2] = run(p, end);
+		}
+	}
+
+	/**
+	 * visits every non-air voxel, column by column from the bottom up.
+	 */
+	@Override
+	public void forEach(final Visitor visitor) {
+		forEachRun(new RunVisitor() {
+			public void visit(int x, int z, int y0, int y1, int id) {
+				if (id == Block.AIR)
+					return;
+				for (int y = y0; y < y1; y++)
+					visitor.visit(x, y, z, id);
+			}
+		});
+	}
+
+	/**
+	 * visits every run, air included, column by column from the bottom up.
+	 *
+	 * @param visitor receives the column, the half open y range and the id of each run.
+	 */
+	public void forEachRun(RunVisitor visitor) {
+		int columns = edge * edge;
+		for (int c = 0; c < columns; c++) {
+			int x = c & (edge - 1), z = c >>> edge_log2;
+			int y0 = 0;
+			for (int r = offsets[c]; r < offsets[c + 1]; r++) {
+				int y1 = end(r);
+				visitor.visit(x, z, y0, y1, palette[runs[r] >>> END_BITS]);
+				y0 = y1;
+			}
+		}
+	}
+
+	/**
+	 * returns the index of the first run of column `c`; its runs end before
+	 * `columnStart(c + 1)`.
+	 */
+	public int columnStart(int c) {
+		return offsets[c];
+	}
+
+	/**
+	 * returns the exclusive top y of run `r`.
+	 */
+	public int runEnd(int r) {
+		return end(r);
+	}
+
+	/**
+	 * returns the block id of run `r`.
+	 */
+	public int runId(int r) {
+		return palette[runs[r] >>> END_BITS];
+	}
+
+	/**
+	 * drops the palette entries no run uses any more, then trims the run array to its
+	 * used length once more than an eighth of it is unused, which leaves a recycled
+	 * array alone when the new content is about the same size. Runs are always kept
+	 * merged by `set()`.
+	 */
+	@Override
+	public void compact() {
+		prunePalette();
+		int count = offsets[edge * edge];
+		if (runs.length - count > count >>> 3) {
+			char[] n_runs = new char[count];
+			System.arraycopy(runs, 0, n_runs, 0, count);
+			runs = n_runs;
+		}
+	}
+
+	@Override
+	public boolean isUniform() {
+		int columns = edge * edge;
+		if (offsets[columns] != columns)
+			return false;
+		char first = runs[0];
+		for (int c = 1; c < columns; c++)
+			if (runs[c] != first)
+				return false;
+		return true;
+	}
+
+	@Override
+	public int getUniformValue() {
+		return palette[runs[0] >>> END_BITS];
+	}
+
+	/**
+	 * estimates the heap footprint: palette, column offsets and run array.
+	 */
+	@Override
+	public long getMemoryUsage() {
+		return 32 + (16 + palette.length * 4L) + (16 + offsets.length * 4L) + (16 + runs.length * 2L);
+	}
+
+	@Override
+	public void release() {
+	}
+
+	/**
+	 * returns the number of runs over all columns.
+	 *
+	 * @returns the run count.
+	 */
+	public int getRunCount() {
+		return offsets[edge * edge];
+	}
+
+	private static char run(int palette_index, int end) {
+		return (char) ((palette_index << END_BITS) | (end - 1));
+	}
+
+	private int end(int r) {
+		return (runs[r] & END_MASK) + 1;
+	}
+
+	/**
+	 * binary searches column `c` for the run containing `y`.
+	 */
+	private int find(int c, int y) {
+		int lo = offsets[c], hi = offsets[c + 1] - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (end(mid) <= y)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private int indexOf(int id) {
+		for (int p = 0; p < palette_size; p++)
+			if (palette[p] == id)
+				return p;
+		return -1;
+	}
+
+	private int paletteIndex(int id) {
+		int p = indexOf(id);
+		if (p >= 0)
+			return p;
+		if (palette_size == MAX_PALETTE)
+			throw new IllegalStateException("palette exceeds " + MAX_PALETTE + " entries");
+		if (palette_size == palette.length) {
+			int[] n_palette = new int[palette.length * 2];
+			System.arraycopy(palette, 0, n_palette, 0, palette_size);
+			palette = n_palette;
+		}
+		palette[palette_size] = id;
+		return palette_size++;
+	}
+
+	/**
+	 * drops the palette entries that no run refers to and renumbers the runs, keeping
+	 * the order of the entries left. Runs of different ids stay different, so they stay
+	 * merged.
+	 */
+	private void prunePalette() {
+		int count = offsets[edge * edge];
+		int[] remap = new int[palette_size];
+		for (int r = 0; r < count; r++)
+			remap[runs[r] >>> END_BITS] = 1;
+		int kept = 0;
+		for (int p = 0; p < palette_size; p++)
+			if (remap[p] != 0) {
+				palette[kept] = palette[p];
+				remap[p] = kept++;
+			}
+		if (kept == palette_size)
+			return;
+		for (int r = 0; r < count; r++)
+			runs[r] = run(remap[runs[r] >>> END_BITS], end(r));
+		palette_size = kept;
+	}
+
+	/**
+	 * opens `n` run slots at `r` in column `c`, shifting the runs after it up.
+	 */
+	private void insert(int c, int r, int n) {
+		int count = offsets[edge * edge];
+		if (count + n > runs.length) {
+			char[] n_runs = new char[Math.max(count + n, runs.length + (runs.length >>> 3))];
+			System.arraycopy(runs, 0, n_runs, 0, count);
+			runs = n_runs;
+		}
+		System.arraycopy(runs, r, runs, r + n, count - r);
+		for (int i = c + 1; i < offsets.length; i++)
+			offsets[i] += n;
+	}
+
+	/**
+	 * drops `n` runs at `r` from column `c`, shifting the runs after them down.
+	 */
+	private void remove(int c, int r, int n) {
+		int count = offsets[edge * edge];
+		System.arraycopy(runs, r + n, runs, r, count - r - n);
+		for (int i = c + 1; i < offsets.length; i++)
+			offsets[i] -= n;
+	}
+
+}
@@ -0,0 +1,365 @@
+package com.ch.voxel;
+
+/**
+ * stores the voxels of a chunk as an octree whose homogeneous subtrees are collapsed
+ * into single leaves. Terrain far from the camera is mostly large runs of air or
+ * solid, so the tree usually needs a fraction of the memory of the dense layout, at
+ * the cost of a `log2(edge)` deep descent per lookup.
+ *
+ * Nodes live in one flat `int[]`: an internal node is a block of 8 consecutive child
+ * entries, ordered by `x | y << 1 | z << 2`. A child entry `>= 0` is the offset of
+ * that child's own block, a negative entry `~id` is a leaf holding block id `id`.
+ *
+ * Mixed 4x4x4 cubes holding at most two ids, which is what noise terrain mostly
+ * breaks down into near its surface, are stored as bricks instead of two more tree
+ * levels: a 64-bit mask choosing between the two ids, 2 bits per voxel in total. A
+ * brick entry is its offset tagged with `BRICK`.
+ */
+public class SparseVoxelOctree implements VoxelData {
+
+	private static final int BRICK = 1 << 30;
+	private static final int BRICK_SIZE = 4;
+
+	private final int edge, edge_log2;
+	private int[] nodes;
+	private int node_count;
+	private int root;
+
+	/**
+	 * creates a collapsed octree of `edge`^3 voxels, all set to `fill`.
+	 *
+	 * @param edge power of two edge length of the cube of voxels.
+	 *
+	 * @param fill block id every voxel starts out as.
+	 */
+	public SparseVoxelOctree(int edge, int fill) {
+		this.edge = edge;
+		this.edge_log2 = Integer.numberOfTrailingZeros(edge);
+		this.nodes = new int[0];
+		this.node_count = 0;
+		this.root = ~fill;
+	}
+
+	/**
+	 * builds an octree holding the same voxels as `src`, collapsing every subtree whose
+	 * voxels all share one id.
+	 *
+	 * @param edge power of two edge length of the cube of voxels in `src`.
+	 *
+	 * @param src voxel data to copy.
+	 */
+	public SparseVoxelOctree(int edge, VoxelData src) {
+		this(edge, Block.AIR);
+		if (src.isUniform()) {
+			root = ~src.getUniformValue();
+			return;
+		}
+		nodes = new int[64];
+		root = build(src, 0, 0, 0, edge);
+		trim();
+	}
+
+	@Override
+	public int get(int index) {
+		int x = index & (edge - 1);
+		int y = (index >>> edge_log2) & (edge - 1);
+		int z = index >>> (edge_log2 << 1);
+
+		int entry = root;
+		int half = edge >>> 1;
+		while (entry >= 0) {
+			if ((entry & BRICK) != 0)
+				return brickGet(entry & ~BRICK, x, y, z);
+			entry = nodes[entry + child(x, y, z, half)];
+			half >>>= 1;
+		}
+		return ~entry;
+	}
+
+	/**
+	 * stores a block id, splitting the leaves on the way down as needed. Siblings are
+	 * not merged back together until the next `compact()`.
+	 */
+	@Override
+	public void set(int index, int id) {
+		int x = index & (edge - 1);
+		int y = (index >>> edge_log2) & (edge - 1);
+		int z = index >>> (edge_log2 << 1);
+
+		if (root < 0) {
+			if (~root == id)
+				return;
+			root = split(root);
+		} else if ((root & BRICK) != 0) {
+			if (brickSet(root & ~BRICK, x, y, z, id))
+				return;
+			root = unbrick(root & ~BRICK);
+		}
+		int block = root;
+		int half = edge >>> 1;
+		while (true) {
+			int slot = block + child(x, y, z, half);
+			int entry = nodes[slot];
+			if (half == 1) {
+				nodes[slot] = ~id;
+				return;
+			}
+			if (entry < 0) {
+				if (~entry == id)
+					return;
+				entry = split(entry);
+				nodes[slot] = entry;
+			} else if ((entry & BRICK) != 0) {
+				if (brickSet(entry & ~BRICK, x, y, z, id))
+					return;
+				entry = unbrick(entry & ~BRICK);
+				nodes[slot] = entry;
+			}
+			block = entry;
+			half >>>= 1;
+		}
+	}
+
+	/**
+	 * visits every non-air voxel, expanding each solid leaf into the voxels it covers.
+	 */
+	@Override
+	public void forEach(Visitor visitor) {
+		visit(visitor, root, 0, 0, 0, edge);
+	}
+
+	/**
+	 * rebuilds the tree from scratch, merging the subtrees that `set()` left split and
+	 * releasing the nodes that are no longer referenced.
+	 */
+	@Override
+	public void compact() {
+		if (root < 0)
+			return;
+		int[] old_nodes = nodes;
+		int old_root = root;
+		nodes = new int[64];
+		node_count = 0;
+		root = rebuild(old_nodes, old_root);
+		trim();
+	}
+
+	@Override
+	public boolean isUniform() {
+		return root < 0;
+	}
+
+	@Override
+	public int getUniformValue() {
+		return ~root;
+	}
+
+	/**
+	 * estimates the heap footprint of the tree: the flat node array plus object headers.
+	 */
+	@Override
+	public long getMemoryUsage() {
+		return 32 + (16 + nodes.length * 4L);
+	}
+
+	/**
+	 * drops the node array, leaving the tree as uniform air.
+	 */
+	@Override
+	public void release() {
+		nodes = new int[0];
+		node_count = 0;
+		root = ~Block.AIR;
+	}
+
+	/**
+	 * returns the number of `int` slots used by internal nodes and bricks.
+	 *
+	 * @returns the used length of the node array.
+	 */
+	public int getNodeCount() {
+		return node_count;
+	}
+
+	private static int child(int x, int y, int z, int half) {
+		return ((x & half) != 0 ? 1 : 0) | ((y & half) != 0 ? 2 : 0) | ((z & half) != 0 ? 4 : 0);
+	}
+
+	private int build(VoxelData src, int x0, int y0, int z0, int size) {
+		if (size == 1)
+			return ~src.get(x0 + (y0 << edge_log2) + (z0 << (edge_log2 << 1)));
+		if (size == BRICK_SIZE)
+			return buildBrick(src, x0, y0, z0);
+
+		int half = size >>> 1;
+		int[] children = new int[8];
+		boolean collapse = true;
+		for (int c = 0; c < 8; c++) {
+			children[c] = build(src, x0 + ((c & 1) != 0 ? half : 0), y0 + ((c & 2) != 0 ? half : 0), z0 + ((c & 4) != 0 ? half : 0), half);
+			if (children[c] >= 0 || children[c] != children[0])
+				collapse = false;
+		}
+		if (collapse)
+			return children[0];
+		return store(children);
+	}
+
+	private int rebuild(int[] old_nodes, int entry) {
+		if (entry < 0)
+			return entry;
+		if ((entry & BRICK) != 0) {
+			int old = entry & ~BRICK;
+			int brick = allocate(4);
+			System.arraycopy(old_nodes, old, nodes, brick, 4);
+			return brick | BRICK;
+		}
+		int[] children = new int[8];
+		boolean collapse = true;
+		for (int c = 0; c < 8; c++) {
+			children[c] = rebuild(old_nodes, old_nodes[entry + c]);
+			if (children[c] >= 0 || children[c] != children[0])
+				collapse = false;
+		}
+		if (collapse)
+			return children[0];
+		return store(children);
+	}
+
+	/**
+	 * builds the entry for a 4x4x4 cube: a leaf if it is homogeneous, a brick if it holds
+	 * two ids, or a regular subtree otherwise.
+	 */
+	private int buildBrick(VoxelData src, int x0, int y0, int z0) {
+		int id0 = src.get(x0 + (y0 << edge_log2) + (z0 << (edge_log2 << 1)));
+		int id1 = id0;
+		long mask = 0;
+		for (int b = 0; b < 64; b++) {
+			int x = x0 + (b & 3), y = y0 + ((b >>> 2) & 3), z = z0 + (b >>> 4);
+			int id = src.get(x + (y << edge_log2) + (z << (edge_log2 << 1)));
+			if (id == id0)
+				continue;
+			if (id1 == id0)
+				id1 = id;
+			if (id != id1)
+				return buildNode(src, x0, y0, z0, BRICK_SIZE);
+			mask |= 1L << b;
+		}
+		if (mask == 0)
+			return ~id0;
+		int brick = allocate(4);
+		nodes[brick] = (int) mask;
+		nodes[brick + 1] = (int) (mask >>> 32);
+		nodes[brick + 2] = id0;
+		nodes[brick + 3] = id1;
+		return brick | BRICK;
+	}
+
+	private int buildNode(VoxelData src, int x0, int y0, int z0, int size) {
+		int half = size >>> 1;
+		int[] children = new int[8];
+		for (int c = 0; c < 8; c++)
+			children[c] = build(src, x0 + ((c & 1) != 0 ? half : 0), y0 + ((c & 2) != 0 ? half : 0), z0 + ((c & 4) != 0 ? half : 0), half);
+		return store(children);
+	}
+
+	private int brickGet(int brick, int x, int y, int z) {
+		int b = (x & 3) | ((y & 3) << 2) | ((z & 3) << 4);
+		int word = nodes[brick + (b >>> 5)];
+		return nodes[brick + 2 + ((word >>> (b & 31)) & 1)];
+	}
+
+	/**
+	 * writes an id into a brick if it is one of the brick's two ids.
+	 *
+	 * @returns `false` if the brick cannot hold `id` and has to be expanded.
+	 */
+	private boolean brickSet(int brick, int x, int y, int z, int id) {
+		int b = (x & 3) | ((y & 3) << 2) | ((z & 3) << 4);
+		int slot = brick + (b >>> 5);
+		if (nodes[brick + 2] == id)
+			nodes[slot] &= ~(1 << (b & 31));
+		else if (nodes[brick + 3] == id)
+			nodes[slot] |= 1 << (b & 31);
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * expands a brick into a regular two level subtree, leaving the brick's slots unused
+	 * until the next `compact()`.
+	 */
+	private int unbrick(int brick) {
+		int[] children = new int[8];
+		int[] cell = new int[8];
+		for (int c = 0; c < 8; c++) {
+			boolean same = true;
+			for (int v = 0; v < 8; v++) {
+				int x = ((c & 1) << 1) | (v & 1), y = (c & 2) | ((v >>> 1) & 1), z = ((c & 4) >>> 1) | ((v >>> 2) & 1);
+				cell[v] = ~brickGet(brick, x, y, z);
+				same &= cell[v] == cell[0];
+			}
+			children[c] = same ? cell[0] : store(cell);
+		}
+		return store(children);
+	}
+
+	private int store(int[] children) {
+		int block = allocate(8);
+		System.arraycopy(children, 0, nodes, block, 8);
+		return block;
+	}
+
+	private int split(int leaf) {
+		int block = allocate(8);
+		for (int c = 0; c < 8; c++)
+			nodes[block + c] = leaf;
+		return block;
+	}
+
+	private int allocate(int count) {
+		if (node_count + count > nodes.length) {
+			int[] n_nodes = new int[Math.max(64, nodes.length * 2)];
+			System.arraycopy(nodes, 0, n_nodes, 0, node_count);
+			nodes = n_nodes;
+		}
+		int block = node_count;
+		node_count += count;
+		return block;
+	}
+
+	private void trim() {
+		if (nodes.length != node_count) {
+			int[] n_nodes = new int[node_count];
+			System.arraycopy(nodes, 0, n_nodes, 0, node_count);
+			nodes = n_nodes;
+		}
+	}
+
+	private void visit(Visitor visitor, int entry, int x0, int y0, int z0, int size) {
+		if (entry >= 0 && (entry & BRICK) != 0) {
+			int brick = entry & ~BRICK;
+			for (int b = 0; b < 64; b++) {
+				int x = b & 3, y = (b >>> 2) & 3, z = b >>> 4;
+				int id = brickGet(brick, x, y, z);
+				if (id != Block.AIR)
+					visitor.visit(x0 + x, y0 + y, z0 + z, id);
+			}
+			return;
+		}
+		if (entry < 0) {
+			int id = ~entry;
+			if (id == Block.AIR)
+				return;
+			for (int z = z0; z < z0 + size; z++)
+				for (int y = y0; y < y0 + size; y++)
+					for (int x = x0; x < x0 + size; x++)
+						visitor.visit(x, y, z, id);
+			return;
+		}
+		int half = size >>> 1;
+		for (int c = 0; c < 8; c++)
+			visit(visitor, nodes[entry + c], x0 + ((c & 1) != 0 ? half : 0), y0 + ((c & 2) != 0 ? half : 0), z0 + ((c & 4) != 0 ? half : 0), half);
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.ch.voxel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+
+import com.ch.Util;
+
+/**
+ * hands out off-heap slabs for `OffHeapVoxelStorage`. Slabs are carved from large
+ * direct buffers (regions) and come in power of two sizes; a freed slab goes back to
+ * the free list of its size and is handed to the next chunk asking for that size, so
+ * streaming chunks in and out neither grows the heap nor waits on the garbage
+ * collector to release native memory.
+ */
+public class VoxelArena {
+
+	private static final int REGION_SIZE = 1 << 22; // 4 MB
+	private static final int MIN_SLAB_LOG2 = 6; // 64 bytes
+
+	@SuppressWarnings({ "unchecked", "rawtypes" }) // arrays of generic types can only be created raw
+	private final ArrayDeque<LongBuffer>[] free = new ArrayDeque[31];
+	private ByteBuffer region;
+	private long reserved, used;
+	private int slabs;
+
+	public VoxelArena() {
+		for (int i = 0; i < free.length; i++)
+			free[i] = new ArrayDeque<>();
+	}
+
+	/**
+	 * returns a zeroed slab of at least `words` longs, reusing a freed slab of the same
+	 * size class when there is one.
+	 *
+	 * @param words number of 64-bit words needed.
+	 *
+	 * @returns a native ordered `LongBuffer` of the slab's full capacity.
+	 */
+	public synchronized LongBuffer allocate(int words) {
+		int size_class = sizeClass(words * 8L);
+		LongBuffer slab = free[size_class].poll();
+		if (slab == null) {
+			slab = carve(1 << size_class);
+		} else {
+			for (int i = 0; i < slab.capacity(); i++)
+				slab.put(i, 0);
+		}
+		used += slab.capacity() * 8L;
+		slabs++;
+		return slab;
+	}
+
+	/**
+	 * returns a slab obtained from `allocate()` to its free list.
+	 *
+	 * @param slab slab to recycle, must not be used by the caller afterwards.
+	 */
+	public synchronized void free(LongBuffer slab) {
+		free[sizeClass(slab.capacity() * 8L)].push(slab);
+		used -= slab.capacity() * 8L;
+		slabs--;
+	}
+
+	/**
+	 * returns the native memory reserved by the arena, in use or pooled.
+	 *
+	 * @returns the reserved size in bytes.
+	 */
+	public synchronized long getReservedBytes() {
+		return reserved;
+	}
+
+	/**
+	 * returns the native memory currently handed out to storages.
+	 *
+	 * @returns the size of all live slabs in bytes.
+	 */
+	public synchronized long getUsedBytes() {
+		return used;
+	}
+
+	/**
+	 * returns the number of slabs currently handed out to storages.
+	 *
+	 * @returns the live slab count.
+	 */
+	public synchronized int getSlabCount() {
+		return slabs;
+	}
+
+	private LongBuffer carve(int bytes) {
+		ByteBuffer slab;
+		if (bytes >= REGION_SIZE) {
+			slab = Util.createByteBuffer(bytes);
+			reserved += bytes;
+		} else {
+			// the tail of a region too short for this size class is left unused
+			if (region == null || region.remaining() < bytes) {
+				region = Util.createByteBuffer(REGION_SIZE);
+				reserved += REGION_SIZE;
+			}
+			slab = region.slice();
+			slab.limit(bytes);
+			region.position(region.position() + bytes);
+		}
+		return slab.order(ByteOrder.nativeOrder()).asLongBuffer();
+	}
+
+	private static int sizeClass(long bytes) {
+		int log2 = 64 - Long.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+		return Math.max(log2, MIN_SLAB_LOG2);
+	}
+
+}
@@ -0,0 +1,717 @@
+package com.ch.voxel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.ch.Model;
+import com.ch.VertexFormat;
+
+/**
+ * headless benchmarks of the chunks' storage and meshing, run by `Main` with
+ * `-bench <name>` instead of opening a window. Everything runs on the calling thread,
+ * without a mesher or a generator, so that the time and the allocation read from the
+ * thread's `ThreadMXBean` counters are all the benchmark's own. Meshes are only built
+ * on the CPU, as `Chunk.remesh()` builds them before they are uploaded, so no GL
+ * context is needed. The chunk size is the one the run was started with, see
+ * `Chunk.CHUNK_SIZE_PROPERTY`. Benchmarks:
+ *
+ * 	- `storage`: the memory taken by the voxels of the chunks of the loaded area.
+ * 	- `occupancy`: the time of counting a chunk's visible faces from its occupancy bits
+ * against looking every voxel up.
+ * 	- `streaming`: the allocation and time of crossing chunk boundaries with the pool.
+ * 	- `frames`: the render thread's time per frame flying across chunk boundaries,
+ * meshing on it and with a `ChunkMesher`.
+ * 	- `remesh`: the time and allocation of remeshing a chunk, naive and greedy.
+ * 	- `sections`: the time and upload of remeshing only the sections a block edit
+ * touches, against remeshing the whole chunk.
+ * 	- `ao`: the time of meshing the loaded area with and without ambient occlusion.
+ * 	- `greedy`: the time of meshing one chunk naive and greedy, without welding or
+ * reordering, with and without ambient occlusion. `-check greedy` checks that both
+ * cover the same faces.
+ * 	- `lod`: the triangles of loaded areas of growing width up to the view width, drawn
+ * at full resolution and at levels of detail.
+ * 	- `modes`: the triangles, vertices and throughput of meshing the loaded area with
+ * each `MeshMode`.
+ * 	- `weld`: the vertices and the buffer sizes of the loaded area's meshes with and
+ * without welding.
+ * 	- `optimize`: the vertex cache misses per triangle of the loaded area's meshes
+ * before and after reordering their triangles, and what reordering costs.
+ */
+public final class VoxelBenchmarks {
+
+	private final VoxelFormat format;
+	private final boolean offheap;
+	private final MeshMode mesh_mode;
+	private final VertexFormat vertex_format;
+	private final boolean ambient_occlusion;
+	private final boolean weld;
+	private final long optimize_nanos;
+	private final int view_width;
+	private final int mesher_threads;
+
+	/**
+	 * sets up the benchmarks to use the options the program was started with, where a
+	 * benchmark does not compare the options itself.
+	 *
+	 * @param format layout of the chunks' voxel data.
+	 *
+	 * @param offheap `true` to keep the voxel data in a `VoxelArena`.
+	 *
+	 * @param mesh_mode mesher used for the chunks.
+	 *
+	 * @param vertex_format vertex layout of the chunk meshes.
+	 *
+	 * @param ambient_occlusion `true` to bake ambient occlusion into the meshes.
+	 *
+	 * @param weld `true` to merge the vertices the faces share.
+	 *
+	 * @param optimize_nanos time each chunk may spend reordering its triangles, 0 to keep
+	 * them in the order they are meshed.
+	 *
+	 * @param view_width width of the loaded area in voxels, as given to `World`.
+	 *
+	 * @param mesher_threads threads of the `ChunkMesher` the `frames` benchmark compares
+	 * meshing on the render thread with, at least one.
+	 */
+	public VoxelBenchmarks(VoxelFormat format, boolean offheap, MeshMode mesh_mode, VertexFormat vertex_format, boolean ambient_occlusion, boolean weld,
+			long optimize_nanos, int view_width, int mesher_threads) {
+		this.format = format;
+		this.offheap = offheap;
+		this.mesh_mode = mesh_mode;
+		this.vertex_format = vertex_format;
+		this.ambient_occlusion = ambient_occlusion;
+		this.weld = weld;
+		this.optimize_nanos = optimize_nanos;
+		this.view_width = view_width;
+		this.mesher_threads = Math.max(1, mesher_threads);
+	}
+
+	/**
+	 * runs a benchmark and prints its results.
+	 *
+	 * @param name name of the benchmark, see the class description.
+	 *
+	 * @returns `false` if there is no benchmark of that name.
+	 */
+	public boolean run(String name) {
+		switch (name) {
+		case "storage":
+			storage();
+			return true;
+		case "occupancy":
+			occupancy();
+			return true;
+		case "streaming":
+			streaming();
+			return true;
+		case "frames":
+			frames();
+			return true;
+		case "remesh":
+			remesh();
+			return true;
+		case "sections":
+			sections();
+			return true;
+		case "ao":
+			ambientOcclusion();
+			return true;
+		case "greedy":
+			greedy();
+			return true;
+		case "lod":
+			lod();
+			return true;
+		case "modes":
+			modes();
+			return true;
+		case "weld":
+			weld();
+			return true;
+		case "optimize":
+			optimize();
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * generates the chunks of the loaded area and prints how much memory their voxels
+	 * take: the `VoxelData` alone and in bits per voxel, the occupancy bits next to it,
+	 * and the heap each chunk retains as a whole, measured after a garbage collection.
+	 * The latter includes the empty buffers of the chunk's meshes.
+	 */
+	private void storage() {
+		int width = Math.max(1, view_width / Chunk.CHUNK_SIZE), height = Math.max(1, 128 / Chunk.CHUNK_SIZE);
+		int count = width * height * width;
+		VoxelArena arena = offheap ? new VoxelArena() : null;
+		Chunk[] chunks = new Chunk[count];
+		long heap = usedHeap();
+		int n = 0;
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				for (int k = 0; k < width; k++) {
+					Chunk ch = new Chunk(i - width / 2, j - height / 2, k - width / 2, format, arena);
+					ch.updateBlocks();
+					chunks[n++] = ch;
+				}
+		heap = usedHeap() - heap;
+		long storage = 0, total = 0;
+		for (Chunk ch : chunks) {
+			storage += ch.peekData().getMemoryUsage();
+			total += ch.getMemoryUsage();
+		}
+		double voxels = (double) count * Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE;
+		System.out.println(String.format("%d chunks of %d voxels, %s%s", count, Chunk.CHUNK_SIZE, format, arena == null ? " on the heap" : " off-heap"));
+		System.out.println(String.format("  voxel storage  %8.1f KB per chunk, %.2f bits per voxel", storage / 1024.0 / count, storage * 8 / voxels));
+		System.out.println(String.format("  occupancy bits %8.1f KB per chunk", (total - storage) / 1024.0 / count));
+		System.out.println(String.format("  retained heap  %8.1f KB per chunk", heap / 1024.0 / count));
+		if (arena != null)
+			System.out.println(String.format("  arena          %8.1f KB per chunk used, %.1f MB reserved", arena.getUsedBytes() / 1024.0 / count, arena.getReservedBytes() / 1048576.0));
+	}
+
+	/**
+	 * counts the visible faces of a row of generated chunks from their occupancy bits and
+	 * by looking every voxel and its neighbours up in the voxel data, and prints the
+	 * time per chunk of each and the speedup. The first rounds warm the JIT up and are
+	 * left out; both ways have to find the same faces.
+	 */
+	private void occupancy() {
+		final int count = 8, warmup = 5, rounds = 10;
+		Chunk[] chunks = generate(count);
+		long faces = 0, bits = 0, voxels = 0;
+		boolean same = true;
+		for (int round = 0; round < warmup + rounds; round++)
+			for (Chunk ch : chunks) {
+				long start = System.nanoTime();
+				int by_bits = ch.countFaces();
+				long middle = System.nanoTime();
+				int by_voxels = ch.countFacesPerVoxel();
+				long end = System.nanoTime();
+				same &= by_bits == by_voxels;
+				if (round >= warmup) {
+					bits += middle - start;
+					voxels += end - middle;
+					faces += by_bits;
+				}
+			}
+		double bits_ms = bits / 1e6 / (count * rounds), voxels_ms = voxels / 1e6 / (count * rounds);
+		System.out.println(String.format("%d chunks of %d voxels counted %d times, %s, %d visible faces per chunk%s", count, Chunk.CHUNK_SIZE, rounds, format,
+				faces / (count * rounds), same ? "" : ", the two counts differ"));
+		System.out.println(String.format("  %-14s %8.3f ms per chunk", "per voxel", voxels_ms));
+		System.out.println(String.format("  %-14s %8.3f ms per chunk, %.0fx faster", "occupancy bits", bits_ms, voxels_ms / bits_ms));
+	}
+
+	/**
+	 * flies the camera along z across chunk boundaries, each of which evicts a slice of
+	 * chunks into the `ChunkPool` and streams in a new one, and remeshes every chunk as
+	 * drawing it would. The first crossings fill the pool and are left out; the others
+	 * print the bytes allocated and the time per crossing, which are the new slice's
+	 * generation and meshing, the neighbours' stale borders and the shift of the grid.
+	 */
+	private void streaming() {
+		final int warmup = 4, crossings = 24;
+		World world = world(offheap ? new VoxelArena() : null);
+		ChunkPool pool = world.getPool();
+		long bytes = 0, nanos = 0, created = 0, reused = 0;
+		for (int i = 1; i <= warmup + crossings; i++) {
+			if (i == warmup + 1) {
+				created = pool.getCreatedCount();
+				reused = pool.getReusedCount();
+			}
+			long allocated = allocatedBytes(), start = System.nanoTime();
+			world.updatePos(Chunk.CHUNK_SIZE / 2, 0, i * Chunk.CHUNK_SIZE + Chunk.CHUNK_SIZE / 2);
+			remeshAll(world);
+			if (i > warmup) {
+				nanos += System.nanoTime() - start;
+				bytes += allocatedBytes() - allocated;
+			}
+		}
+		Chunk[][][] chunks = world.getChunks();
+		System.out.println(String.format("%d crossings of %d chunks of %d voxels, %s %s %s%s", crossings, chunks.length * chunks[0].length, Chunk.CHUNK_SIZE, format, mesh_mode,
+				vertex_format, offheap ? " off-heap" : ""));
+		System.out.println(String.format("  allocated %8.2f MB per crossing", bytes / 1048576.0 / crossings));
+		System.out.println(String.format("  time      %8.1f ms per crossing", nanos / 1e6 / crossings));
+		System.out.println(String.format("  pool      %d chunks reused, %d created", pool.getReusedCount() - reused, pool.getCreatedCount() - created));
+	}
+
+	/**
+	 * flies the camera along z at a voxel per frame, across several chunk boundaries,
+	 * once meshing on the render thread and once with a `ChunkMesher`, and prints the
+	 * mean and the 99th percentile of the render thread's CPU time per frame, over all
+	 * frames and over the frames crossing a boundary. A frame is what the render loop
+	 * does besides drawing: moving the world, which generates the new chunks on it, then
+	 * remeshing the chunks or handing them to the mesher, and applying finished jobs
+	 * within the same budget as `Main`, without the uploads. CPU time rather than wall
+	 * time, as the mesher's threads may share the render thread's cores.
+	 */
+	private void frames() {
+		final int frames = 10 * Chunk.CHUNK_SIZE, warmup = Chunk.CHUNK_SIZE;
+		final long budget = 2000000; // nanoseconds per frame, as `Main` uploads
+		System.out.println(String.format("%d frames at a voxel per frame, chunks of %d voxels, %s %s%s", frames - warmup, Chunk.CHUNK_SIZE, mesh_mode, vertex_format,
+				offheap ? " off-heap" : ""));
+		for (int threads : new int[] { 0, mesher_threads }) {
+			ChunkMesher mesher = threads > 0 ? new ChunkMesher(threads, 64) : null;
+			World world = new World(128, format, offheap ? new VoxelArena() : null, null, mesh_mode, vertex_format, mesher, null, ambient_occlusion, weld, optimize_nanos,
+					view_width, 0);
+			long[] all = new long[frames - warmup], crossing = new long[frames / Chunk.CHUNK_SIZE];
+			int crossings = 0;
+			for (int frame = 0; frame < frames; frame++) {
+				float z = frame + 0.5f;
+				long start = cpuTime();
+				world.updatePos(Chunk.CHUNK_SIZE / 2, 0, z);
+				remeshAll(world);
+				if (mesher != null)
+					mesher.apply(budget, false);
+				long time = cpuTime() - start;
+				if (frame < warmup)
+					continue;
+				all[frame - warmup] = time;
+				if (frame % Chunk.CHUNK_SIZE == 0)
+					crossing[crossings++] = time;
+			}
+			if (mesher != null)
+				mesher.shutdown();
+			System.out.println(String.format("  %-18s all frames mean %6.2f ms, p99 %6.1f ms; crossing frames mean %6.1f ms, p99 %6.1f ms",
+					threads == 0 ? "no mesher:" : threads + (threads == 1 ? " mesher thread:" : " mesher threads:"), mean(all, all.length), percentile(all, all.length, 99), mean(crossing, crossings),
+					percentile(crossing, crossings, 99)));
+		}
+	}
+
+	/**
+	 * returns the mean of the first `count` times, in milliseconds.
+	 */
+	private static double mean(long[] nanos, int count) {
+		long sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += nanos[i];
+		return sum / 1e6 / count;
+	}
+
+	/**
+	 * returns the given percentile of the first `count` times, in milliseconds, as the
+	 * time no more than that share of them exceeds.
+	 */
+	private static double percentile(long[] nanos, int count, int percent) {
+		long[] sorted = Arrays.copyOf(nanos, count);
+		Arrays.sort(sorted);
+		return sorted[Math.min(count - 1, (int) Math.ceil(count * percent / 100.0) - 1)] / 1e6;
+	}
+
+	/**
+	 * remeshes a row of generated chunks over and over, naively and greedily, and prints
+	 * the time and the bytes allocated per remesh of a chunk. The chunks have no
+	 * neighbours, so only their sections are meshed. A first round grows the vertex
+	 * lists to fit and warms the JIT up, and is left out.
+	 */
+	private void remesh() {
+		final int count = 8, rounds = 10;
+		Chunk[] chunks = generate(count);
+		System.out.println(String.format("%d chunks of %d voxels remeshed %d times, %s%s", count, Chunk.CHUNK_SIZE, rounds, vertex_format, weld ? "" : " unwelded"));
+		for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY }) {
+			long bytes = 0, nanos = 0;
+			for (int round = 0; round <= rounds; round++)
+				for (Chunk ch : chunks) {
+					ch.setMeshMode(mode);
+					long allocated = allocatedBytes(), start = System.nanoTime();
+					ch.toGenModel();
+					ch.remesh();
+					if (round > 0) {
+						nanos += System.nanoTime() - start;
+						bytes += allocatedBytes() - allocated;
+					}
+				}
+			System.out.println(String.format("  %-6s %8.2f ms per chunk, %8.3f MB allocated per chunk", mode, nanos / 1e6 / (count * rounds), bytes / 1048576.0 / (count * rounds)));
+		}
+	}
+
+	/**
+	 * toggles random voxels of generated chunks between air and solid one at a time, and
+	 * remeshes after each edit, which only rebuilds the sections the edit touches. Prints
+	 * the time of that against remeshing the whole chunk, naive and greedy, and the share
+	 * of the chunk's mesh data the edited parts make up, which is what gets uploaded
+	 * again. Afterwards every part has to be the same as a full remesh makes it.
+	 */
+	private void sections() {
+		final int count = 4, edits = 200, rounds = 5;
+		Chunk[] chunks = generate(count);
+		Random random = new Random(1);
+		System.out.println(String.format("%d chunks of %d voxels, %d edits each, %s%s", count, Chunk.CHUNK_SIZE, edits, vertex_format, weld ? "" : " unwelded"));
+		for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY }) {
+			long full = 0, incremental = 0, uploaded = 0, total = 0;
+			int differing = 0;
+			for (Chunk ch : chunks) {
+				ch.setMeshMode(mode);
+				for (int round = 0; round <= rounds; round++) {
+					long start = System.nanoTime();
+					ch.toGenModel();
+					ch.remesh();
+					if (round > 0) // the first one warms up
+						full += System.nanoTime() - start;
+				}
+				ChunkMesh[] parts = ch.getParts();
+				for (int i = 0; i < edits; i++) {
+					int x = random.nextInt(Chunk.CHUNK_SIZE), y = random.nextInt(Chunk.CHUNK_SIZE), z = random.nextInt(Chunk.CHUNK_SIZE);
+					ch.setBlock(x, y, z, ch.isSolid(x, y, z) ? Block.AIR : Block.SOLID);
+					long start = System.nanoTime();
+					int changed = ch.remesh();
+					incremental += System.nanoTime() - start;
+					for (int p = 0; p < parts.length; p++) {
+						if ((changed >>> p & 1) != 0)
+							uploaded += bytes(parts[p]);
+						total += bytes(parts[p]);
+					}
+				}
+				String[] edited = new String[parts.length];
+				for (int p = 0; p < parts.length; p++)
+					edited[p] = contents(parts[p]);
+				ch.toGenModel();
+				ch.remesh();
+				for (int p = 0; p < parts.length; p++)
+					if (!edited[p].equals(contents(parts[p])))
+						differing++;
+			}
+			double full_ms = full / 1e6 / (count * rounds), edit_ms = incremental / 1e6 / (count * edits);
+			System.out.println(String.format("  %-6s full %7.2f ms, one edit %6.2f ms, %5.1fx, %4.1f%% of the mesh data uploaded again, %d parts differing from a full remesh", mode, full_ms,
+					edit_ms, full_ms / edit_ms, 100.0 * uploaded / total, differing));
+		}
+	}
+
+	/**
+	 * meshes every chunk of the loaded area naively and greedily, without and with
+	 * ambient occlusion, and prints the best time of a few rounds and the vertices meshed.
+	 * With ambient occlusion, the greedy mesher only merges faces whose corners are
+	 * equally dark, so it makes more vertices.
+	 */
+	private void ambientOcclusion() {
+		final int rounds = 8;
+		World world = world(offheap ? new VoxelArena() : null);
+		Chunk[][][] chunks = world.getChunks();
+		System.out.println(String.format("%d chunks of %d voxels meshed, best of %d, %s%s", chunks.length * chunks[0].length * chunks[0][0].length, Chunk.CHUNK_SIZE, rounds,
+				vertex_format, weld ? "" : " unwelded"));
+		for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY }) {
+			double[] millis = new double[2];
+			long[] vertices = new long[2];
+			for (int ao = 0; ao < 2; ao++) {
+				long best = Long.MAX_VALUE;
+				for (int round = 0; round <= rounds; round++) {
+					long start = System.nanoTime();
+					for (Chunk[][] plane : chunks)
+						for (Chunk[] row : plane)
+							for (Chunk ch : row) {
+								ch.setMeshMode(mode);
+								ch.setAmbientOcclusion(ao == 1);
+								ch.toGenModel();
+								ch.remesh();
+							}
+					if (round > 0) // the first one warms up
+						best = Math.min(best, System.nanoTime() - start);
+				}
+				millis[ao] = best / 1e6;
+				for (Chunk[][] plane : chunks)
+					for (Chunk[] row : plane)
+						for (Chunk ch : row)
+							for (ChunkMesh part : ch.getParts())
+								vertices[ao] += part.getVertexCount();
+			}
+			System.out.println(String.format("  %-6s %7.1f ms -> %7.1f ms with ambient occlusion (%.2fx), %6.2fM -> %6.2fM vertices", mode, millis[0], millis[1],
+					millis[1] / millis[0], vertices[0] / 1e6, vertices[1] / 1e6));
+		}
+	}
+
+	/**
+	 * remeshes a row of generated chunks naively and greedily, with and without ambient
+	 * occlusion, and prints the mean and the best time per chunk and the quads per chunk.
+	 * Welding and reordering are turned off, so only the meshers themselves are timed.
+	 * The first rounds warm the JIT up and are left out.
+	 */
+	private void greedy() {
+		final int count = 8, warmup = 5, rounds = 10;
+		Chunk[] chunks = generate(count);
+		for (Chunk ch : chunks) {
+			ch.setWelding(false);
+			ch.setOptimizing(0);
+		}
+		System.out.println(String.format("%d chunks of %d voxels remeshed %d times, %s, unwelded", count, Chunk.CHUNK_SIZE, rounds, vertex_format));
+		for (int ao = 0; ao < 2; ao++)
+			for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY }) {
+				long nanos = 0, best = Long.MAX_VALUE, quads = 0;
+				for (Chunk ch : chunks) {
+					ch.setMeshMode(mode);
+					ch.setAmbientOcclusion(ao == 1);
+				}
+				for (int round = 0; round < warmup + rounds; round++)
+					for (Chunk ch : chunks) {
+						long start = System.nanoTime();
+						ch.toGenModel();
+						ch.remesh();
+						long time = System.nanoTime() - start;
+						if (round >= warmup) {
+							nanos += time;
+							best = Math.min(best, time);
+						}
+					}
+				for (Chunk ch : chunks)
+					for (ChunkMesh part : ch.getParts())
+						quads += part.getIndices().size() / 6;
+				System.out.println(String.format("  %-6s %-7s %6.2f ms per chunk, best %6.2f ms, %7d quads per chunk", mode, ao == 1 ? "AO" : "no AO", nanos / 1e6 / (count * rounds),
+						best / 1e6, quads / count));
+			}
+	}
+
+	/**
+	 * loads areas from 256 voxels wide up to the view width, doubling it each time, all
+	 * at full resolution and then with the chunks farther than 96 voxels drawn coarser,
+	 * and prints the triangles the whole area would draw and the time it took to
+	 * generate and mesh it. Nothing is culled, so these are the triangles of looking
+	 * every way at once. The area at full resolution is kept meshed in memory as a
+	 * whole, which at a view of 1024 fits in a 4 GB heap with packed unwelded vertices.
+	 */
+	private void lod() {
+		final int lod_distance = 96;
+		System.out.println(String.format("chunks of %d voxels, %s %s%s", Chunk.CHUNK_SIZE, mesh_mode, vertex_format, weld ? "" : " unwelded"));
+		for (int width = 256; width <= Math.max(256, view_width); width *= 2)
+			for (int distance : new int[] { 0, lod_distance }) {
+				long start = System.nanoTime();
+				World world = new World(128, format, offheap ? new VoxelArena() : null, null, mesh_mode, vertex_format, null, null, ambient_occlusion, weld, optimize_nanos, width,
+						distance);
+				long triangles = 0;
+				int[] levels = new int[Chunk.MAX_LOD + 1];
+				for (Chunk[][] plane : world.getChunks())
+					for (Chunk[] row : plane)
+						for (Chunk ch : row) {
+							levels[ch.getLod()]++;
+							if (ch.getLod() > 0) {
+								triangles += ch.remeshLod().getTriangleCount();
+								continue;
+							}
+							ch.remesh();
+							for (ChunkMesh part : ch.getParts())
+								triangles += part.getTriangleCount();
+						}
+				System.out.println(String.format("  view %4d, %-9s %7.2fM triangles, chunks per level %-14s %6.0f ms", width, distance == 0 ? "no LOD:" : "lod " + distance + ":",
+						triangles / 1e6, Arrays.toString(levels), (System.nanoTime() - start) / 1e6));
+			}
+	}
+
+	/**
+	 * meshes every chunk of the loaded area with each mesher and prints the triangles,
+	 * the vertices per triangle and the triangles and chunks meshed per second, over a
+	 * few rounds after a first one that warms the JIT up and samples the density fields.
+	 * Smooth meshes need float vertices, so they are left out with packed ones.
+	 */
+	private void modes() {
+		final int rounds = 4;
+		World world = world(offheap ? new VoxelArena() : null);
+		Chunk[][][] chunks = world.getChunks();
+		int count = chunks.length * chunks[0].length * chunks[0][0].length;
+		System.out.println(String.format("%d chunks of %d voxels meshed %d times, %s%s", count, Chunk.CHUNK_SIZE, rounds, vertex_format, weld ? "" : " unwelded"));
+		for (MeshMode mode : MeshMode.values()) {
+			if (mode == MeshMode.SMOOTH && vertex_format != VertexFormat.FLOAT)
+				continue;
+			long nanos = 0;
+			for (int round = 0; round <= rounds; round++) {
+				long start = System.nanoTime();
+				for (Chunk[][] plane : chunks)
+					for (Chunk[] row : plane)
+						for (Chunk ch : row) {
+							ch.setMeshMode(mode);
+							ch.toGenModel();
+							ch.remesh();
+						}
+				if (round > 0)
+					nanos += System.nanoTime() - start;
+			}
+			long triangles = 0, vertices = 0;
+			for (Chunk[][] plane : chunks)
+				for (Chunk[] row : plane)
+					for (Chunk ch : row)
+						for (ChunkMesh part : ch.getParts()) {
+							triangles += part.getTriangleCount();
+							vertices += part.getVertexCount();
+						}
+			double seconds = nanos / 1e9 / rounds;
+			System.out.println(String.format("  %-6s %6.2fM triangles, %4.2f vertices per triangle, %5.1fM triangles/s, %4.0f chunks/s", mode, triangles / 1e6,
+					(double) vertices / triangles, triangles / 1e6 / seconds, count / seconds));
+		}
+	}
+
+	/**
+	 * meshes every chunk of the loaded area naively and greedily, without and with
+	 * welding, and prints the vertices, the best time of a few rounds, and the sizes of
+	 * the vertex and index buffers the chunks' models would be uploaded with. Those are
+	 * laid out part by part as `Model` does, each with room to spare, and parts with room
+	 * for at most `Model.MAX_SHORT_VERTICES` get 16 bit indices.
+	 */
+	private void weld() {
+		final int rounds = 3;
+		World world = world(offheap ? new VoxelArena() : null);
+		Chunk[][][] chunks = world.getChunks();
+		System.out.println(String.format("%d chunks of %d voxels meshed, best of %d, %s", chunks.length * chunks[0].length * chunks[0][0].length, Chunk.CHUNK_SIZE, rounds,
+				vertex_format));
+		for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY })
+			for (int welded = 0; welded < 2; welded++) {
+				long best = Long.MAX_VALUE;
+				for (int round = 0; round <= rounds; round++) {
+					long start = System.nanoTime();
+					for (Chunk[][] plane : chunks)
+						for (Chunk[] row : plane)
+							for (Chunk ch : row) {
+								ch.setMeshMode(mode);
+								ch.setWelding(welded == 1);
+								ch.toGenModel();
+								ch.remesh();
+							}
+					if (round > 0) // the first one warms up
+						best = Math.min(best, System.nanoTime() - start);
+				}
+				long vertices = 0, vbo = 0, ibo = 0, saved = 0;
+				int parts = 0, short_parts = 0;
+				for (Chunk[][] plane : chunks)
+					for (Chunk[] row : plane)
+						for (Chunk ch : row)
+							for (ChunkMesh part : ch.getParts()) {
+								int room = Model.vertexRoom(part.getVertexCount()), indices = Model.indexRoom(part.getIndices().size());
+								boolean short_indices = room <= Model.MAX_SHORT_VERTICES;
+								vertices += part.getVertexCount();
+								vbo += (long) room * vertex_format.getBytes();
+								ibo += indices * (short_indices ? 2L : 4L) + 3 & ~3;
+								if (short_indices) {
+									saved += indices * 2L;
+									short_parts++;
+								}
+								parts++;
+							}
+				System.out.println(String.format("  %-6s %-8s %6.2fM vertices, vbo %6.1f MB, ibo %6.1f MB, %5.1f MB saved by %d of %d parts with 16 bit indices, %6.1f ms", mode,
+						welded == 1 ? "welded" : "unwelded", vertices / 1e6, vbo / 1048576.0, ibo / 1048576.0, saved / 1048576.0, short_parts, parts, best / 1e6));
+			}
+	}
+
+	/**
+	 * meshes every chunk of the loaded area with each mesher, with and without
+	 * reordering the triangles, and prints the average cache miss ratio of the reordered
+	 * meshes in the order they were meshed and after reordering, see
+	 * `ChunkMesh.getCacheMisses()`, and the time reordering adds per triangle and per
+	 * chunk, from the best of a few rounds each. Each chunk gets the time budget the
+	 * program was started with, or a second, which none runs out of, without one.
+	 */
+	private void optimize() {
+		final int rounds = 3;
+		long budget = optimize_nanos > 0 ? optimize_nanos : 1000000000L;
+		World world = world(offheap ? new VoxelArena() : null);
+		Chunk[][][] chunks = world.getChunks();
+		int count = chunks.length * chunks[0].length * chunks[0][0].length;
+		System.out.println(String.format("%d chunks of %d voxels meshed, best of %d, %s%s, %.1f ms budget per chunk", count, Chunk.CHUNK_SIZE, rounds, vertex_format,
+				weld ? "" : " unwelded", budget / 1e6));
+		for (MeshMode mode : MeshMode.values()) {
+			if (mode == MeshMode.SMOOTH && vertex_format != VertexFormat.FLOAT)
+				continue;
+			long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+			for (int optimized = 0; optimized < 2; optimized++)
+				for (int round = 0; round <= rounds; round++) {
+					long start = System.nanoTime();
+					for (Chunk[][] plane : chunks)
+						for (Chunk[] row : plane)
+							for (Chunk ch : row) {
+								ch.setMeshMode(mode);
+								ch.setOptimizing(optimized == 1 ? budget : 0);
+								ch.toGenModel();
+								ch.remesh();
+							}
+					if (round > 0) // the first one warms up
+						best[optimized] = Math.min(best[optimized], System.nanoTime() - start);
+				}
+			long triangles = 0, meshed = 0, reordered = 0;
+			for (Chunk[][] plane : chunks)
+				for (Chunk[] row : plane)
+					for (Chunk ch : row)
+						for (ChunkMesh part : ch.getParts())
+							if (part.getCacheMisses(false) != 0) { // reordered
+								triangles += part.getTriangleCount();
+								meshed += part.getCacheMisses(false);
+								reordered += part.getCacheMisses(true);
+							}
+			long cost = best[1] - best[0];
+			System.out.println(String.format("  %-6s ACMR %4.2f -> %4.2f, %5.1f ns per triangle, %5.1f ms per chunk", mode, (double) meshed / triangles,
+					(double) reordered / triangles, (double) cost / triangles, cost / 1e6 / count));
+		}
+	}
+
+	/**
+	 * generates a row of chunks set up with the benchmark's options, without neighbours.
+	 */
+	private Chunk[] generate(int count) {
+		VoxelArena arena = offheap ? new VoxelArena() : null;
+		Chunk[] chunks = new Chunk[count];
+		for (int i = 0; i < count; i++) {
+			chunks[i] = new Chunk(i - count / 2, 0, 0, format, arena);
+			chunks[i].updateBlocks();
+			chunks[i].setVertexFormat(vertex_format);
+			chunks[i].setAmbientOcclusion(ambient_occlusion);
+			chunks[i].setWelding(weld);
+			chunks[i].setOptimizing(optimize_nanos);
+		}
+		return chunks;
+	}
+
+	/**
+	 * returns the size of a mesh part as uploaded, counting 4 bytes per index.
+	 */
+	private static long bytes(ChunkMesh part) {
+		return part.getVertexCount() * (long) part.getFormat().getBytes() + part.getIndices().size() * 4L;
+	}
+
+	/**
+	 * returns the vertices and indices of a mesh part as a string, for comparing parts.
+	 */
+	private static String contents(ChunkMesh part) {
+		String vertices = part.getPacked() != null ? Arrays.toString(part.getPacked().toArray()) : Arrays.toString(part.getVertices().toArray());
+		return vertices + Arrays.toString(part.getIndices().toArray());
+	}
+
+	/**
+	 * creates the loaded area around the origin, generated and meshed on the calling
+	 * thread.
+	 */
+	private World world(VoxelArena arena) {
+		return new World(128, format, arena, null, mesh_mode, vertex_format, null, null, ambient_occlusion, weld, optimize_nanos, view_width, 0);
+	}
+
+	/**
+	 * brings the meshes of every chunk in the world up to date, as drawing them would
+	 * before the upload.
+	 */
+	private static void remeshAll(World world) {
+		for (Chunk[][] plane : world.getChunks())
+			for (Chunk[] row : plane)
+				for (Chunk ch : row)
+					ch.remesh();
+	}
+
+	/**
+	 * returns the bytes the calling thread allocated so far.
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * returns the CPU time the calling thread used so far, in nanoseconds.
+	 */
+	private static long cpuTime() {
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+	}
+
+	/**
+	 * returns the heap in use after a garbage collection.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,483 @@
+package com.ch.voxel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.ch.Model;
+import com.ch.VertexFormat;
+
+/**
+ * headless checks of the chunk meshes, run by `Main` with `-check <name>` instead of
+ * opening a window. Each builds a small world on the calling thread, without a mesher
+ * or a generator, edits it at random including a non-opaque block, and reads the
+ * meshes back as `Chunk.remesh()` leaves them for the upload, so no GL context is
+ * needed. The triangles are rasterized onto the voxel faces they cover, see
+ * `cover()`, which makes meshes of different triangle counts comparable face by face.
+ * Checks:
+ *
+ * 	- `greedy`: the greedy meshes cover exactly the faces the naive ones cover, once
+ * each, with the same texture orientation and shading, with and without ambient
+ * occlusion.
+ * 	- `watertight`: the meshes of all chunks together cover exactly the faces between
+ * the voxels of the loaded area, once each, after generation, after the area moved on
+ * by a chunk and after edits along the chunks' borders.
+ * 	- `packed`: every field of a `PackedVertex` decodes to what was packed, over all
+ * corner positions up to `PackedVertex.MAX_COORD`, all six faces and every shading
+ * level and texture layer, and packed meshes cover the same faces as float ones with
+ * the same texture orientation and shading.
+ */
+public final class VoxelChecks {
+
+	private static final int VIEW_WIDTH = 128; // voxels, as given to `World`
+	private static final int EDITS = 2000;
+
+	private final VoxelFormat format;
+	private final MeshMode mesh_mode;
+	private final VertexFormat vertex_format;
+	private final boolean ambient_occlusion;
+	private final boolean weld;
+	private final long optimize_nanos;
+
+	/**
+	 * sets up the checks to use the options the program was started with, where a check
+	 * does not compare the options itself.
+	 *
+	 * @param format layout of the chunks' voxel data.
+	 *
+	 * @param mesh_mode mesher used for the chunks.
+	 *
+	 * @param vertex_format vertex layout of the chunk meshes.
+	 *
+	 * @param ambient_occlusion `true` to bake ambient occlusion into the meshes.
+	 *
+	 * @param weld `true` to merge the vertices the faces share.
+	 *
+	 * @param optimize_nanos time each chunk may spend reordering its triangles, 0 to keep
+	 * them in the order they are meshed.
+	 */
+	public VoxelChecks(VoxelFormat format, MeshMode mesh_mode, VertexFormat vertex_format, boolean ambient_occlusion, boolean weld, long optimize_nanos) {
+		this.format = format;
+		this.mesh_mode = mesh_mode;
+		this.vertex_format = vertex_format;
+		this.ambient_occlusion = ambient_occlusion;
+		this.weld = weld;
+		this.optimize_nanos = optimize_nanos;
+	}
+
+	/**
+	 * runs a check and prints what it compared.
+	 *
+	 * @param name name of the check, see the class description.
+	 *
+	 * @returns `true` if the check passed, `false` if it failed or there is no check of
+	 * that name.
+	 */
+	public boolean run(String name) {
+		switch (name) {
+		case "greedy":
+			return greedy();
+		case "watertight":
+			return watertight();
+		case "packed":
+			return packed();
+		default:
+			System.err.println("unknown check: " + name);
+			return false;
+		}
+	}
+
+	/**
+	 * meshes the same edited world naively and greedily, with the ambient occlusion off
+	 * and on, and compares the faces the two cover. Each face has to be covered by both
+	 * or neither, exactly once, and the texture coordinates and corner shading the two
+	 * interpolate over it have to match.
+	 */
+	private boolean greedy() {
+		boolean passed = true;
+		for (boolean ao : new boolean[] { false, true }) {
+			World naive = world(MeshMode.NAIVE, vertex_format, ao), greedy = world(MeshMode.GREEDY, vertex_format, ao);
+			Map<Long, String> expected = new HashMap<>(), actual = new HashMap<>();
+			int overlaps = cover(naive, expected) + cover(greedy, actual);
+			int differing = 0;
+			for (Map.Entry<Long, String> cell : expected.entrySet())
+				if (!cell.getValue().equals(actual.get(cell.getKey())))
+					differing++;
+			for (Long cell : actual.keySet())
+				if (!expected.containsKey(cell))
+					differing++;
+			long naive_triangles = triangles(naive), greedy_triangles = triangles(greedy);
+			System.out.println(String.format("%s %s, ambient occlusion %s: %d faces, %d triangles naive, %d greedy (%.1fx fewer), %d faces differing, %d covered twice",
+					format, vertex_format, ao ? "on" : "off", expected.size(), naive_triangles, greedy_triangles, (double) naive_triangles / greedy_triangles, differing, overlaps));
+			passed &= differing == 0 && overlaps == 0;
+		}
+		System.out.println(passed ? "passed" : "FAILED");
+		return passed;
+	}
+
+	/**
+	 * packs and unpacks every corner position a chunk of up to `PackedVertex.MAX_COORD`
+	 * voxels has, with each of the six faces and a random shading level and layer, then
+	 * every combination of face, shading and layer at the corners of that range. Then
+	 * meshes the edited world with float and with packed vertices and compares the faces
+	 * they cover, which is where the face index has to match the direction the corners
+	 * go around and the texture coordinates the shader derives have to match the float
+	 * ones. The packed layers are compared with the blocks' textures instead.
+	 */
+	private boolean packed() {
+		final int max = PackedVertex.MAX_COORD;
+		Random random = new Random(1);
+		long vertices = 0, failures = 0;
+		for (int x = 0; x <= max; x++)
+			for (int y = 0; y <= max; y++)
+				for (int z = 0; z <= max; z++)
+					for (int face = 0; face < 6; face++) {
+						vertices++;
+						if (!roundTrip(x, y, z, face, random.nextInt(PackedVertex.AO_NONE + 1), random.nextInt(PackedVertex.MAX_LAYER + 1)))
+							failures++;
+					}
+		for (int corner = 0; corner < 8; corner++)
+			for (int face = 0; face < 6; face++)
+				for (int ao = 0; ao <= PackedVertex.AO_NONE; ao++)
+					for (int layer = 0; layer <= PackedVertex.MAX_LAYER; layer++) {
+						vertices++;
+						if (!roundTrip((corner & 1) * max, (corner >>> 1 & 1) * max, (corner >>> 2) * max, face, ao, layer))
+							failures++;
+					}
+		System.out.println(String.format("%d vertices packed and unpacked, %d differing", vertices, failures));
+		boolean passed = failures == 0;
+		if (Chunk.CHUNK_SIZE > max) {
+			System.out.println(String.format("meshes not compared, packed vertices need chunks of at most %d voxels", max));
+		} else {
+			for (MeshMode mode : new MeshMode[] { MeshMode.NAIVE, MeshMode.GREEDY }) {
+				Map<Long, String> floats = new HashMap<>(), packed = new HashMap<>();
+				int overlaps = cover(world(mode, VertexFormat.FLOAT, ambient_occlusion), floats);
+				World world = world(mode, VertexFormat.PACKED, ambient_occlusion);
+				overlaps += cover(world, packed);
+				int differing = 0, layers = 0;
+				for (Map.Entry<Long, String> cell : packed.entrySet()) {
+					// the layer comes last, float cells have none
+					String value = cell.getValue(), orientation = value.substring(0, value.lastIndexOf(' '));
+					String expected = floats.get(cell.getKey());
+					if (expected == null || !orientation.equals(expected.substring(0, expected.lastIndexOf(' '))))
+						differing++;
+					if (Integer.parseInt(value.substring(value.lastIndexOf(' ') + 1)) != textureAt(world, cell.getKey()))
+						layers++;
+				}
+				for (Long cell : floats.keySet())
+					if (!packed.containsKey(cell))
+						differing++;
+				System.out.println(String.format("%s %s, ambient occlusion %s: %d faces, %d differing from float vertices, %d with the wrong layer, %d covered twice", format, mode,
+						ambient_occlusion ? "on" : "off", floats.size(), differing, layers, overlaps));
+				passed &= differing == 0 && layers == 0 && overlaps == 0;
+			}
+		}
+		System.out.println(passed ? "passed" : "FAILED");
+		return passed;
+	}
+
+	private static boolean roundTrip(int x, int y, int z, int face, int ao, int layer) {
+		int v = PackedVertex.pack(x, y, z, face, ao, layer);
+		return PackedVertex.getX(v) == x && PackedVertex.getY(v) == y && PackedVertex.getZ(v) == z && PackedVertex.getFace(v) == face && PackedVertex.getAo(v) == ao
+				&& PackedVertex.getLayer(v) == layer;
+	}
+
+	/**
+	 * returns the texture of the block behind a face of `cellKey()`.
+	 */
+	private static int textureAt(World world, long cell) {
+		Chunk[][][] chunks = world.getChunks();
+		final int n = Chunk.CHUNK_SIZE;
+		final Chunk corner = chunks[0][0][0];
+		int face = (int) (cell >>> 48);
+		int axis = face < 2 ? 2 : face < 4 ? 1 : 0;
+		int[] p = new int[3];
+		p[axis] = (short) (cell >>> 32) - ((face & 1) == 0 ? 0 : 1); // the plane of a face looking up its axis is past the voxel
+		p[(axis + 1) % 3] = (short) (cell >>> 16);
+		p[(axis + 2) % 3] = (short) cell;
+		p[0] -= corner.x * n;
+		p[1] -= corner.y * n;
+		p[2] -= corner.z * n;
+		return BlockRegistry.getTexture(blockAt(chunks, p), 1 << face);
+	}
+
+	/**
+	 * compares the faces the meshes of all chunks cover with the faces the voxels of
+	 * the loaded area should show, see `expectedFaces()`, on the edited world, after
+	 * moving the camera into the next chunk along z, which streams in a slice of chunks
+	 * and remeshes the borders of the ones next to it, and after editing the voxels on
+	 * both sides of the borders of a chunk.
+	 */
+	private boolean watertight() {
+		if (mesh_mode == MeshMode.SMOOTH) {
+			System.err.println("-check watertight compares block faces, it does not apply to -smooth");
+			return false;
+		}
+		World world = world(mesh_mode, vertex_format, ambient_occlusion);
+		boolean passed = watertight(world, "edited");
+		world.updatePos(Chunk.CHUNK_SIZE / 2, 0, Chunk.CHUNK_SIZE + Chunk.CHUNK_SIZE / 2);
+		remeshAll(world);
+		passed &= watertight(world, "moved on by a chunk");
+		// a tunnel through one side, a wall along another and glass along a third
+		final int last = Chunk.CHUNK_SIZE - 1;
+		Chunk ch = world.getChunks()[0][0][0];
+		for (int i = 0; i < Chunk.CHUNK_SIZE; i++) {
+			ch.setBlock(last, i, Chunk.CHUNK_SIZE / 2, Block.AIR);
+			ch.setBlock(i, last, Chunk.CHUNK_SIZE / 3, Block.SOLID);
+			ch.setBlock(Chunk.CHUNK_SIZE / 4, i, last, clearBlock());
+		}
+		remeshAll(world);
+		passed &= watertight(world, "edited along the borders");
+		System.out.println(passed ? "passed" : "FAILED");
+		return passed;
+	}
+
+	private boolean watertight(World world, String state) {
+		Map<Long, String> cells = new HashMap<>();
+		int overlaps = cover(world, cells);
+		Set<Long> expected = expectedFaces(world);
+		int holes = 0, extra = 0;
+		for (Long cell : expected)
+			if (!cells.containsKey(cell))
+				holes++;
+		for (Long cell : cells.keySet())
+			if (!expected.contains(cell))
+				extra++;
+		System.out.println(String.format("%s %s %s, %s: %d faces, %d holes, %d extra, %d covered twice", format, mesh_mode, vertex_format, state, expected.size(), holes, extra, overlaps));
+		return holes == 0 && extra == 0 && overlaps == 0;
+	}
+
+	/**
+	 * finds the faces the voxels of the loaded area should show, keyed like `cover()`
+	 * keys them. A block shows a face where the voxel next to it is not opaque, and for
+	 * a non-opaque block also not the same block, but only within a chunk: across a
+	 * chunk's border only opacity counts, as `Chunk.meshBorder()` does not read the
+	 * neighbour's blocks. Faces towards the outside of the loaded area are not shown.
+	 */
+	private static Set<Long> expectedFaces(World world) {
+		Chunk[][][] chunks = world.getChunks();
+		final int n = Chunk.CHUNK_SIZE;
+		final int[] size = { chunks.length * n, chunks[0].length * n, chunks[0][0].length * n };
+		final Chunk corner = chunks[0][0][0];
+		final int[] origin = { corner.x * n, corner.y * n, corner.z * n };
+		Set<Long> faces = new HashSet<>();
+		int[] p = new int[3], q = new int[3];
+		for (p[0] = 0; p[0] < size[0]; p[0]++)
+			for (p[1] = 0; p[1] < size[1]; p[1]++)
+				for (p[2] = 0; p[2] < size[2]; p[2]++) {
+					int id = blockAt(chunks, p);
+					if (id == Block.AIR)
+						continue;
+					for (int face = 0; face < 6; face++) {
+						int axis = face < 2 ? 2 : face < 4 ? 1 : 0, a = (axis + 1) % 3, b = (axis + 2) % 3;
+						int step = (face & 1) == 0 ? -1 : 1; // FACE_FT, FACE_BT and FACE_LT look down their axis
+						System.arraycopy(p, 0, q, 0, 3);
+						q[axis] += step;
+						if (q[axis] < 0 || q[axis] >= size[axis])
+							continue;
+						int other = blockAt(chunks, q);
+						if (BlockRegistry.isOpaque(other))
+							continue;
+						if (!BlockRegistry.isOpaque(id) && other == id && q[axis] / n == p[axis] / n)
+							continue;
+						int plane = p[axis] + (step > 0 ? 1 : 0);
+						faces.add(cellKey(face, plane + origin[axis], p[a] + origin[a], p[b] + origin[b]));
+					}
+				}
+		return faces;
+	}
+
+	/**
+	 * returns the block at a position in the loaded area, in voxels from its corner.
+	 */
+	private static int blockAt(Chunk[][][] chunks, int[] p) {
+		final int n = Chunk.CHUNK_SIZE;
+		return chunks[p[0] / n][p[1] / n][p[2] / n].getBlock(p[0] % n, p[1] % n, p[2] % n);
+	}
+
+	/**
+	 * creates the world the checks run on and applies the same random edits to it every
+	 * time, then brings its meshes up to date.
+	 */
+	private World world(MeshMode mesh_mode, VertexFormat vertex_format, boolean ambient_occlusion) {
+		World world = new World(VIEW_WIDTH, format, null, null, mesh_mode, vertex_format, null, null, ambient_occlusion, weld, optimize_nanos, VIEW_WIDTH, 0);
+		Chunk[][][] chunks = world.getChunks();
+		int glass = clearBlock();
+		Random random = new Random(1);
+		for (int i = 0; i < EDITS; i++) {
+			Chunk ch = chunks[random.nextInt(chunks.length)][random.nextInt(chunks[0].length)][random.nextInt(chunks[0][0].length)];
+			int x = random.nextInt(Chunk.CHUNK_SIZE), y = random.nextInt(Chunk.CHUNK_SIZE), z = random.nextInt(Chunk.CHUNK_SIZE);
+			int pick = random.nextInt(3);
+			ch.setBlock(x, y, z, pick == 0 ? Block.AIR : pick == 1 ? Block.SOLID : glass);
+		}
+		remeshAll(world);
+		return world;
+	}
+
+	/**
+	 * brings the meshes of every chunk in the world up to date, as drawing them would
+	 * before the upload.
+	 */
+	private static void remeshAll(World world) {
+		for (Chunk[][] plane : world.getChunks())
+			for (Chunk[] row : plane)
+				for (Chunk ch : row)
+					ch.remesh();
+	}
+
+	/**
+	 * returns the id of the non-opaque block the checks place, registering it the first
+	 * time. It has a texture of its own so that packed cells tell it apart.
+	 */
+	private static int clearBlock() {
+		int id = BlockRegistry.getId("check glass");
+		return id >= 0 ? id : BlockRegistry.register("check glass", false, true, true, 0, 1);
+	}
+
+	private static long triangles(World world) {
+		long triangles = 0;
+		for (Chunk[][] plane : world.getChunks())
+			for (Chunk[] row : plane)
+				for (Chunk ch : row)
+					for (ChunkMesh part : ch.getParts())
+						triangles += part.getTriangleCount();
+		return triangles;
+	}
+
+	/**
+	 * rasterizes the meshes of every chunk of a world, see `cover(ChunkMesh, ...)`.
+	 *
+	 * @returns the number of faces covered more than once.
+	 */
+	private static int cover(World world, Map<Long, String> cells) {
+		int overlaps = 0;
+		for (Chunk[][] plane : world.getChunks())
+			for (Chunk[] row : plane)
+				for (Chunk ch : row)
+					for (ChunkMesh part : ch.getParts())
+						overlaps += cover(part, ch.x * Chunk.CHUNK_SIZE, ch.y * Chunk.CHUNK_SIZE, ch.z * Chunk.CHUNK_SIZE, cells);
+		return overlaps;
+	}
+
+	/**
+	 * rasterizes the triangles of a mesh onto the voxel faces they cover. A face belongs
+	 * to the triangle its center falls in, and a center on an edge shared by two
+	 * triangles to only one of them by the top-left rule, so every face of a closed
+	 * surface is covered exactly once however its quads were split or merged. The
+	 * coordinates are doubled to keep the centers on integers.
+	 *
+	 * Each face goes into `cells` under `cellKey()` with what the triangle interpolates
+	 * over it: how the texture coordinates run along the face's two axes and where they
+	 * start, the shading at its center and for packed vertices the texture layer.
+	 *
+	 * @param ox world position of the chunk's corner, in voxels.
+	 *
+	 * @returns the number of faces that were already in `cells`.
+	 */
+	private static int cover(ChunkMesh mesh, int ox, int oy, int oz, Map<Long, String> cells) {
+		final int[] indices = mesh.getIndices().array();
+		final int count = mesh.getIndices().size();
+		final long[][] corner = new long[3][3];
+		final double[][] value = new double[3][3]; // u, v and shading of each corner
+		int overlaps = 0;
+		for (int t = 0; t < count; t += 3) {
+			int face = mesh.faceOf(t / 3), layer = 0;
+			for (int k = 0; k < 3; k++) {
+				int i = indices[t + k];
+				if (mesh.getPacked() != null) {
+					int v = mesh.getPacked().get(i);
+					corner[k][0] = PackedVertex.getX(v);
+					corner[k][1] = PackedVertex.getY(v);
+					corner[k][2] = PackedVertex.getZ(v);
+					value[k][0] = PackedVertex.getU(v);
+					value[k][1] = PackedVertex.getV(v);
+					value[k][2] = PackedVertex.getAo(v);
+					layer = PackedVertex.getLayer(v);
+				} else {
+					float[] v = mesh.getVertices().array();
+					int o = i * Model.VERTEX_SIZE;
+					for (int j = 0; j < 3; j++) {
+						corner[k][j] = Math.round(v[o + j]);
+						value[k][j] = v[o + 3 + j];
+					}
+				}
+				corner[k][0] = 2 * (corner[k][0] + ox);
+				corner[k][1] = 2 * (corner[k][1] + oy);
+				corner[k][2] = 2 * (corner[k][2] + oz);
+			}
+			// the face's normal axis, and its two in-plane axes a and b
+			int axis = face < 2 ? 2 : face < 4 ? 1 : 0, a = (axis + 1) % 3, b = (axis + 2) % 3;
+			long a0 = corner[0][a], b0 = corner[0][b];
+			long a1 = corner[1][a] - a0, b1 = corner[1][b] - b0, a2 = corner[2][a] - a0, b2 = corner[2][b] - b0;
+			long area = a1 * b2 - a2 * b1;
+			if (area == 0)
+				continue;
+			// the gradients of the values along a and b, per voxel
+			double[] da = new double[3], db = new double[3];
+			for (int j = 0; j < 3; j++) {
+				double d1 = value[1][j] - value[0][j], d2 = value[2][j] - value[0][j];
+				da[j] = 2 * (d1 * b2 - d2 * b1) / area;
+				db[j] = 2 * (a1 * d2 - a2 * d1) / area;
+			}
+			int[] order = area > 0 ? new int[] { 0, 1, 2 } : new int[] { 0, 2, 1 };
+			long min_a = Math.min(a0, Math.min(corner[1][a], corner[2][a])), max_a = Math.max(a0, Math.max(corner[1][a], corner[2][a]));
+			long min_b = Math.min(b0, Math.min(corner[1][b], corner[2][b])), max_b = Math.max(b0, Math.max(corner[1][b], corner[2][b]));
+			for (long ca = min_a + 1; ca < max_a; ca += 2)
+				for (long cb = min_b + 1; cb < max_b; cb += 2) {
+					boolean inside = true;
+					for (int e = 0; e < 3 && inside; e++) {
+						long[] p = corner[order[e]], q = corner[order[(e + 1) % 3]];
+						long ea = q[a] - p[a], eb = q[b] - p[b];
+						long side = ea * (cb - p[b]) - eb * (ca - p[a]);
+						inside = side > 0 || side == 0 && (eb < 0 || eb == 0 && ea > 0);
+					}
+					if (!inside)
+						continue;
+					// values at the face's lower corner and shading at its center
+					double da0 = (ca - 1 - a0) / 2.0, db0 = (cb - 1 - b0) / 2.0;
+					double u = value[0][0] + da[0] * da0 + db[0] * db0, v = value[0][1] + da[1] * da0 + db[1] * db0;
+					double shade = value[0][2] + da[2] * (da0 + 0.5) + db[2] * (db0 + 0.5);
+					String cell = fixed(da[0]) + " " + fixed(db[0]) + " " + fixed(da[1]) + " " + fixed(db[1]) + " " + fixed(frac(u)) + " " + fixed(frac(v)) + " " + fixed(shade) + " " + layer;
+					if (cells.put(cellKey(face, (int) (corner[0][axis] >> 1), (int) (ca >> 1), (int) (cb >> 1)), cell) != null)
+						overlaps++;
+				}
+		}
+		return overlaps;
+	}
+
+	/**
+	 * returns the fractional part of a texture coordinate, 0 where the texture starts
+	 * over at the face's edge as it should.
+	 */
+	private static double frac(double c) {
+		double f = c - Math.floor(c + 0.0005);
+		return Math.abs(f) < 0.0005 ? 0 : f;
+	}
+
+	/**
+	 * rounds a value to thousandths, so that values equal up to float rounding compare
+	 * equal.
+	 */
+	private static long fixed(double value) {
+		return Math.round(value * 1000);
+	}
+
+	/**
+	 * returns the key of a voxel face in world coordinates.
+	 *
+	 * @param face position of the face's `Chunk.FACE_*` bit.
+	 *
+	 * @param plane coordinate of the face's plane along its normal.
+	 *
+	 * @param a coordinate of the face's voxel along the next axis after the normal's,
+	 * going x, y, z.
+	 *
+	 * @param b coordinate along the axis after that.
+	 */
+	private static long cellKey(int face, int plane, int a, int b) {
+		return (long) face << 48 | (long) (plane & 0xffff) << 32 | (long) (a & 0xffff) << 16 | b & 0xffff;
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.ch.voxel;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * encodes the voxels of a `VoxelData` into a deflated byte array and back, whatever
+ * the layout they were held in. The encoding is the list of distinct ids followed by
+ * one palette index per voxel in index order, packed 1, 2, 4 or 8 bits wide into bytes
+ * like `VoxelStorage` packs them into words, or two bytes each once there are more
+ * than 256 ids.
+ */
+public final class VoxelCodec {
+
+	private VoxelCodec() {
+	}
+
+	/**
+	 * encodes and deflates the voxels of `src`.
+	 *
+	 * @param src voxel data to encode.
+	 *
+	 * @param edge edge length of the cube of voxels in `src`.
+	 *
+	 * @param deflater deflater to use, reset before use so it can be shared across calls
+	 * on the same thread.
+	 *
+	 * @returns the deflated encoding.
+	 */
+	public static byte[] deflate(VoxelData src, int edge, Deflater deflater) {
+		int size = edge * edge * edge;
+		int[] palette = new int[16];
+		int palette_size = 0;
+		int last_id = 0, last_p = -1;
+		for (int i = 0; i < size; i++) {
+			int id = src.get(i);
+			if (id == last_id && last_p >= 0)
+				continue;
+			last_p = indexOf(palette, palette_size, id);
+			if (last_p < 0) {
+				if (palette_size == palette.length) {
+					int[] n_palette = new int[palette.length * 2];
+					System.arraycopy(palette, 0, n_palette, 0, palette_size);
+					palette = n_palette;
+				}
+				last_p = palette_size;
+				palette[palette_size++] = id;
+			}
+			last_id = id;
+		}
+
+		int bits = bits(palette_size);
+		byte[] raw = new byte[4 + palette_size * 4 + ((size * bits) >>> 3)];
+		int pos = putInt(raw, 0, palette_size);
+		for (int p = 0; p < palette_size; p++)
+			pos = putInt(raw, pos, palette[p]);
+		last_p = -1;
+		for (int i = 0; i < size; i++) {
+			int id = src.get(i);
+			if (id != last_id || last_p < 0) {
+				last_p = indexOf(palette, palette_size, id);
+				last_id = id;
+			}
+			if (bits == 16) {
+				raw[pos++] = (byte) (last_p >>> 8);
+				raw[pos++] = (byte) last_p;
+			} else {
+				int bit = i * bits;
+				raw[pos + (bit >>> 3)] |= last_p << (bit & 7);
+			}
+		}
+
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length >>> 4);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished())
+			out.write(buffer, 0, deflater.deflate(buffer));
+		return out.toByteArray();
+	}
+
+	/**
+	 * decodes a `deflate()` encoding into `dst`, in index order.
+	 *
+	 * @param data deflated encoding.
+	 *
+	 * @param edge edge length of the cube of voxels that was encoded.
+	 *
+	 * @param dst voxel data of the same edge length to write the voxels into.
+	 */
+	public static void inflate(byte[] data, int edge, VoxelData dst) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] header = new byte[4];
+			read(inflater, header, 4);
+			int palette_size = getInt(header, 0);
+			byte[] ids = new byte[palette_size * 4];
+			read(inflater, ids, ids.length);
+			int[] palette = new int[palette_size];
+			for (int p = 0; p < palette_size; p++)
+				palette[p] = getInt(ids, p * 4);
+
+			int size = edge * edge * edge;
+			int bits = bits(palette_size);
+			byte[] raw = new byte[(size * bits) >>> 3];
+			read(inflater, raw, raw.length);
+			if (bits == 16) {
+				for (int i = 0; i < size; i++)
+					dst.set(i, palette[(raw[i << 1] & 0xff) << 8 | (raw[(i << 1) + 1] & 0xff)]);
+			} else {
+				int mask = (1 << bits) - 1;
+				for (int i = 0; i < size; i++) {
+					int bit = i * bits;
+					dst.set(i, palette[(raw[bit >>> 3] & 0xff) >>> (bit & 7) & mask]);
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("corrupt voxel data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void read(Inflater inflater, byte[] dst, int length) throws DataFormatException {
+		int pos = 0;
+		while (pos < length) {
+			int n = inflater.inflate(dst, pos, length - pos);
+			if (n == 0 && (inflater.finished() || inflater.needsInput()))
+				throw new IllegalStateException("truncated voxel data");
+			pos += n;
+		}
+	}
+
+	/**
+	 * returns the packed width of a palette index: the smallest of 1, 2, 4, 8 or 16 bits
+	 * that can address `palette_size` ids.
+	 */
+	private static int bits(int palette_size) {
+		int bits = 1;
+		while (1 << bits < palette_size)
+			bits <<= 1;
+		return bits;
+	}
+
+	private static int indexOf(int[] palette, int palette_size, int id) {
+		for (int p = 0; p < palette_size; p++)
+			if (palette[p] == id)
+				return p;
+		return -1;
+	}
+
+	private static int putInt(byte[] dst, int pos, int value) {
+		dst[pos] = (byte) (value >>> 24);
+		dst[pos + 1] = (byte) (value >>> 16);
+		dst[pos + 2] = (byte) (value >>> 8);
+		dst[pos + 3] = (byte) value;
+		return pos + 4;
+	}
+
+	private static int getInt(byte[] src, int pos) {
+		return (src[pos] & 0xff) << 24 | (src[pos + 1] & 0xff) << 16 | (src[pos + 2] & 0xff) << 8 | (src[pos + 3] & 0xff);
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.ch.voxel;
+
+/**
+ * is the voxel payload of a chunk: a cube of block ids addressed by linear index
+ * `x + y * size + z * size * size`. Implementations trade lookup speed for memory,
+ * from the bit-packed `VoxelStorage` used for chunks near the camera to the
+ * `SparseVoxelOctree` used for distant ones.
+ */
+public interface VoxelData {
+
+	/**
+	 * receives the non-air voxels of a `VoxelData` during `forEach()`.
+	 */
+	public interface Visitor {
+
+		public void visit(int x, int y, int z, int id);
+
+	}
+
+	/**
+	 * returns the block id stored at the given voxel index.
+	 */
+	public int get(int index);
+
+	/**
+	 * stores a block id at the given voxel index.
+	 */
+	public void set(int index, int id);
+
+	/**
+	 * visits every voxel that is not `Block.AIR`.
+	 */
+	public void forEach(Visitor visitor);
+
+	/**
+	 * rebuilds the internal representation as compactly as the current content allows.
+	 */
+	public void compact();
+
+	/**
+	 * checks whether every voxel holds the same id.
+	 */
+	public boolean isUniform();
+
+	/**
+	 * returns the id held by every voxel, only meaningful if `isUniform()` is `true`.
+	 */
+	public int getUniformValue();
+
+	/**
+	 * estimates the memory held by the voxel data in bytes.
+	 */
+	public long getMemoryUsage();
+
+	/**
+	 * frees whatever the voxel data holds outside the garbage collected heap. The data
+	 * must not be used afterwards.
+	 */
+	public void release();
+
+}
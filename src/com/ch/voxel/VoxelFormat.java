@@ -0,0 +1,15 @@
+package com.ch.voxel;
+
+/**
+ * selects how a chunk near the camera keeps its voxels. Distant chunks may still be
+ * turned into a `SparseVoxelOctree` by the world whatever the format.
+ */
+public enum VoxelFormat {
+
+	/** bit-packed palette indices, see `VoxelStorage` and `OffHeapVoxelStorage` */
+	PALETTE,
+
+	/** run-length encoded y columns, see `RleColumnStorage` */
+	RLE_COLUMNS
+
+}
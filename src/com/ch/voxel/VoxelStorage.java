@@ -0,0 +1,348 @@
+package com.ch.voxel;
+
+import java.util.Arrays;
+
+/**
+ * stores the block ids of a chunk as a palette of distinct ids plus a bit-packed
+ * array of palette indices. The width of each packed entry grows (1, 2, 4, 8 or 16
+ * bits) as new ids are added to the palette, so a chunk that only holds air and one
+ * solid type costs a single bit per voxel instead of an object reference.
+ *
+ * Entry widths are kept at powers of two so that an entry never straddles two
+ * `long` words and every lookup is one shift and one mask.
+ *
+ * A storage whose voxels all hold the same id is kept uniform: only the single
+ * palette entry exists and the packed array is not allocated until a differing id
+ * is written.
+ *
+ * The packed words are only reached through `getWord()`, `setWord()` and
+ * `resizeWords()`, and are repacked in place when the entry width changes, so a
+ * subclass such as `OffHeapVoxelStorage` can keep them outside the Java heap.
+ */
+public class VoxelStorage implements VoxelData {
+
+	private static final int MAX_BITS = 16;
+
+	private final int edge, edge_log2, size;
+	private int[] palette;
+	private int palette_size;
+	private int bits, bits_log2;
+	private long mask;
+	private boolean uniform;
+	private long[] data;
+
+	/**
+	 * creates a uniform storage of `edge`^3 voxels, all set to `fill`. No packed array
+	 * is allocated until a different id is stored.
+	 *
+	 * @param edge power of two edge length of the cube of voxels held by the storage.
+	 *
+	 * @param fill block id every voxel starts out as.
+	 */
+	public VoxelStorage(int edge, int fill) {
+		this.edge = edge;
+		this.edge_log2 = Integer.numberOfTrailingZeros(edge);
+		this.size = edge * edge * edge;
+		this.palette = new int[] { fill, 0 };
+		this.palette_size = 1;
+		setBits(1);
+		this.uniform = true;
+	}
+
+	/**
+	 * returns the block id stored at the given voxel index.
+	 *
+	 * @param index linear voxel index within the storage.
+	 *
+	 * @returns the block id at `index`.
+	 */
+	@Override
+	public int get(int index) {
+		if (uniform)
+			return palette[0];
+		return palette[read(index, bits_log2, mask)];
+	}
+
+	/**
+	 * stores a block id at the given voxel index, adding it to the palette and widening
+	 * the packed entries if the id has not been seen before.
+	 *
+	 * @param index linear voxel index within the storage.
+	 *
+	 * @param id block id to store.
+	 */
+	@Override
+	public void set(int index, int id) {
+		if (uniform) {
+			if (id == palette[0])
+				return;
+			resizeWords(wordCount(size, bits_log2));
+			uniform = false;
+		}
+		int p = paletteIndex(id);
+		if (p < 0)
+			p = addToPalette(id);
+		write(index, p, bits_log2, mask);
+	}
+
+	/**
+	 * drops palette entries that are no longer referenced by any voxel and narrows the
+	 * packed entries to the smallest width that still fits the palette. A storage left
+	 * with a single id releases its packed array and becomes uniform again.
+	 */
+	@Override
+	public void compact() {
+		if (uniform)
+			return;
+		int[] counts = new int[palette_size];
+		for (int i = 0; i < size; i++)
+			counts[read(i, bits_log2, mask)]++;
+
+		int[] remap = new int[palette_size];
+		int[] n_palette = new int[Math.max(2, palette_size)];
+		int n_size = 0;
+		for (int p = 0; p < palette_size; p++) {
+			if (counts[p] > 0) {
+				remap[p] = n_size;
+				n_palette[n_size++] = palette[p];
+			}
+		}
+		if (n_size == palette_size || n_size == 0)
+			return;
+
+		if (n_size == 1) {
+			releaseWords();
+			setBits(1);
+			uniform = true;
+		} else {
+			repack(bitsFor(n_size), remap);
+		}
+		palette = n_palette;
+		palette_size = n_size;
+	}
+
+	/**
+	 * checks whether every voxel holds the same id, in which case no packed array is
+	 * allocated.
+	 *
+	 * @returns `true` if the storage is uniform.
+	 */
+	@Override
+	public boolean isUniform() {
+		return uniform;
+	}
+
+	/**
+	 * returns the id held by every voxel of a uniform storage.
+	 *
+	 * @returns the single palette id, only meaningful if `isUniform()` is `true`.
+	 */
+	@Override
+	public int getUniformValue() {
+		return palette[0];
+	}
+
+	/**
+	 * visits every non-air voxel in index order.
+	 *
+	 * @param visitor receives the local position and id of each solid voxel.
+	 */
+	@Override
+	public void forEach(Visitor visitor) {
+		if (uniform && palette[0] == Block.AIR)
+			return;
+		for (int i = 0; i < size; i++) {
+			int id = get(i);
+			if (id != Block.AIR)
+				visitor.visit(i & (edge - 1), (i >>> edge_log2) & (edge - 1), i >>> (edge_log2 << 1), id);
+		}
+	}
+
+	/**
+	 * returns the number of distinct block ids currently in the palette.
+	 *
+	 * @returns the palette size.
+	 */
+	public int getPaletteSize() {
+		return palette_size;
+	}
+
+	/**
+	 * returns the width in bits of each packed palette index.
+	 *
+	 * @returns the current entry width.
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * estimates the footprint of this storage: the palette, the packed words and the
+	 * object headers.
+	 *
+	 * @returns the approximate size of the storage in bytes.
+	 */
+	@Override
+	public long getMemoryUsage() {
+		return 16 + (16 + palette.length * 4L) + getWordsMemory() + 32;
+	}
+
+	/**
+	 * drops the packed words and turns the storage into uniform air. Called when the
+	 * chunk owning the storage is discarded.
+	 */
+	@Override
+	public void release() {
+		if (!uniform)
+			releaseWords();
+		palette[0] = Block.AIR;
+		palette_size = 1;
+		setBits(1);
+		uniform = true;
+	}
+
+	/**
+	 * turns the storage back into a uniform one filled with `fill`, for a pooled chunk to
+	 * generate into. Unlike `release()` the packed words are kept, zeroed, so that the
+	 * next chunk does not have to allocate them again.
+	 *
+	 * @param fill block id every voxel holds afterwards.
+	 */
+	public void reset(int fill) {
+		if (!uniform)
+			recycleWords();
+		palette[0] = fill;
+		palette_size = 1;
+		setBits(1);
+		uniform = true;
+	}
+
+	/**
+	 * reads one packed word.
+	 */
+	protected long getWord(int word) {
+		return data[word];
+	}
+
+	/**
+	 * writes one packed word.
+	 */
+	protected void setWord(int word, long value) {
+		data[word] = value;
+	}
+
+	/**
+	 * resizes the packed words to `count` words, keeping the existing words and zeroing
+	 * any new ones.
+	 */
+	protected void resizeWords(int count) {
+		if (data != null && data.length == count)
+			return;
+		data = data == null ? new long[count] : Arrays.copyOf(data, count);
+	}
+
+	/**
+	 * frees the packed words once the storage has become uniform.
+	 */
+	protected void releaseWords() {
+		data = null;
+	}
+
+	/**
+	 * zeroes the packed words for `reset()`. Words wider than a 1-bit layout are dropped,
+	 * terrain almost always fits one bit per voxel.
+	 */
+	protected void recycleWords() {
+		if (data.length == wordCount(size, 0))
+			Arrays.fill(data, 0);
+		else
+			data = null;
+	}
+
+	/**
+	 * returns the memory held by the packed words in bytes.
+	 */
+	protected long getWordsMemory() {
+		return data == null ? 0 : 16 + data.length * 8L;
+	}
+
+	private int read(int index, int log2, long m) {
+		long word = getWord(index >>> (6 - log2));
+		int shift = (index & ((64 >>> log2) - 1)) << log2;
+		return (int) ((word >>> shift) & m);
+	}
+
+	private void write(int index, int p, int log2, long m) {
+		int word = index >>> (6 - log2);
+		int shift = (index & ((64 >>> log2) - 1)) << log2;
+		setWord(word, (getWord(word) & ~(m << shift)) | ((long) p << shift));
+	}
+
+	private int paletteIndex(int id) {
+		for (int p = 0; p < palette_size; p++)
+			if (palette[p] == id)
+				return p;
+		return -1;
+	}
+
+	private int addToPalette(int id) {
+		if (palette_size == palette.length) {
+			int[] n_palette = new int[palette.length * 2];
+			System.arraycopy(palette, 0, n_palette, 0, palette_size);
+			palette = n_palette;
+		}
+		int p = palette_size++;
+		palette[p] = id;
+		if (palette_size > (1 << bits))
+			repack(bitsFor(palette_size), null);
+		return p;
+	}
+
+	/**
+	 * changes the entry width in place. Widening walks the entries backwards and
+	 * narrowing walks them forwards, so no entry is overwritten before it is read.
+	 */
+	private void repack(int n_bits, int[] remap) {
+		int old_log2 = bits_log2;
+		long old_mask = mask;
+		boolean widen = n_bits > bits;
+
+		if (widen)
+			resizeWords(wordCount(size, Integer.numberOfTrailingZeros(n_bits)));
+		setBits(n_bits);
+
+		if (widen) {
+			for (int i = size - 1; i >= 0; i--) {
+				int p = read(i, old_log2, old_mask);
+				write(i, remap != null ? remap[p] : p, bits_log2, mask);
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				int p = read(i, old_log2, old_mask);
+				write(i, remap != null ? remap[p] : p, bits_log2, mask);
+			}
+			resizeWords(wordCount(size, bits_log2));
+		}
+	}
+
+	private void setBits(int n_bits) {
+		if (n_bits > MAX_BITS)
+			throw new IllegalStateException("palette exceeds " + (1 << MAX_BITS) + " entries");
+		this.bits = n_bits;
+		this.bits_log2 = Integer.numberOfTrailingZeros(n_bits);
+		this.mask = (1L << n_bits) - 1;
+	}
+
+	private static int bitsFor(int palette_size) {
+		int b = 1;
+		while ((1 << b) < palette_size)
+			b <<= 1;
+		return b;
+	}
+
+	private static int wordCount(int size, int bits_log2) {
+		int per_word = 64 >>> bits_log2;
+		return (size + per_word - 1) / per_word;
+	}
+
+}
@@ -1,9 +1,14 @@
 package com.ch.voxel;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.ch.Camera;
+import com.ch.Model;
 import com.ch.Shader;
+import com.ch.VertexFormat;
+import com.ch.math.Vector3f;
 
 
 /**
@@ -23,29 +28,453 @@ public class World {
 	private int x, y, z; // in chunks
 			// private int cunk_max;
 	private Chunk[][][] chunks; // TODO: unwrap
-	private int W = 4, H = 2, D = 4;
+	private static final int VIEW_WIDTH = 256, VIEW_HEIGHT = 128; // default extent of the loaded grid in voxels
+	private final int W, H, D;
+	private int sparse_distance; // in chunks, farther chunks are kept as octrees
+	private VoxelFormat format;
+	private VoxelArena arena; // null when voxel data is kept on the heap
+	private ChunkCompactor compactor; // null when idle chunks are left as they are
+	private ChunkMesher mesher; // null when chunks are meshed on the render thread
+	private ChunkGenerator generator; // null when chunks are generated on the render thread
+	private ChunkPool pool;
+	private MeshMode mesh_mode;
+	private VertexFormat vertex_format;
+	private boolean ambient_occlusion;
+	private boolean weld;
+	private long optimize_nanos; // per chunk, 0 to leave the triangles in the order they are meshed
+	private final ArrayList<Chunk> fresh = new ArrayList<>(); // created since the last `link()`, not meshed yet
+	private int lod_distance; // in voxels, farther chunks are drawn coarser, 0 to draw them all in full
+	private static final float LOD_MARGIN = Chunk.CHUNK_SIZE / 2; // voxels a chunk has to pass a level's boundary by
+	private float cam_x, cam_y, cam_z; // camera position in voxels as of the last `updatePos()`
+	private long triangles; // drawn by the last `render()`
+	private long culled; // left out by the last `render()` as facing away from the camera
+	private final int[] lod_chunks = new int[Chunk.MAX_LOD + 1]; // chunks drawn by the last `render()` by level
 
 	public World() {
+		this(128, VoxelFormat.PALETTE, null, null, MeshMode.NAIVE, VertexFormat.FLOAT, null, null, true, true, 0, VIEW_WIDTH, 0);
+	}
+
+	/**
+	 * creates the world around the origin. The grid of loaded chunks covers the same
+	 * volume whatever `Chunk.CHUNK_SIZE` is, so smaller chunks mean more of them.
+	 * 
+	 * @param sparse_distance chebyshev distance in voxels from the camera's chunk beyond
+	 * which chunks are stored as `SparseVoxelOctree`s instead of dense storage, rounded
+	 * down to whole chunks.
+	 * 
+	 * @param format layout of the voxel data of chunks within `sparse_distance`.
+	 * 
+	 * @param arena arena holding the `PALETTE` voxel data of all chunks off-heap, or
+	 * `null` to keep it on the heap.
+	 * 
+	 * @param compactor compactor deflating the voxel data of idle chunks, or `null` to
+	 * keep it as it is.
+	 * 
+	 * @param mesh_mode mesher used for the chunks' models.
+	 * 
+	 * @param vertex_format vertex layout of the chunks' models. `PACKED` needs chunks of
+	 * at most 64 voxels and the `default` shader.
+	 * 
+	 * @param mesher mesher meshing the chunks in the background, whose meshes are swapped
+	 * in by `applyMeshes()`, or `null` to mesh them on the render thread as they are
+	 * generated.
+	 * 
+	 * @param generator generator generating the chunks on its threads, which are placed
+	 * into the grid by `applyChunks()` as they are done, or `null` to generate them on
+	 * the render thread before the constructor or `updatePos()` returns.
+	 * 
+	 * @param ambient_occlusion `true` to bake ambient occlusion into the chunks' vertices.
+	 * 
+	 * @param weld `true` to merge the vertices the faces of the chunks' meshes share.
+	 * 
+	 * @param optimize_nanos time in nanoseconds each chunk may spend reordering its
+	 * triangles for the GPU's vertex cache and front to back, see
+	 * `Chunk.setOptimizing()`, or 0 to draw them in the order they are meshed.
+	 * 
+	 * @param view_width width and depth of the grid of loaded chunks in voxels, rounded
+	 * down to whole chunks. Its height stays 128 voxels.
+	 * 
+	 * @param lod_distance distance in voxels from the camera beyond which chunks are
+	 * drawn at half resolution, then at a quarter beyond twice that distance and so on
+	 * down to `Chunk.MAX_LOD`, or 0 to draw every chunk at full resolution.
+	 */
+	public World(int sparse_distance, VoxelFormat format, VoxelArena arena, ChunkCompactor compactor, MeshMode mesh_mode, VertexFormat vertex_format, ChunkMesher mesher, ChunkGenerator generator,
+			boolean ambient_occlusion, boolean weld, long optimize_nanos, int view_width, int lod_distance) {
 		x = 0;
 		y = 0;
 		z = 0;
+		W = D = Math.max(1, view_width / Chunk.CHUNK_SIZE);
+		H = Math.max(1, VIEW_HEIGHT / Chunk.CHUNK_SIZE);
+		this.lod_distance = lod_distance;
+		this.sparse_distance = sparse_distance / Chunk.CHUNK_SIZE;
+		this.format = format;
+		this.arena = arena;
+		this.compactor = compactor;
+		this.mesh_mode = mesh_mode;
+		this.vertex_format = vertex_format;
+		this.mesher = mesher;
+		this.generator = generator;
+		this.ambient_occlusion = ambient_occlusion;
+		this.weld = weld;
+		this.optimize_nanos = optimize_nanos;
+		this.pool = new ChunkPool(W * H, format, arena); // one slice is evicted per step
 		chunks = new Chunk[W][H][D];
 		gen();
+		updateStorage();
+	}
+	
+	/**
+	 * converts chunks beyond `sparse_distance` from the camera's chunk to sparse octrees
+	 * and the ones within it back to dense storage. Chunks are meshed from dense data by
+	 * the time they get here, so an octree is only read again when its chunk comes close
+	 * or gets edited.
+	 */
+	private void updateStorage() {
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++) {
+					Chunk ch = chunks[i][j][k];
+					if (ch == null)
+						continue;
+					int dist = Math.max(Math.abs(ch.x - x), Math.max(Math.abs(ch.y - y), Math.abs(ch.z - z)));
+					if (dist > sparse_distance)
+						ch.toSparse();
+					else
+						ch.toDense();
+				}
+	}
+	
+	/**
+	 * sums the estimated heap footprint of the voxel data of every resident chunk.
+	 * 
+	 * @returns the approximate voxel memory of the world in bytes.
+	 */
+	public long getMemoryUsage() {
+		long total = 0;
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++)
+					if (chunks[i][j][k] != null)
+						total += chunks[i][j][k].getMemoryUsage();
+		return total;
+	}
+	
+	/**
+	 * sums the vertex buffer sizes of the resident chunks' models.
+	 * 
+	 * @returns the vertex memory of the world on the GPU in bytes.
+	 */
+	public long getVertexBytes() {
+		long total = 0;
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++)
+					if (chunks[i][j][k] != null)
+						total += chunks[i][j][k].getVertexBytes();
+		return total;
+	}
+	
+	/**
+	 * sums the index buffer sizes of the resident chunks' models.
+	 * 
+	 * @returns the index memory of the world on the GPU in bytes.
+	 */
+	public long getIndexBytes() {
+		long total = 0;
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++)
+					if (chunks[i][j][k] != null)
+						total += chunks[i][j][k].getIndexBytes();
+		return total;
+	}
+	
+	/**
+	 * sums the GPU memory the resident chunks save through welded vertices and 16 bit
+	 * indices, see `Chunk.getSavedBytes()`.
+	 * 
+	 * @returns the bytes saved.
+	 */
+	public long getSavedBytes() {
+		long total = 0;
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++)
+					if (chunks[i][j][k] != null)
+						total += chunks[i][j][k].getSavedBytes();
+		return total;
+	}
+	
+	/**
+	 * returns the average cache miss ratio of the resident chunks' reordered meshes, the
+	 * vertices transformed per triangle, see `ChunkMesh.getCacheMisses()`.
+	 * 
+	 * @param optimized `true` for the triangles' new order, `false` for the order they
+	 * were meshed in.
+	 * 
+	 * @returns the ratio, 0 if no mesh was reordered.
+	 */
+	public float getCacheMissRatio(boolean optimized) {
+		long[] totals = new long[3];
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++)
+					if (chunks[i][j][k] != null)
+						chunks[i][j][k].addCacheMisses(totals);
+		return totals[0] == 0 ? 0 : (float) totals[optimized ? 2 : 1] / totals[0];
 	}
 	
 	/**
 	 * iterates through a 3D grid of chunks, creating new chunks at each position and
-	 * updating their blocks and transforming them into a gen model.
+	 * updating their blocks and transforming them into a gen model. With a generator the
+	 * slots stay empty until `applyChunks()` fills them.
 	 */
 	private void gen() {
 		for (int i = 0; i < W; i++)
 			for (int j = 0; j < H; j++)
 				for (int k = 0; k < D; k++) {
-					chunks[i][j][k] = new Chunk(i - W / 2 + x, j - H / 2 + y, k - D / 2 + z);
-					chunks[i][j][k].updateBlocks();
-					chunks[i][j][k].toGenModel();
+					if (chunks[i][j][k] != null)
+						releaseChunk(chunks[i][j][k]);
+					chunks[i][j][k] = newChunk(i - W / 2 + x, j - H / 2 + y, k - D / 2 + z);
+				}
+		link();
+	}
+	
+	/**
+	 * points every chunk at its six neighbours in the grid, or at `null` on the grid's
+	 * outer faces, then meshes the chunks created since the last call, whose ambient
+	 * occlusion reads their neighbours. Chunks only remesh the borders whose neighbour
+	 * actually changed, so after a shift that is the borders along the new and the
+	 * evicted slices, plus the sections of the chunks next to them for their ambient
+	 * occlusion. Slots whose chunk is still being generated count as the grid's outer
+	 * faces until it is placed.
+	 */
+	private void link() {
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++) {
+					Chunk ch = chunks[i][j][k];
+					if (ch == null) // still being generated
+						continue;
+					ch.setNeighbour(Chunk.FACE_LT, i > 0     ? chunks[i - 1][j][k] : null);
+					ch.setNeighbour(Chunk.FACE_RT, i < W - 1 ? chunks[i + 1][j][k] : null);
+					ch.setNeighbour(Chunk.FACE_BT, j > 0     ? chunks[i][j - 1][k] : null);
+					ch.setNeighbour(Chunk.FACE_TP, j < H - 1 ? chunks[i][j + 1][k] : null);
+					ch.setNeighbour(Chunk.FACE_FT, k > 0     ? chunks[i][j][k - 1] : null);
+					ch.setNeighbour(Chunk.FACE_BK, k < D - 1 ? chunks[i][j][k + 1] : null);
+				}
+		for (Chunk ch : fresh)
+			ch.toGenModel();
+		fresh.clear();
+	}
+	
+	/**
+	 * generates the chunk at the given chunk coordinates, recycling an evicted chunk when
+	 * the pool has one. It is meshed by the next `link()`.
+	 * 
+	 * @returns the chunk, or `null` if it was handed to the generator, in which case
+	 * `applyChunks()` places it once it is done.
+	 */
+	private Chunk newChunk(int cx, int cy, int cz) {
+		if (generator != null) {
+			generator.submit(pool, cx, cy, cz);
+			return null;
+		}
+		Chunk ch = pool.obtain(cx, cy, cz);
+		ch.updateBlocks();
+		return setUp(ch);
+	}
+	
+	/**
+	 * sets a generated chunk up to be meshed like the rest of the world by the next
+	 * `link()`.
+	 */
+	private Chunk setUp(Chunk ch) {
+		ch.place();
+		ch.setMeshMode(mesh_mode);
+		ch.setVertexFormat(vertex_format);
+		ch.setMesher(mesher);
+		ch.setAmbientOcclusion(ambient_occlusion);
+		ch.setWelding(weld);
+		ch.setOptimizing(optimize_nanos);
+		ch.setLod(lod_distance > 0 ? levelAt(distance(ch)) : 0);
+		fresh.add(ch);
+		if (compactor != null)
+			compactor.track(ch);
+		return ch;
+	}
+	
+	/**
+	 * moves every chunk to the level of detail for its distance to the camera: full
+	 * resolution within `lod_distance`, then one level coarser each time the distance
+	 * doubles. A chunk only changes level once it is `LOD_MARGIN` past the boundary
+	 * between two levels, so that moving along a boundary does not remesh the chunks on
+	 * it back and forth.
+	 */
+	private void updateLod() {
+		for (int i = 0; i < W; i++)
+			for (int j = 0; j < H; j++)
+				for (int k = 0; k < D; k++) {
+					Chunk ch = chunks[i][j][k];
+					if (ch == null)
+						continue;
+					float d = distance(ch);
+					int level = ch.getLod(), coarser = levelAt(d - LOD_MARGIN), finer = levelAt(d + LOD_MARGIN);
+					if (level < coarser)
+						ch.setLod(coarser);
+					else if (level > finer)
+						ch.setLod(finer);
 				}
 	}
+	
+	private int levelAt(float distance) {
+		int level = 0;
+		while (level < Chunk.MAX_LOD && distance >= (float) lod_distance * (1 << level))
+			level++;
+		return level;
+	}
+	
+	/**
+	 * returns the distance from the camera to the closest point of a chunk, in voxels.
+	 */
+	private float distance(Chunk ch) {
+		float dx = gap(cam_x, ch.x), dy = gap(cam_y, ch.y), dz = gap(cam_z, ch.z);
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+	
+	private static float gap(float p, int chunk) {
+		float lo = chunk * Chunk.CHUNK_SIZE, hi = lo + Chunk.CHUNK_SIZE;
+		return p < lo ? lo - p : p > hi ? p - hi : 0;
+	}
+	
+	/**
+	 * returns the number of triangles drawn by the last `render()`.
+	 */
+	public long getTriangleCount() {
+		return triangles;
+	}
+	
+	/**
+	 * returns the number of triangles the last `render()` left out because their face
+	 * direction was turned away from the camera, see `Chunk.getVisibleFaces()`.
+	 */
+	public long getCulledTriangleCount() {
+		return culled;
+	}
+	
+	/**
+	 * returns the number of chunks drawn by the last `render()` at a level of detail.
+	 * 
+	 * @param level from 0 for full resolution to `Chunk.MAX_LOD`.
+	 */
+	public int getChunkCount(int level) {
+		return lod_chunks[level];
+	}
+	
+	/**
+	 * returns the grid of loaded chunks, for the headless benchmarks and checks.
+	 * 
+	 * @returns the chunks by their position in the grid, `null` where one is still being
+	 * generated.
+	 */
+	Chunk[][][] getChunks() {
+		return chunks;
+	}
+	
+	private void releaseChunk(Chunk ch) {
+		if (ch == null) // still being generated, dropped by `applyChunks()` when done
+			return;
+		if (compactor != null)
+			compactor.untrack(ch);
+		pool.recycle(ch);
+	}
+	
+	/**
+	 * returns the pool recycling evicted chunks.
+	 * 
+	 * @returns the world's chunk pool.
+	 */
+	public ChunkPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * returns the arena holding the chunks' voxel data off-heap.
+	 * 
+	 * @returns the arena, or `null` if voxel data is kept on the heap.
+	 */
+	public VoxelArena getArena() {
+		return arena;
+	}
+	
+	/**
+	 * returns the mesher meshing the chunks in the background.
+	 * 
+	 * @returns the mesher, or `null` if chunks are meshed on the render thread.
+	 */
+	public ChunkMesher getMesher() {
+		return mesher;
+	}
+	
+	/**
+	 * swaps the meshes finished by the mesher into their chunks and uploads them, within
+	 * a time budget. Chunks are left dense while they are being meshed, so the ones
+	 * swapped in are converted to octrees afterwards if they are far enough.
+	 * 
+	 * @param budget_nanos time the uploads may take this frame, in nanoseconds.
+	 */
+	public void applyMeshes(long budget_nanos) {
+		if (mesher != null && mesher.apply(budget_nanos) > 0)
+			updateStorage();
+	}
+	
+	/**
+	 * places the chunks finished by the generator into their slots of the grid, links
+	 * them to their neighbours and meshes them. A chunk whose slot left the grid while it
+	 * was generated, or that was generated twice because the grid came back to it, goes
+	 * back to the pool. Must be called on the main thread, every frame while the
+	 * generator has chunks pending.
+	 * 
+	 * @returns the number of chunks placed.
+	 */
+	public int applyChunks() {
+		if (generator == null)
+			return 0;
+		int count = 0;
+		Chunk ch;
+		while ((ch = generator.poll()) != null) {
+			int i = ch.x - x + W / 2, j = ch.y - y + H / 2, k = ch.z - z + D / 2;
+			if (i < 0 || i >= W || j < 0 || j >= H || k < 0 || k >= D || chunks[i][j][k] != null) {
+				pool.recycle(ch);
+				continue;
+			}
+			chunks[i][j][k] = setUp(ch);
+			count++;
+		}
+		if (count > 0) {
+			link();
+			updateStorage();
+		}
+		return count;
+	}
+	
+	/**
+	 * returns the generator generating the chunks in the background.
+	 * 
+	 * @returns the generator, or `null` if chunks are generated on the render thread.
+	 */
+	public ChunkGenerator getGenerator() {
+		return generator;
+	}
+	
+	/**
+	 * returns the compactor deflating the voxel data of idle chunks.
+	 * 
+	 * @returns the compactor, or `null` if idle chunks are left as they are.
+	 */
+	public ChunkCompactor getCompactor() {
+		return compactor;
+	}
 
 	/**
 	 * updates the position of a `Chunk` instance based on its `x`, `y`, and `z` variables,
@@ -65,6 +494,16 @@ public class World {
 		final int _x = (int) (x / Chunk.CHUNK_SIZE);
 		final int _y = 0;//(int) (y / Chunk.CHUNK_SIZE);
 		final int _z = (int) (z / Chunk.CHUNK_SIZE);
+		
+		// called every frame, so this is where finished background encodings are swapped in
+		if (compactor != null)
+			compactor.apply();
+		
+		cam_x = x;
+		cam_y = y;
+		cam_z = z;
+		if (lod_distance > 0)
+			updateLod();
 
 		if (this.x == _x && this.y == _y && this.z == _z) { // short circuit
 															// check for any
@@ -191,19 +630,15 @@ public class World {
 					gen();
 					return;
 				} else {
-					Chunk[][][] n_chunks = new Chunk[W][H][D];
-					for (int i = 0; i < W; i++)
-						for (int j = 0; j < H; j++)
-							for (int k = 0; k < D - 1; k++) {
-								n_chunks[i][j][k] = chunks[i][j][k + 1];
-							}
+					// shifted in place, the evicted chunk goes back to the pool for the new one
 					for (int i = 0; i < W; i++)
 						for (int j = 0; j < H; j++) {
-							n_chunks[i][j][D - 1] = new Chunk(i - W / 2 + _x, j - H / 2 + _y, (D - 1) - D / 2 + _z);
-							n_chunks[i][j][D - 1].updateBlocks();
-							n_chunks[i][j][D - 1].toGenModel();
+							Chunk evicted = chunks[i][j][0];
+							for (int k = 0; k < D - 1; k++)
+								chunks[i][j][k] = chunks[i][j][k + 1];
+							releaseChunk(evicted);
+							chunks[i][j][D - 1] = newChunk(i - W / 2 + _x, j - H / 2 + _y, (D - 1) - D / 2 + _z);
 						}
-					World.this.chunks = n_chunks;
 				}
 			} else {
 				int dif = wz - _z;
@@ -214,19 +649,14 @@ public class World {
 					gen();
 					return;
 				} else {
-					Chunk[][][] n_chunks = new Chunk[W][H][D];
-					for (int i = 0; i < W; i++)
-						for (int j = 0; j < H; j++)
-							for (int k = 1; k < D; k++) {
-								n_chunks[i][j][k] = chunks[i][j][k - 1];
-							}
 					for (int i = 0; i < W; i++)
 						for (int j = 0; j < H; j++) {
-							n_chunks[i][j][0] = new Chunk(i - W / 2 + _x, j - H / 2 + _y, 0 - D / 2 + _z);
-							n_chunks[i][j][0].updateBlocks();
-							n_chunks[i][j][0].toGenModel();
+							Chunk evicted = chunks[i][j][D - 1];
+							for (int k = D - 1; k > 0; k--)
+								chunks[i][j][k] = chunks[i][j][k - 1];
+							releaseChunk(evicted);
+							chunks[i][j][0] = newChunk(i - W / 2 + _x, j - H / 2 + _y, 0 - D / 2 + _z);
 						}
-					World.this.chunks = n_chunks;
 				}
 			}
 		}
@@ -242,6 +672,9 @@ public class World {
 		this.y = _y;
 		this.z = _z;
 		
+		link();
+		updateStorage();
+		
 		/* welp... this logic sure looks aweful */
 	}
 
@@ -293,9 +726,14 @@ public class World {
 	 * 4/ Setting the uniform value for the modelview matrix (`MVP`) using the `unifromMat4`
 	 * method with the name `"MVP"` and passing the product of the viewprojection matrix
 	 * and the model matrix as an argument.
-	 * 5/ Drawing the 3D model associated with the chunk using the `getModel().draw()` method.
+	 * 5/ Drawing the 3D model associated with the chunk using the `getModel().draw()` method,
+	 * leaving out the face directions turned away from the camera.
 	 */
 	public void render(Shader s, Camera c) {
+		s.uniformi("packed", vertex_format == VertexFormat.PACKED ? 1 : 0);
+		triangles = culled = 0;
+		Arrays.fill(lod_chunks, 0);
+		Vector3f pos = c.getTransform().getTransformedPos();
 		for (int i = 0; i < W; i++)
 			for (int j = 0; j < H; j++)
 				for (int k = 0; k < D; k++) {
@@ -304,6 +742,10 @@ public class World {
 	//					float r = (W - i) / (float) W;
 	//					float g = j / (float) H;
 	//					float b = k / (float) D;
+						Model m = ch.getModel();
+						if (m == null) // nothing to draw for empty or fully enclosed chunks
+							continue;
+						lod_chunks[ch.getLod()]++;
 						Color cl = new Color(("" + ch.x + ch.y + ch.z + (ch.x * ch.z) + (ch.y * ch.y)).hashCode());
 						
 						float r = cl.getRed() / 255f;
@@ -311,7 +753,9 @@ public class World {
 						float b = cl.getBlue() / 255f;
 						s.uniformf("color", r, g, b);
 						s.unifromMat4("MVP", (c.getViewProjection().mul(ch.getModelMatrix())));
-						ch.getModel().draw();
+						int drawn = m.draw(ch.getVisibleFaces(pos.getX(), pos.getY(), pos.getZ()));
+						triangles += drawn / 3;
+						culled += (m.getSize() - drawn) / 3;
 					}
 				}
 	}